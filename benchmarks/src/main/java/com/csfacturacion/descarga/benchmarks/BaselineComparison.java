@@ -0,0 +1,97 @@
+package com.csfacturacion.descarga.benchmarks;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compara los resultados de una ejecución de JMH (-rf json) con el baseline
+ * publicado y marca los benchmarks que empeoraron más que el umbral dado.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.csfacturacion.descarga.benchmarks.BaselineComparison \
+ *         baseline.json results.json [umbral, por defecto 0.10]
+ * </pre>
+ * <p>
+ * Termina con código 1 si hay alguna regresión, para poder usarse en CI.
+ */
+public final class BaselineComparison {
+
+    private BaselineComparison() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: BaselineComparison <baseline.json> <results.json> [umbral]");
+            System.exit(2);
+        }
+
+        Map<String, JsonObject> baseline = read(Path.of(args[0]));
+        Map<String, JsonObject> results = read(Path.of(args[1]));
+        double umbral = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+
+        int regresiones = 0;
+        for (Map.Entry<String, JsonObject> entry : results.entrySet()) {
+            JsonObject actual = entry.getValue();
+            JsonObject anterior = baseline.get(entry.getKey());
+
+            double score = score(actual);
+            String unit = actual.getAsJsonObject("primaryMetric").get("scoreUnit").getAsString();
+            if (anterior == null) {
+                System.out.printf("%-70s %12.3f %-8s %12s%n", entry.getKey(), score, unit, "(nuevo)");
+                continue;
+            }
+
+            // en los modos de tiempo un score menor es mejor, en throughput uno mayor
+            double cambio = (score - score(anterior)) / score(anterior);
+            boolean empeoro = "thrpt".equals(actual.get("mode").getAsString()) ? cambio < -umbral : cambio > umbral;
+            if (empeoro) {
+                regresiones++;
+            }
+
+            System.out.printf(
+                    "%-70s %12.3f %-8s %+8.1f%%%s%n",
+                    entry.getKey(), score, unit, cambio * 100, empeoro ? "  REGRESIÓN" : "");
+        }
+
+        System.out.println(regresiones + " regresiones con un umbral de " + Math.round(umbral * 100) + "%");
+        System.exit(regresiones > 0 ? 1 : 0);
+    }
+
+    private static double score(JsonObject result) {
+        return result.getAsJsonObject("primaryMetric").get("score").getAsDouble();
+    }
+
+    /**
+     * @return los resultados por benchmark y parámetros.
+     */
+    private static Map<String, JsonObject> read(Path path) throws IOException {
+        Map<String, JsonObject> results = new LinkedHashMap<>();
+
+        try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            for (JsonElement element : JsonParser.parseReader(in).getAsJsonArray()) {
+                JsonObject result = element.getAsJsonObject();
+
+                StringBuilder key = new StringBuilder(result.get("benchmark").getAsString());
+                if (result.has("params")) {
+                    Map<String, String> params = new TreeMap<>();
+                    result.getAsJsonObject("params")
+                            .entrySet()
+                            .forEach(p -> params.put(p.getKey(), p.getValue().getAsString()));
+                    key.append(params);
+                }
+
+                results.put(key.toString().replace("com.csfacturacion.descarga.benchmarks.", ""), result);
+            }
+        }
+
+        return results;
+    }
+}
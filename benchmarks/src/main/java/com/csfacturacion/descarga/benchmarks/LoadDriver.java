@@ -0,0 +1,327 @@
+package com.csfacturacion.descarga.benchmarks;
+
+import com.csfacturacion.descarga.contract.DescargaCiecImpl;
+import com.csfacturacion.descarga.contract.PollingPolicy;
+import com.csfacturacion.descarga.contract.QueryRetriever;
+import com.csfacturacion.descarga.contract.QueryRetrieverOptions;
+import com.csfacturacion.descarga.model.CfdiMeta;
+import com.csfacturacion.descarga.model.Credenciales;
+import com.csfacturacion.descarga.model.Parametros;
+import com.csfacturacion.descarga.model.Summary;
+import com.csfacturacion.descarga.standin.StandInServer;
+import com.csfacturacion.descarga.util.RequestFactory;
+import com.csfacturacion.descarga.util.http.Endpoint;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prueba de carga del cliente completo contra un {@link StandInServer}: cada
+ * flujo crea una consulta, espera a que termine (notificada por el
+ * {@link com.csfacturacion.descarga.contract.StatusChecker}), lee el resumen
+ * y todas las páginas, descarga algunos XML y, opcionalmente, el ZIP. Al
+ * terminar muestra el throughput y los percentiles de latencia de cada
+ * operación.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar -Dflows=1000 -Dconcurrency=200 \
+ *         com.csfacturacion.descarga.benchmarks.LoadDriver
+ * </pre>
+ * <p>
+ * Propiedades del sistema (valores por defecto entre paréntesis):
+ * {@code flows} (500), {@code concurrency} (100), {@code latencyMs} (20, la
+ * latencia de cada respuesta varía entre la mitad y 1.5 veces este valor),
+ * {@code errorRate} (0.01, respuestas 502 en progreso, resultados, CFDI y
+ * ZIP, que el cliente reintenta), {@code pollsPerStatus} (2),
+ * {@code results} (100), {@code pageSize} (20), {@code xmlSize} (4096),
+ * {@code xmls} (10, XML descargados por flujo) y {@code zip} (true).
+ */
+public final class LoadDriver {
+
+    private static final List<String> OPERACIONES =
+            List.of("consultar", "espera", "resumen", "pagina", "xml", "zip", "flujo");
+
+    private final Map<String, Latencias> latencias = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicInteger> fallas = new ConcurrentHashMap<>();
+
+    private final DescargaCiecImpl client;
+
+    private final Parametros params;
+
+    private final int xmls;
+
+    private final boolean zip;
+
+    private LoadDriver(DescargaCiecImpl client, int xmls, boolean zip) {
+        this.client = client;
+        this.xmls = xmls;
+        this.zip = zip;
+        this.params = new Parametros.Builder()
+                .credenciales(new Credenciales("XAXX010101000", "ciec"))
+                .fechaInicio(LocalDateTime.of(2024, 1, 1, 0, 0))
+                .fechaFin(LocalDateTime.of(2024, 1, 31, 23, 59))
+                .tipo(Parametros.Tipo.EMITIDAS)
+                .build();
+
+        for (String operacion : OPERACIONES) {
+            latencias.put(operacion, new Latencias());
+            fallas.put(operacion, new AtomicInteger());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int flows = Integer.getInteger("flows", 500);
+        int concurrency = Integer.getInteger("concurrency", 100);
+        long latencyMs = Long.getLong("latencyMs", 20);
+        double errorRate = Double.parseDouble(System.getProperty("errorRate", "0.01"));
+
+        StandInServer.Builder serverBuilder = new StandInServer.Builder()
+                .pollsPerStatus(Integer.getInteger("pollsPerStatus", 2))
+                .results(Integer.getInteger("results", 100))
+                .pageSize(Integer.getInteger("pageSize", 20))
+                .xmlSize(Integer.getInteger("xmlSize", 4096))
+                .latency(Duration.ofMillis(latencyMs / 2), Duration.ofMillis(latencyMs * 3 / 2));
+        if (errorRate > 0) {
+            for (Endpoint endpoint : List.of(Endpoint.PROGRESO, Endpoint.RESULTADOS, Endpoint.CFDI, Endpoint.ZIP)) {
+                serverBuilder.errors(endpoint, errorRate, 502);
+            }
+        }
+
+        // verificaciones frecuentes, para que la espera dependa del servidor
+        PollingPolicy.Builder polling = new PollingPolicy.Builder()
+                .defaultInterval(Duration.ofMillis(50))
+                .maxInterval(Duration.ofMillis(200))
+                .maxConcurrentPolls(concurrency);
+        for (QueryRetriever.Status status : QueryRetriever.Status.values()) {
+            polling.interval(status, Duration.ofMillis(50));
+        }
+
+        try (StandInServer server = serverBuilder.build()) {
+            DescargaCiecImpl client = new DescargaCiecImpl.Builder()
+                    .csCredenciales(new Credenciales("AAA010101AAA", "password"))
+                    .requestFactory(new RequestFactory(server.getBaseUri()))
+                    // el servidor local sólo habla HTTP/1.1 en texto plano
+                    .httpVersion(HttpClient.Version.HTTP_1_1)
+                    .pollingPolicy(polling.build())
+                    .retrieverOptions(new QueryRetrieverOptions.Builder()
+                            .progressTtl(Duration.ZERO)
+                            .build())
+                    .build();
+
+            try {
+                LoadDriver driver = new LoadDriver(
+                        client,
+                        Integer.getInteger("xmls", 10),
+                        Boolean.parseBoolean(System.getProperty("zip", "true")));
+
+                System.out.printf(
+                        "%d flujos, %d simultáneos, latencia %d ms, %.1f%% de errores 502%n",
+                        flows, concurrency, latencyMs, errorRate * 100);
+
+                long inicio = System.nanoTime();
+                int completados = driver.run(flows, concurrency);
+                double segundos = (System.nanoTime() - inicio) / 1e9;
+
+                System.out.printf(
+                        "%nCompletados %d de %d flujos en %.2f s: %.1f flujos/s, %.1f solicitudes/s%n%n",
+                        completados, flows, segundos, completados / segundos, server.getRequests() / segundos);
+                driver.report();
+
+                System.out.printf("%n%-12s %12s %12s%n", "endpoint", "solicitudes", "errores");
+                for (Endpoint endpoint : Endpoint.values()) {
+                    System.out.printf(
+                            "%-12s %12d %12d%n",
+                            endpoint, server.getRequests(endpoint), server.getInjectedErrors(endpoint));
+                }
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Ejecuta los flujos, cada uno en su propio virtual thread, con a lo más
+     * {@code concurrency} simultáneos.
+     *
+     * @return flujos completados sin error.
+     */
+    private int run(int flows, int concurrency) throws InterruptedException {
+        Semaphore permisos = new Semaphore(concurrency);
+        AtomicInteger completados = new AtomicInteger();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < flows; i++) {
+                permisos.acquire();
+                executor.execute(() -> {
+                    try {
+                        if (medir("flujo", this::flujo) != null) {
+                            completados.incrementAndGet();
+                        }
+                    } finally {
+                        permisos.release();
+                    }
+                });
+            }
+        }
+
+        return completados.get();
+    }
+
+    private boolean flujo() throws Exception {
+        CompletableFuture<QueryRetriever.Status> terminada = new CompletableFuture<>();
+
+        QueryRetriever consulta = medir("consultar", () -> client.query(params, (status, retriever) -> {
+            if (status.isFinished()) {
+                terminada.complete(status);
+            }
+        }));
+        if (consulta == null) {
+            return false;
+        }
+
+        QueryRetriever.Status status = medir("espera", () -> {
+            QueryRetriever.Status actual = terminada.get(2, TimeUnit.MINUTES);
+            return actual.isFailed() ? null : actual;
+        });
+        if (status == null) {
+            return false;
+        }
+
+        Summary summary = medir("resumen", consulta::getSummary);
+        if (summary == null) {
+            return false;
+        }
+
+        List<CfdiMeta> primeros = List.of();
+        for (int page = 1; page <= summary.pages(); page++) {
+            int actual = page;
+            List<CfdiMeta> resultados = medir("pagina", () -> consulta.getResults(actual));
+            if (resultados == null) {
+                return false;
+            }
+
+            if (page == 1) {
+                primeros = resultados;
+            }
+        }
+
+        for (CfdiMeta cfdi : primeros.subList(0, Math.min(xmls, primeros.size()))) {
+            if (medir("xml", () -> consulta.getXml(cfdi.getFolio())) == null) {
+                return false;
+            }
+        }
+
+        if (zip) {
+            Path dest = Files.createTempFile("descarga-ciec-load", ".zip");
+            try {
+                return medir("zip", () -> {
+                    consulta.asZip(dest);
+                    return Files.size(dest);
+                }) != null;
+            } finally {
+                Files.deleteIfExists(dest);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Ejecuta y mide una operación.
+     *
+     * @return el resultado de la operación o null si falló.
+     */
+    private <T> T medir(String operacion, Callable<T> accion) {
+        long inicio = System.nanoTime();
+        T resultado;
+        try {
+            resultado = accion.call();
+        } catch (Exception e) {
+            resultado = null;
+        }
+
+        latencias.get(operacion).record(System.nanoTime() - inicio);
+        if (resultado == null || Boolean.FALSE.equals(resultado)) {
+            fallas.get(operacion).incrementAndGet();
+            return null;
+        }
+
+        return resultado;
+    }
+
+    private void report() {
+        System.out.printf(
+                "%-10s %8s %7s %9s %9s %9s %9s%n", "operación", "n", "fallas", "p50 ms", "p90 ms", "p99 ms", "max ms");
+
+        Map<String, long[]> muestras = new LinkedHashMap<>();
+        for (String operacion : OPERACIONES) {
+            muestras.put(operacion, latencias.get(operacion).sorted());
+        }
+
+        muestras.forEach((operacion, valores) -> {
+            if (valores.length == 0) {
+                return;
+            }
+
+            System.out.printf(
+                    "%-10s %8d %7d %9.1f %9.1f %9.1f %9.1f%n",
+                    operacion,
+                    valores.length,
+                    fallas.get(operacion).get(),
+                    percentil(valores, 0.50),
+                    percentil(valores, 0.90),
+                    percentil(valores, 0.99),
+                    valores[valores.length - 1] / 1e6);
+        });
+    }
+
+    /**
+     * @return el percentil dado, en milisegundos, por el método del rango
+     * más cercano.
+     */
+    private static double percentil(long[] valores, double p) {
+        int index = (int) Math.ceil(p * valores.length) - 1;
+
+        return valores[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Latencias registradas de una operación, en nanosegundos.
+     */
+    private static final class Latencias {
+
+        private long[] valores = new long[1024];
+
+        private int size;
+
+        synchronized void record(long nanos) {
+            if (size == valores.length) {
+                valores = Arrays.copyOf(valores, size * 2);
+            }
+
+            valores[size++] = nanos;
+        }
+
+        synchronized long[] sorted() {
+            long[] copia = Arrays.copyOf(valores, size);
+            Arrays.sort(copia);
+
+            return copia;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.csfacturacion.descarga.benchmarks;
+
+import com.csfacturacion.descarga.util.json.LocalDateTimeAdapter;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lectura de las fechas de los resultados con {@link LocalDateTimeAdapter},
+ * por fecha. Las fechas son las de la página de ejemplo.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LocalDateTimeAdapterBenchmark {
+
+    private static final int FECHAS = 200;
+
+    private final LocalDateTimeAdapter adapter = new LocalDateTimeAdapter();
+
+    private JsonPrimitive[] json;
+
+    @Setup
+    public void setup() {
+        String resultados = new String(Payloads.load(Payloads.RESULTADOS), StandardCharsets.UTF_8);
+
+        json = new JsonPrimitive[FECHAS];
+        int i = 0;
+        for (JsonElement resultado : JsonParser.parseString(resultados).getAsJsonArray()) {
+            json[i++] = resultado.getAsJsonObject().getAsJsonPrimitive("fechaEmision");
+            json[i++] = resultado.getAsJsonObject().getAsJsonPrimitive("fechaCertificacion");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FECHAS)
+    public void deserialize(Blackhole bh) {
+        for (JsonPrimitive fecha : json) {
+            bh.consume(adapter.deserialize(fecha, LocalDateTime.class, null));
+        }
+    }
+}
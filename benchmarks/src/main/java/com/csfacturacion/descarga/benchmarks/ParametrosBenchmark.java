@@ -0,0 +1,64 @@
+package com.csfacturacion.descarga.benchmarks;
+
+import com.csfacturacion.descarga.model.Credenciales;
+import com.csfacturacion.descarga.model.Parametros;
+import com.csfacturacion.descarga.util.json.GsonFactory;
+import com.csfacturacion.descarga.util.json.ParametrosJsonSerializer;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialización de los {@link Parametros} de una consulta con
+ * {@link ParametrosJsonSerializer}: el árbol JSON, y el cuerpo completo de la
+ * solicitud a /consultar, como lo genera el RequestFactory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParametrosBenchmark {
+
+    private final ParametrosJsonSerializer serializer = new ParametrosJsonSerializer();
+
+    private Gson gson;
+
+    private Parametros parametros;
+
+    @Setup
+    public void setup() {
+        gson = GsonFactory.getGsonInstance();
+        parametros = new Parametros.Builder()
+                .credenciales(new Credenciales("EKU9003173C9", "contraseña"))
+                .fechaInicio(LocalDateTime.of(2024, 1, 1, 0, 0))
+                .fechaFin(LocalDateTime.of(2024, 1, 31, 23, 59, 59))
+                .tipo(Parametros.Tipo.RECIBIDAS)
+                .tipoDoc(Parametros.TipoDoc.CFDI)
+                .status(Parametros.Status.VIGENTE)
+                .rfcBusqueda("URE180429TM6")
+                .build();
+    }
+
+    @Benchmark
+    public JsonElement arbol() {
+        return serializer.serialize(parametros, Parametros.class, null);
+    }
+
+    @Benchmark
+    public String cuerpo() {
+        return gson.toJson(parametros);
+    }
+}
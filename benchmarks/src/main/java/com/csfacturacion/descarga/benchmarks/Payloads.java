@@ -0,0 +1,69 @@
+package com.csfacturacion.descarga.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Las respuestas del webservice utilizadas por los benchmarks, incluidas en
+ * src/main/resources/payloads para que los resultados sean comparables entre
+ * ejecuciones.
+ */
+final class Payloads {
+
+    /**
+     * Una página de 100 resultados, como la devuelve
+     * /consultas/{folio}/{página}.
+     */
+    static final String RESULTADOS = "resultados.json";
+
+    /**
+     * Un CFDI 4.0 con BOM, espacios y caracteres de formato que deben
+     * eliminarse al sanitizarlo.
+     */
+    static final String CFDI = "cfdi.xml";
+
+    private Payloads() {}
+
+    static byte[] load(String name) {
+        try (InputStream in = Payloads.class.getResourceAsStream("/payloads/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("No existe el payload " + name);
+            }
+
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Crea un ZIP con el CFDI de ejemplo repetido hasta alcanzar el tamaño
+     * dado, como el que devuelve /consultas/{folio}.
+     *
+     * @param size tamaño aproximado, en bytes.
+     * @return el contenido del ZIP.
+     */
+    static byte[] zip(int size) {
+        byte[] xml = load(CFDI);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + xml.length);
+
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            // sin compresión, para que el tamaño no dependa del contenido
+            zip.setLevel(0);
+
+            for (int i = 0; out.size() < size; i++) {
+                zip.putNextEntry(new ZipEntry(String.format("%08d-0000-4000-8000-000000000000.xml", i)));
+                zip.write(xml);
+                zip.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,67 @@
+package com.csfacturacion.descarga.benchmarks;
+
+import com.csfacturacion.descarga.model.CfdiMeta;
+import com.csfacturacion.descarga.util.json.GsonFactory;
+import com.csfacturacion.descarga.util.json.JsonArrayReader;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Deserialización de una página de 100 resultados en {@link CfdiMeta}: con
+ * el cuerpo completo en un String, como {@code getResults}, y elemento por
+ * elemento con {@link JsonArrayReader}, como {@code streamResults}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResultadosBenchmark {
+
+    private static final Type LIST_TYPE = new TypeToken<List<CfdiMeta>>() {}.getType();
+
+    private Gson gson;
+
+    private String body;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        gson = GsonFactory.getGsonInstance();
+        bytes = Payloads.load(Payloads.RESULTADOS);
+        body = new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<CfdiMeta> lista() {
+        return gson.fromJson(body, LIST_TYPE);
+    }
+
+    @Benchmark
+    public void stream(Blackhole bh) throws Exception {
+        try (JsonArrayReader<CfdiMeta> reader =
+                new JsonArrayReader<>(new ByteArrayInputStream(bytes), gson, CfdiMeta.class)) {
+            while (reader.hasNext()) {
+                bh.consume(reader.next());
+            }
+        }
+    }
+}
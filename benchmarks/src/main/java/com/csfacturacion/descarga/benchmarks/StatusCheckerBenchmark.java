@@ -0,0 +1,132 @@
+package com.csfacturacion.descarga.benchmarks;
+
+import com.csfacturacion.descarga.contract.ListenerDispatchOptions;
+import com.csfacturacion.descarga.contract.ListenerDispatcher;
+import com.csfacturacion.descarga.contract.PollingPolicy;
+import com.csfacturacion.descarga.contract.QueryRetriever;
+import com.csfacturacion.descarga.contract.QueryRetrieverImpl;
+import com.csfacturacion.descarga.contract.StatusChecker;
+import com.csfacturacion.descarga.model.Progress;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tiempo para que el {@link StatusChecker} lleve {@code queries} consultas de
+ * EN_ESPERA a COMPLETADO (cuatro verificaciones cada una, cada milisegundo) y
+ * notifique a sus listeners. Las respuestas son inmediatas o llegan tras
+ * {@code latencyMs}, como las del webservice, de modo que se mide el costo de
+ * programar, limitar y despachar las verificaciones.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatusCheckerBenchmark {
+
+    private static final QueryRetriever.Status[] PROGRESION = {
+        QueryRetriever.Status.EN_ESPERA,
+        QueryRetriever.Status.EN_PROCESO,
+        QueryRetriever.Status.DESCARGANDO,
+        QueryRetriever.Status.COMPLETADO
+    };
+
+    @Param({"100", "1000", "10000"})
+    public int queries;
+
+    @Param({"0", "2"})
+    public int latencyMs;
+
+    private ScheduledExecutorService scheduler;
+
+    private PollingPolicy policy;
+
+    @Setup
+    public void setup() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        PollingPolicy.Builder builder = new PollingPolicy.Builder()
+                .defaultInterval(Duration.ofMillis(1))
+                .maxInterval(Duration.ofMillis(1))
+                .multiplier(1)
+                .jitter(0)
+                .maxConcurrentPolls(64);
+        for (QueryRetriever.Status status : PROGRESION) {
+            builder.interval(status, Duration.ofMillis(1));
+        }
+
+        policy = builder.build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public long verificar() throws InterruptedException {
+        CountDownLatch terminadas = new CountDownLatch(queries);
+        Executor respuestas = latencyMs > 0 ? CompletableFuture.delayedExecutor(latencyMs, TimeUnit.MILLISECONDS) : null;
+
+        try (ListenerDispatcher dispatcher = new ListenerDispatcher(ListenerDispatchOptions.defaults());
+                StatusChecker checker = new StatusChecker(scheduler, policy, null, dispatcher)) {
+            for (int i = 0; i < queries; i++) {
+                checker.addConsulta(new Consulta(respuestas), (status, retriever) -> {
+                    if (status.isFinished()) {
+                        terminadas.countDown();
+                    }
+                });
+            }
+
+            if (!terminadas.await(5, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Las consultas no terminaron");
+            }
+        }
+
+        return terminadas.getCount();
+    }
+
+    /**
+     * Una consulta que avanza un status en cada verificación.
+     */
+    private static final class Consulta extends QueryRetrieverImpl {
+
+        private final Executor respuestas;
+
+        private int verificaciones;
+
+        Consulta(Executor respuestas) {
+            super(null, UUID.randomUUID(), null, null);
+            this.respuestas = respuestas;
+        }
+
+        @Override
+        public CompletableFuture<Progress> getProgressAsync() {
+            // las verificaciones de una consulta no se traslapan
+            int n = Math.min(verificaciones++, PROGRESION.length - 1);
+            Progress progress = new Progress(PROGRESION[n], n);
+
+            return respuestas != null
+                    ? CompletableFuture.supplyAsync(() -> progress, respuestas)
+                    : CompletableFuture.completedFuture(progress);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.csfacturacion.descarga.benchmarks;
+
+import com.csfacturacion.descarga.util.xml.SanitizingInputStream;
+import com.csfacturacion.descarga.util.xml.XmlSanitizer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sanitización de un CFDI, como en {@code getXml}: sobre los bytes de la
+ * respuesta, sobre un String y como stream. {@code regex} es la
+ * implementación anterior, basada en expresiones regulares, como referencia.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XmlSanitizerBenchmark {
+
+    private static final Pattern FORMATO = Pattern.compile("\\p{Cf}");
+
+    private byte[] bytes;
+
+    private String xml;
+
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setup() {
+        bytes = Payloads.load(Payloads.CFDI);
+        xml = new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] bytes() {
+        return XmlSanitizer.sanitize(bytes);
+    }
+
+    @Benchmark
+    public String string() {
+        return XmlSanitizer.sanitize(xml);
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        long total = 0;
+        try (InputStream in = new SanitizingInputStream(new ByteArrayInputStream(bytes))) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+            }
+        }
+
+        return total;
+    }
+
+    @Benchmark
+    public String regex() {
+        return FORMATO.matcher(new String(bytes, StandardCharsets.UTF_8))
+                .replaceAll("")
+                .trim();
+    }
+}
@@ -0,0 +1,164 @@
+package com.csfacturacion.descarga.benchmarks;
+
+import com.csfacturacion.descarga.contract.QueryRetrieverImpl;
+import com.csfacturacion.descarga.model.ZipDownloadOptions;
+import com.csfacturacion.descarga.util.RequestFactory;
+import com.csfacturacion.descarga.util.http.ApiClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Descarga del ZIP de una consulta a disco desde un servidor local, para
+ * medir el costo de la copia y no el de la red: {@code asZip} completo,
+ * {@code asZip} por fragmentos en paralelo y, como referencia, la copia con
+ * un buffer de 8 KB desde el InputStream de la respuesta que se utilizaba
+ * antes. El throughput es {@code size} entre el tiempo por operación.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ZipBenchmark {
+
+    private static final UUID FOLIO = UUID.fromString("00000000-0000-4000-8000-000000000001");
+
+    @Param({"1048576", "16777216"})
+    public int size;
+
+    private byte[] zip;
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    private ApiClient apiClient;
+
+    private RequestFactory requestFactory;
+
+    private Consulta consulta;
+
+    private ZipDownloadOptions fragmentos;
+
+    private Path dest;
+
+    @Setup
+    public void setup() throws IOException {
+        zip = Payloads.zip(size);
+
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::serve);
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/v3";
+        requestFactory = new RequestFactory(base);
+        apiClient = new ApiClient(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build());
+        consulta = new Consulta(requestFactory, apiClient);
+        fragmentos = new ZipDownloadOptions.Builder()
+                .chunkSize(size / 4)
+                .parallelism(4)
+                .build();
+        dest = Files.createTempFile("descarga-ciec-benchmark", ".zip");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        apiClient.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        Files.deleteIfExists(dest);
+    }
+
+    @Benchmark
+    public Path asZip() throws Exception {
+        consulta.asZip(dest);
+
+        return dest;
+    }
+
+    @Benchmark
+    public Path asZipFragmentos() throws Exception {
+        consulta.asZip(dest, fragmentos);
+
+        return dest;
+    }
+
+    @Benchmark
+    public long copia8k() throws Exception {
+        HttpResponse<InputStream> response = apiClient.download(requestFactory.newDescargaZipRequest(FOLIO));
+
+        long total = 0;
+        try (InputStream in = response.body();
+                OutputStream out = Files.newOutputStream(dest)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                total += n;
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Responde con el ZIP completo o con el rango solicitado.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+
+        int from = 0;
+        int to = zip.length - 1;
+        if (range != null && range.startsWith("bytes=")) {
+            String[] limites = range.substring(6).split("-", -1);
+            from = Integer.parseInt(limites[0]);
+            if (!limites[1].isEmpty()) {
+                to = Math.min(to, Integer.parseInt(limites[1]));
+            }
+
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + zip.length);
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", "application/zip");
+        exchange.sendResponseHeaders(range != null ? 206 : 200, to - from + 1);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(zip, from, to - from + 1);
+        }
+    }
+
+    private static final class Consulta extends QueryRetrieverImpl {
+
+        Consulta(RequestFactory requestFactory, ApiClient apiClient) {
+            super(null, FOLIO, requestFactory, apiClient);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.csfacturacion.descarga.contract;
+
+import com.csfacturacion.descarga.model.SyncCheckpoint;
+import com.csfacturacion.descarga.model.SyncKey;
+
+/**
+ * Almacena el checkpoint de cada conjunto de CFDI sincronizado con
+ * {@link IncrementalSync}. Las implementaciones deben ser thread-safe.
+ */
+public interface CheckpointStore {
+
+    /**
+     * @param key del conjunto de CFDI.
+     * @return el último checkpoint guardado o null si nunca se ha
+     * sincronizado.
+     */
+    SyncCheckpoint get(SyncKey key);
+
+    /**
+     * @param key        del conjunto de CFDI.
+     * @param checkpoint a guardar.
+     */
+    void put(SyncKey key, SyncCheckpoint checkpoint);
+}
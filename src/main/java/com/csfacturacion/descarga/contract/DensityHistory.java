@@ -0,0 +1,182 @@
+package com.csfacturacion.descarga.contract;
+
+import com.csfacturacion.descarga.model.Parametros;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Historial de los rangos de fechas en los que las consultas de un RFC
+ * terminaron con {@link QueryRetriever.Status#FALLO_500_MISMO_HORARIO} por
+ * tener demasiados CFDI. Lo utiliza {@link ShardedQuery} para dividir de
+ * antemano esos rangos en las siguientes consultas del mismo RFC y tipo, en
+ * lugar de esperar a que fallen.
+ * <p>
+ * Sólo se conservan los rangos más pequeños: si un rango contiene a otro que
+ * también falló, el más amplio no aporta información.
+ * <p>
+ * Si se crea con {@link #load(Path)}, el historial se guarda en el archivo
+ * dado cada vez que cambia.
+ */
+public class DensityHistory {
+
+    // "rfc|tipo" -> rangos que fallaron, guardado por this
+    private final Map<String, List<Window>> windows = new HashMap<>();
+
+    private final Path file;
+
+    /**
+     * Crea un historial que sólo se mantiene en memoria.
+     */
+    public DensityHistory() {
+        this(null);
+    }
+
+    private DensityHistory(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Carga el historial del archivo dado, si existe. Los cambios
+     * posteriores se guardan en el mismo archivo.
+     *
+     * @param file del historial.
+     * @return el historial.
+     * @throws IOException si no es posible leer el archivo.
+     */
+    public static DensityHistory load(Path file) throws IOException {
+        DensityHistory history = new DensityHistory(file);
+
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] campos = line.split("\t");
+                if (campos.length != 3) {
+                    continue;
+                }
+
+                history.add(campos[0], new Window(LocalDateTime.parse(campos[1]), LocalDateTime.parse(campos[2])));
+            }
+        }
+
+        return history;
+    }
+
+    /**
+     * Determina si el rango de los parámetros dados debe dividirse antes de
+     * consultarse, es decir, si se traslapa con un rango de igual o menor
+     * tamaño que ya falló.
+     *
+     * @param parametros de la consulta.
+     * @return true si es probable que la consulta falle por tener demasiados
+     * CFDI.
+     */
+    public synchronized boolean isDense(Parametros parametros) {
+        Window consulta = Window.of(parametros);
+
+        for (Window fallo : windows.getOrDefault(keyOf(parametros), List.of())) {
+            if (fallo.overlaps(consulta) && consulta.duration().compareTo(fallo.duration()) >= 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Registra que la consulta con los parámetros dados terminó con
+     * {@link QueryRetriever.Status#FALLO_500_MISMO_HORARIO}.
+     *
+     * @param parametros de la consulta que falló.
+     */
+    public void record(Parametros parametros) {
+        boolean changed;
+        synchronized (this) {
+            changed = add(keyOf(parametros), Window.of(parametros));
+        }
+
+        if (changed) {
+            save();
+        }
+    }
+
+    private synchronized boolean add(String key, Window nuevo) {
+        List<Window> fallos = windows.computeIfAbsent(key, k -> new ArrayList<>());
+
+        for (Window fallo : fallos) {
+            if (nuevo.contains(fallo)) {
+                return false;
+            }
+        }
+
+        fallos.removeIf(fallo -> fallo.contains(nuevo));
+        fallos.add(nuevo);
+
+        return true;
+    }
+
+    private static String keyOf(Parametros parametros) {
+        String rfc = parametros.getCredenciales().user();
+        String tipo = parametros.getTipo() != null ? parametros.getTipo().name() : "-";
+
+        return rfc + "|" + tipo;
+    }
+
+    private synchronized void save() {
+        if (file == null) {
+            return;
+        }
+
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+
+            // se escribe en un archivo temporal para no dejar el historial incompleto
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try {
+                try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    for (Map.Entry<String, List<Window>> rfc : windows.entrySet()) {
+                        for (Window fallo : rfc.getValue()) {
+                            out.write(rfc.getKey() + "\t" + fallo.inicio() + "\t" + fallo.fin());
+                            out.newLine();
+                        }
+                    }
+                }
+
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record Window(LocalDateTime inicio, LocalDateTime fin) {
+
+        static Window of(Parametros parametros) {
+            return new Window(parametros.getFechaInicio(), parametros.getFechaFin());
+        }
+
+        Duration duration() {
+            return Duration.between(inicio, fin);
+        }
+
+        boolean overlaps(Window other) {
+            return !inicio.isAfter(other.fin) && !other.inicio.isAfter(fin);
+        }
+
+        boolean contains(Window other) {
+            return !inicio.isAfter(other.inicio) && !fin.isBefore(other.fin);
+        }
+    }
+}
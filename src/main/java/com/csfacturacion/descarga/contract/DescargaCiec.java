@@ -3,6 +3,7 @@ package com.csfacturacion.descarga.contract;
 import com.csfacturacion.descarga.error.InvalidQueryException;
 import com.csfacturacion.descarga.model.Parametros;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public interface DescargaCiec {
 
@@ -34,6 +35,28 @@ public interface DescargaCiec {
      */
     QueryRetriever query(Parametros params, QueryProgressListener listener) throws InvalidQueryException;
 
+    /**
+     * Versión asíncrona de {@link #query(Parametros)}, no bloquea el hilo
+     * actual mientras se crea la consulta en el webservice.
+     *
+     * @param params los parámetros de búsqueda.
+     * @return un future que se completa con la consulta creada o con
+     * {@link InvalidQueryException} si ocurre un problema con los parámetros.
+     */
+    CompletableFuture<QueryRetriever> queryAsync(Parametros params);
+
+    /**
+     * Versión asíncrona de {@link #query(Parametros, QueryProgressListener)}.
+     *
+     * @param params   los parámetros de búsqueda.
+     * @param listener implementación de un {@link QueryProgressListener} que
+     *                 será utilizado para manejar los cambios de
+     *                 {@link QueryRetriever.Status} de la consulta resultante.
+     * @return un future que se completa con la consulta creada o con
+     * {@link InvalidQueryException} si ocurre un problema con los parámetros.
+     */
+    CompletableFuture<QueryRetriever> queryAsync(Parametros params, QueryProgressListener listener);
+
     /**
      * Es posible buscar consultas por folio específico, en caso que se hayan
      * realizado previamente y se quiera consultar sus resultados.
@@ -5,8 +5,12 @@ import com.csfacturacion.descarga.error.QueryNotFoundException;
 import com.csfacturacion.descarga.model.Credenciales;
 import com.csfacturacion.descarga.model.Parametros;
 import com.csfacturacion.descarga.util.RequestFactory;
+import com.csfacturacion.descarga.util.concurrent.CompletableFutures;
 import com.csfacturacion.descarga.util.http.ApiClient;
-import com.google.common.collect.Lists;
+import com.csfacturacion.descarga.util.http.HedgingPolicy;
+import com.csfacturacion.descarga.util.http.RateLimitOptions;
+import com.csfacturacion.descarga.util.http.RetryPolicy;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import java.io.IOException;
@@ -15,13 +19,13 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
-import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,51 +37,66 @@ public class DescargaCiecImpl implements CloseableDescargaCiec {
 
     private Credenciales csCredenciales;
 
-    private final int statusCheckTimeout = 15000; // ms
-
     private final StatusChecker statusChecker;
 
-    private final ApiClient apiClient;
+    private final ListenerDispatcher listenerDispatcher;
 
-    private final ScheduledFuture<?> statusCheckerHandle;
+    private final ScheduledExecutorService scheduler;
 
-    private final RequestFactory requestFactory;
+    private final ApiClient apiClient;
 
-    private DescargaCiecImpl() {
-        this(new RequestFactory(), DEFAULT_TIMEOUT * 1000);
-    }
+    private final RequestFactory requestFactory;
 
-    public DescargaCiecImpl(Credenciales csCredenciales, ApiClient apiClient) {
-        this(null, apiClient, DEFAULT_TIMEOUT * 1000);
-        this.csCredenciales = csCredenciales;
+    private final QueryRetrieverOptions retrieverOptions;
+
+    // el ApiClient dado en el builder puede compartirse, sólo se cierra el propio
+    private final boolean ownsApiClient;
+
+    private final ExecutorService ownedExecutor;
+
+    private DescargaCiecImpl(Builder builder) {
+        this.csCredenciales = builder.csCredenciales;
+        this.requestFactory = builder.requestFactory != null
+                ? builder.requestFactory
+                : new RequestFactory().withRequestTimeout(builder.requestTimeout);
+        this.ownsApiClient = builder.apiClient == null;
+        this.ownedExecutor = builder.virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        this.apiClient = builder.apiClient != null
+                ? builder.apiClient
+                : new ApiClient.Builder(newHttpClient(builder, ownedExecutor))
+                        .rateLimit(builder.rateLimitOptions)
+                        .retryPolicy(builder.retryPolicy)
+                        .circuitBreaker(builder.failureThreshold, builder.openDuration)
+                        .hedging(builder.hedgingPolicy)
+                        .build();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("descarga-ciec-status-checker-%d")
+                .setDaemon(true)
+                .build());
+        // el scheduler sólo programa las verificaciones, que son asíncronas; en
+        // el modo de virtual threads cada respuesta se procesa en su propio
+        // virtual thread. Los listeners siempre se notifican fuera de la
+        // verificación, para que uno lento no la detenga
+        this.listenerDispatcher = new ListenerDispatcher(builder.listenerDispatchOptions);
+        this.statusChecker = new StatusChecker(scheduler, builder.pollingPolicy, ownedExecutor, listenerDispatcher);
+        this.retrieverOptions = builder.retrieverOptions;
     }
 
-    private DescargaCiecImpl(RequestFactory requestFactory) {
-        this(requestFactory, DEFAULT_TIMEOUT * 1000);
-    }
+    private static HttpClient newHttpClient(Builder builder, Executor ownedExecutor) {
+        HttpClient.Builder http =
+                HttpClient.newBuilder().version(builder.httpVersion).connectTimeout(builder.connectTimeout);
 
-    private DescargaCiecImpl(RequestFactory requestFactory, int timeout) {
-        this(
-                requestFactory,
-                new ApiClient(HttpClient.newBuilder()
-                        .connectTimeout(Duration.ofSeconds(DEFAULT_TIMEOUT))
-                        .build()),
-                timeout);
-    }
+        Executor executor = ownedExecutor != null ? ownedExecutor : builder.executor;
+        if (executor != null) {
+            http.executor(executor);
+        }
 
-    private DescargaCiecImpl(RequestFactory requestFactory, ApiClient apiClient) {
-        this(requestFactory, apiClient, DEFAULT_TIMEOUT * 1000);
+        return http.build();
     }
 
-    private DescargaCiecImpl(RequestFactory requestFactory, ApiClient apiClient, int timeout) {
-
-        this.requestFactory = requestFactory;
-        this.statusChecker = new StatusChecker();
-        this.apiClient = apiClient;
-
-        try (ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor()) {
-            statusCheckerHandle = scheduler.scheduleAtFixedRate(statusChecker, timeout, timeout, TimeUnit.MILLISECONDS);
-        }
+    public DescargaCiecImpl(Credenciales csCredenciales, ApiClient apiClient) {
+        this(new Builder().csCredenciales(csCredenciales).apiClient(apiClient));
     }
 
     /**
@@ -87,8 +106,7 @@ public class DescargaCiecImpl implements CloseableDescargaCiec {
      * @param csCredenciales del contrato con CSFacturación
      */
     public DescargaCiecImpl(Credenciales csCredenciales) {
-        this();
-        this.csCredenciales = csCredenciales;
+        this(new Builder().csCredenciales(csCredenciales));
     }
 
     @Override
@@ -98,31 +116,41 @@ public class DescargaCiecImpl implements CloseableDescargaCiec {
 
     @Override
     public QueryRetriever query(Parametros params, QueryProgressListener listener) throws InvalidQueryException {
+        return CompletableFutures.join(queryAsync(params, listener), InvalidQueryException.class);
+    }
+
+    @Override
+    public CompletableFuture<QueryRetriever> queryAsync(Parametros params) {
+        return queryAsync(params, null);
+    }
+
+    @Override
+    public CompletableFuture<QueryRetriever> queryAsync(Parametros params, QueryProgressListener listener) {
 
         validateCredentials();
 
         HttpRequest request = requestFactory.newConsultaRequest(csCredenciales, params);
 
-        try {
-            HttpResponse<String> response = apiClient.send(request);
-
+        return apiClient.sendAsync(request).thenApply(response -> {
             JsonObject payload = JsonParser.parseString(response.body()).getAsJsonObject();
 
-            if (payload.has("error")) {
-                LOGGER.error("Error al crear consulta " + payload.get("error").getAsString());
-                throw new InvalidQueryException("Ocurrió un error al "
-                        + "comunicarse con el servidor de descarga masiva."
-                        + "mensaje de la solicitud: "
-                        + payload.get("error").getAsString());
-            }
-
-            String folio = payload.get("data").getAsJsonObject().get("uuid").getAsString();
+            try {
+                if (payload.has("error")) {
+                    LOGGER.error(
+                            "Error al crear consulta " + payload.get("error").getAsString());
+                    throw new InvalidQueryException("Ocurrió un error al "
+                            + "comunicarse con el servidor de descarga masiva."
+                            + "mensaje de la solicitud: "
+                            + payload.get("error").getAsString());
+                }
 
-            return newQueryRetriever(params, UUID.fromString(folio), listener);
+                String folio = payload.get("data").getAsJsonObject().get("uuid").getAsString();
 
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException(e);
-        }
+                return newQueryRetriever(params, UUID.fromString(folio), listener);
+            } catch (InvalidQueryException e) {
+                throw new CompletionException(e);
+            }
+        });
     }
 
     @Override
@@ -196,14 +224,71 @@ public class DescargaCiecImpl implements CloseableDescargaCiec {
         }
     }
 
+    /**
+     * Establece conexiones con el webservice (DNS, TCP y TLS) enviando
+     * solicitudes ligeras, de modo que las primeras consultas no paguen ese
+     * costo. Con HTTP/2 basta una conexión, ya que las solicitudes se
+     * multiplexan; con HTTP/1.1 se establece una conexión por solicitud
+     * simultánea. Los errores sólo se registran.
+     *
+     * @param connections solicitudes simultáneas a enviar.
+     * @return un future que se completa cuando terminan todas las solicitudes.
+     */
+    public CompletableFuture<Void> warmUp(int connections) {
+        CompletableFuture<?>[] pings = new CompletableFuture<?>[connections];
+        for (int i = 0; i < connections; i++) {
+            pings[i] = apiClient
+                    .sendAsync(requestFactory.newPingRequest(), HttpResponse.BodyHandlers.discarding())
+                    .handle((response, e) -> {
+                        if (e != null) {
+                            LOGGER.warn("No fue posible establecer la conexión con el webservice: {}", e.toString());
+                        }
+
+                        return null;
+                    });
+        }
+
+        return CompletableFuture.allOf(pings);
+    }
+
+    /**
+     * Cierra el verificador de status, descartando las notificaciones
+     * pendientes a los listeners, y, si no fue dado en el
+     * {@link Builder#apiClient(ApiClient)}, el cliente HTTP.
+     */
     @Override
     public void close() {
-        statusCheckerHandle.cancel(false);
-        apiClient.close();
+        statusChecker.close();
+        scheduler.shutdownNow();
+        listenerDispatcher.close();
+
+        if (ownsApiClient) {
+            apiClient.close();
+        }
+
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
     }
 
+    /**
+     * @return el intervalo base, en milisegundos, con el que se verifican las
+     * consultas en proceso.
+     */
     public int getStatusCheckTimeout() {
-        return statusCheckTimeout;
+        return (int) statusChecker
+                .getPolicy()
+                .interval(QueryRetriever.Status.EN_PROCESO)
+                .toMillis();
+    }
+
+    /**
+     * @return el despachador que notifica a los listeners, con sus métricas
+     * (eventos en espera, descartados y tiempo de ejecución de los
+     * listeners).
+     */
+    public ListenerDispatcher getListenerDispatcher() {
+        return listenerDispatcher;
     }
 
     protected void validateCredentials() {
@@ -214,7 +299,7 @@ public class DescargaCiecImpl implements CloseableDescargaCiec {
 
     protected QueryRetriever newQueryRetriever(Parametros parametros, UUID response) throws InvalidQueryException {
 
-        return new QueryRetrieverImpl(parametros, response, requestFactory, apiClient);
+        return new QueryRetrieverImpl(parametros, response, requestFactory, apiClient, retrieverOptions, statusChecker);
     }
 
     private QueryRetriever newQueryRetriever(Parametros parametros, UUID response, QueryProgressListener listener)
@@ -229,104 +314,297 @@ public class DescargaCiecImpl implements CloseableDescargaCiec {
         return queryRetriever;
     }
 
-    /**
-     * Las instancias de esta clase se encargan de checar el status actual de
-     * una o varias consultas, cada N segundos.
-     */
-    protected static class StatusChecker implements Runnable {
+    private void alreadyExistsValidate(java.util.UUID folio) throws QueryNotFoundException {
+        validateCredentials();
 
-        private final List<QueryHolder> queriesList = Lists.newArrayList();
+        try {
+            HttpResponse<String> response = apiClient.send(requestFactory.newStatusRequest(folio));
 
-        private final ReentrantLock consultasLock;
+            // verifica que la respuesta sea la esperada, de lo contrario
+            // no existe una consulta asociada con el folio dado
+            if (response.statusCode() != 200) {
+                throw new QueryNotFoundException("No existe ninguna consulta " + "con el UUID dado.");
+            }
+        } catch (URISyntaxException | InterruptedException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static final class Builder {
+
+        private Credenciales csCredenciales;
+
+        private ApiClient apiClient;
+
+        private RequestFactory requestFactory;
+
+        private PollingPolicy pollingPolicy = PollingPolicy.defaults();
+
+        private ListenerDispatchOptions listenerDispatchOptions = ListenerDispatchOptions.defaults();
+
+        private QueryRetrieverOptions retrieverOptions = QueryRetrieverOptions.defaults();
+
+        private RateLimitOptions rateLimitOptions = RateLimitOptions.defaults();
+
+        private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+        private int failureThreshold = 5;
+
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        private HedgingPolicy hedgingPolicy = HedgingPolicy.disabled();
+
+        private HttpClient.Version httpVersion = HttpClient.Version.HTTP_2;
+
+        private Duration connectTimeout = Duration.ofSeconds(DEFAULT_TIMEOUT);
+
+        private Duration requestTimeout;
+
+        private Executor executor;
 
-        public StatusChecker() {
-            this.consultasLock = new ReentrantLock();
+        private boolean virtualThreads;
+
+        private int prewarmConnections;
+
+        public Builder() {}
+
+        /**
+         * Las credenciales del contrato con CSFacturación.
+         *
+         * @param csCredenciales del contrato.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder csCredenciales(Credenciales csCredenciales) {
+            this.csCredenciales = csCredenciales;
+            return this;
         }
 
-        public void addConsulta(QueryRetriever consulta, QueryProgressListener listener) {
+        /**
+         * El cliente HTTP a utilizar, por defecto se crea uno nuevo. El
+         * cliente dado puede compartirse entre varias instancias (y sus
+         * conexiones, límites y circuit breakers), por lo que no se cierra al
+         * cerrar esta instancia. Si se establece, se ignoran las opciones de
+         * transporte y de resiliencia de este builder.
+         *
+         * @param apiClient a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder apiClient(ApiClient apiClient) {
+            this.apiClient = apiClient;
+            return this;
+        }
 
-            consultasLock.lock();
+        public Builder requestFactory(RequestFactory requestFactory) {
+            this.requestFactory = requestFactory;
+            return this;
+        }
 
-            try {
-                queriesList.add(new QueryHolder(consulta, listener));
-            } finally {
-                consultasLock.unlock();
-            }
+        /**
+         * La política con la que se verifica el progreso de las consultas que
+         * tienen un {@link QueryProgressListener}.
+         *
+         * @param pollingPolicy a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder pollingPolicy(PollingPolicy pollingPolicy) {
+            this.pollingPolicy = pollingPolicy;
+            return this;
         }
 
-        @Override
-        public void run() {
-            List<QueryHolder> finished = Lists.newArrayList();
-            consultasLock.lock();
+        /**
+         * Cómo se entregan los cambios de status a los
+         * {@link QueryProgressListener}, ver {@link ListenerDispatchOptions}.
+         *
+         * @param listenerDispatchOptions a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder listenerDispatch(ListenerDispatchOptions listenerDispatchOptions) {
+            this.listenerDispatchOptions = listenerDispatchOptions;
+            return this;
+        }
 
-            try {
-                for (QueryHolder holder : queriesList) {
-                    QueryRetriever.Status status;
+        /**
+         * Las opciones de los {@link QueryRetriever} creados, e.g. el caché de
+         * XML.
+         *
+         * @param retrieverOptions a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder retrieverOptions(QueryRetrieverOptions retrieverOptions) {
+            this.retrieverOptions = retrieverOptions;
+            return this;
+        }
 
-                    try {
-                        status = holder.queryRetriever.getProgress().status();
+        /**
+         * Los límites de solicitudes al webservice y el manejo de las
+         * respuestas 429 y 503. Sólo se utilizan si no se establece un
+         * {@link #apiClient(ApiClient)}.
+         *
+         * @param rateLimitOptions a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder rateLimit(RateLimitOptions rateLimitOptions) {
+            this.rateLimitOptions = rateLimitOptions;
+            return this;
+        }
 
-                        // notifica de ser necesario
-                        if (holder.listener != null && status != holder.previousStatus) {
-                            holder.previousStatus = status;
+        /**
+         * La política de reintentos de las solicitudes al webservice. Sólo se
+         * utiliza si no se establece un {@link #apiClient(ApiClient)}.
+         *
+         * @param retryPolicy a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
 
-                            if (status.isFinished()) {
-                                finished.add(holder);
-                            }
+        /**
+         * Configura los circuit breakers por clase de endpoint, por defecto se
+         * abren tras 5 fallos consecutivos durante 30 s. Sólo se utiliza si no
+         * se establece un {@link #apiClient(ApiClient)}.
+         *
+         * @param failureThreshold fallos consecutivos que abren el circuito, 0
+         *                         para nunca abrirlo.
+         * @param openDuration     tiempo que permanece abierto.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder circuitBreaker(int failureThreshold, Duration openDuration) {
+            this.failureThreshold = failureThreshold;
+            this.openDuration = openDuration;
+            return this;
+        }
 
-                            holder.listener.onStatusChanged(status, holder.queryRetriever);
-                        }
+        /**
+         * El envío de solicitudes duplicadas para las descargas de XML y
+         * páginas de resultados lentas, por defecto desactivado. Sólo se
+         * utiliza si no se establece un {@link #apiClient(ApiClient)}.
+         *
+         * @param hedgingPolicy a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder hedging(HedgingPolicy hedgingPolicy) {
+            this.hedgingPolicy = hedgingPolicy;
+            return this;
+        }
 
-                    } catch (Exception e) {
-                        // actualmente si no se puede comunicar con el servidor,
-                        // la instancia de UserAgent utilizada falla, lo que
-                        // causa que el Thread actual termine
-                        // TODO: Se necesita una excepción más específica,
-                        // y probablemente verificada
-                        LOGGER.error("Hubo un problema al intentar conectarse " + "al servidor de cfdis descarga", e);
-
-                        // también da por terminada la consulta
-                        // TODO: Notificar
-                        finished.add(holder);
-                    }
-                }
+        /**
+         * La versión de HTTP preferida, por defecto HTTP/2, que multiplexa las
+         * solicitudes simultáneas en una sola conexión. Si el servidor no lo
+         * soporta se utiliza HTTP/1.1.
+         *
+         * @param httpVersion a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder httpVersion(HttpClient.Version httpVersion) {
+            this.httpVersion = httpVersion;
+            return this;
+        }
 
-                for (QueryHolder finishedOne : finished) {
-                    queriesList.remove(finishedOne);
-                }
-            } finally {
-                consultasLock.unlock();
-            }
+        /**
+         * El tiempo máximo para establecer una conexión, por defecto 15 s.
+         *
+         * @param connectTimeout a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
         }
-    }
 
-    private static class QueryHolder {
+        /**
+         * El tiempo máximo de espera de la respuesta de cada solicitud, por
+         * defecto sin límite. Si se establece un
+         * {@link #requestFactory(RequestFactory)}, debe configurarse en éste.
+         *
+         * @param requestTimeout a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder requestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
 
-        private final QueryRetriever queryRetriever;
-        private final QueryProgressListener listener;
-        private QueryRetriever.Status previousStatus;
+        /**
+         * El executor del cliente HTTP, por defecto el del
+         * {@link HttpClient}. No se cierra al cerrar la instancia.
+         *
+         * @param executor a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
 
-        public QueryHolder(QueryRetriever queryRetriever, QueryProgressListener listener) {
+        /**
+         * Activa el modo de virtual threads, por defecto false: el cliente
+         * HTTP utiliza un virtual thread por tarea en lugar de su executor por
+         * defecto, y cada respuesta de las verificaciones de status se
+         * procesa en su propio virtual thread. Las descargas en paralelo (e.g. {@link QueryRetriever#getXmls}) ya
+         * utilizan virtual threads en cualquier modo.
+         *
+         * @param virtualThreads si se utilizan virtual threads.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
 
-            this.queryRetriever = queryRetriever;
-            this.listener = listener;
-            this.previousStatus = queryRetriever.getProgress().status();
+        /**
+         * Número de conexiones a establecer al crear la instancia, ver
+         * {@link DescargaCiecImpl#warmUp(int)}, por defecto ninguna.
+         *
+         * @param prewarmConnections conexiones a establecer.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder prewarm(int prewarmConnections) {
+            this.prewarmConnections = prewarmConnections;
+            return this;
         }
-    }
 
-    private void alreadyExistsValidate(java.util.UUID folio) throws QueryNotFoundException {
-        validateCredentials();
+        public DescargaCiecImpl build() {
+            if (pollingPolicy == null) {
+                throw new IllegalStateException("La política de verificación debe establecerse");
+            }
 
-        try {
-            HttpResponse<String> response = apiClient.send(requestFactory.newStatusRequest(folio));
+            if (listenerDispatchOptions == null) {
+                throw new IllegalStateException("Las opciones de los listeners deben establecerse");
+            }
 
-            // verifica que la respuesta sea la esperada, de lo contrario
-            // no existe una consulta asociada con el folio dado
-            if (response.statusCode() != 200) {
-                throw new QueryNotFoundException("No existe ninguna consulta " + "con el UUID dado.");
+            if (retrieverOptions == null) {
+                throw new IllegalStateException("Las opciones de las consultas deben establecerse");
             }
-        } catch (URISyntaxException | InterruptedException | IOException e) {
-            throw new RuntimeException(e);
+
+            if (httpVersion == null || connectTimeout == null) {
+                throw new IllegalStateException("httpVersion y connectTimeout deben establecerse");
+            }
+
+            if (prewarmConnections < 0) {
+                throw new IllegalStateException("prewarmConnections debe ser >= 0");
+            }
+
+            if (executor != null && virtualThreads) {
+                throw new IllegalStateException("executor y virtualThreads son excluyentes");
+            }
+
+            if (requestTimeout != null && requestFactory != null) {
+                throw new IllegalStateException("requestTimeout debe configurarse en el requestFactory dado");
+            }
+
+            if (rateLimitOptions == null || retryPolicy == null || hedgingPolicy == null) {
+                throw new IllegalStateException("Los límites y reintentos de solicitudes deben establecerse");
+            }
+
+            DescargaCiecImpl descargaCiec = new DescargaCiecImpl(this);
+            // se inicia una vez construida la instancia, no desde el constructor
+            if (prewarmConnections > 0) {
+                descargaCiec.warmUp(prewarmConnections);
+            }
+
+            return descargaCiec;
         }
     }
 }
@@ -0,0 +1,102 @@
+package com.csfacturacion.descarga.contract;
+
+import com.csfacturacion.descarga.model.SyncCheckpoint;
+import com.csfacturacion.descarga.model.SyncKey;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.Properties;
+
+/**
+ * {@link CheckpointStore} que guarda todos los checkpoints en un archivo de
+ * propiedades, e.g. {@code AAA010101AAA|RECIBIDAS|CFDI.syncedUntil=...}, o
+ * {@code AAA010101AAA|RECIBIDAS|CFDI|BBB010101BBB|VIGENTE.syncedUntil=...}
+ * para una sincronización filtrada. El archivo se reescribe completo, de
+ * forma atómica, cada vez que cambia un checkpoint.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+
+    private static final String SYNCED_UNTIL = ".syncedUntil";
+
+    private static final String LAST_FECHA_EMISION = ".lastFechaEmision";
+
+    private static final String LAST_FECHA_CERTIFICACION = ".lastFechaCertificacion";
+
+    private final Path file;
+
+    private final Properties checkpoints = new Properties();
+
+    /**
+     * @param file donde se guardan los checkpoints, se crea si no existe.
+     * @throws IOException si no es posible leer el archivo.
+     */
+    public FileCheckpointStore(Path file) throws IOException {
+        this.file = file;
+
+        if (Files.exists(file)) {
+            try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                checkpoints.load(in);
+            }
+        }
+    }
+
+    @Override
+    public synchronized SyncCheckpoint get(SyncKey key) {
+        LocalDateTime syncedUntil = read(key + SYNCED_UNTIL);
+        if (syncedUntil == null) {
+            return null;
+        }
+
+        return new SyncCheckpoint(syncedUntil, read(key + LAST_FECHA_EMISION), read(key + LAST_FECHA_CERTIFICACION));
+    }
+
+    @Override
+    public synchronized void put(SyncKey key, SyncCheckpoint checkpoint) {
+        write(key + SYNCED_UNTIL, checkpoint.syncedUntil());
+        write(key + LAST_FECHA_EMISION, checkpoint.lastFechaEmision());
+        write(key + LAST_FECHA_CERTIFICACION, checkpoint.lastFechaCertificacion());
+
+        save();
+    }
+
+    private LocalDateTime read(String property) {
+        String value = checkpoints.getProperty(property);
+
+        return value != null ? LocalDateTime.parse(value) : null;
+    }
+
+    private void write(String property, LocalDateTime value) {
+        if (value != null) {
+            checkpoints.setProperty(property, value.toString());
+        } else {
+            checkpoints.remove(property);
+        }
+    }
+
+    private void save() {
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+
+            // se escribe en un archivo temporal para no dejar los checkpoints incompletos
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try {
+                try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    checkpoints.store(out, "Checkpoints de sincronización de CFDI");
+                }
+
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.csfacturacion.descarga.contract;
+
+import com.csfacturacion.descarga.model.CfdiMeta;
+import com.csfacturacion.descarga.model.Parametros;
+import com.csfacturacion.descarga.model.SyncCheckpoint;
+import com.csfacturacion.descarga.model.SyncKey;
+import com.csfacturacion.descarga.model.SyncResult;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Sincroniza de forma incremental los CFDI de un RFC: cada ejecución consulta
+ * sólo los CFDI emitidos desde la sincronización anterior (más un traslape
+ * configurable, para incluir los CFDI que el SAT publica con retraso), y
+ * guarda hasta dónde se sincronizó en un {@link CheckpointStore}. El costo de
+ * cada ejecución depende de los CFDI nuevos, no del historial completo.
+ * <p>
+ * Debido al traslape, un mismo CFDI puede entregarse en más de una
+ * ejecución, por lo que el consumidor debe guardarlos por folio (e.g. insertar
+ * o actualizar).
+ *
+ * <pre>{@code
+ * IncrementalSync sync = new IncrementalSync.Builder(descargaCiec,
+ *                 new FileCheckpointStore(Path.of("checkpoints.properties")))
+ *         .overlap(Duration.ofDays(3))
+ *         .build();
+ *
+ * SyncResult result = sync.sync(params, cfdi -> repositorio.guardar(cfdi));
+ * }</pre>
+ */
+public class IncrementalSync {
+
+    private final DescargaCiec descargaCiec;
+
+    private final CheckpointStore store;
+
+    private final Duration overlap;
+
+    private final ShardedQuery.Granularity granularity;
+
+    private final int parallelism;
+
+    private final DensityHistory densityHistory;
+
+    private IncrementalSync(Builder builder) {
+        this.descargaCiec = builder.descargaCiec;
+        this.store = builder.store;
+        this.overlap = builder.overlap;
+        this.granularity = builder.granularity;
+        this.parallelism = builder.parallelism;
+        this.densityHistory = builder.densityHistory;
+    }
+
+    /**
+     * Consulta los CFDI nuevos desde la sincronización anterior y los entrega
+     * al consumidor dado. La primera vez se consulta el rango completo de los
+     * parámetros; las siguientes, desde el checkpoint menos el traslape (pero
+     * no antes de {@link Parametros#getFechaInicio()}) hasta
+     * {@link Parametros#getFechaFin()}. El checkpoint sólo se actualiza si
+     * todo el rango pudo consultarse, y nunca avanza más allá del inicio de
+     * la consulta, pues los CFDI emitidos después pueden no estar incluidos.
+     * Los parámetros filtrados por contraparte o status tienen su propio
+     * checkpoint, ver {@link SyncKey}.
+     * <p>
+     * Este método espera a que terminen las consultas en el webservice.
+     *
+     * @param parametros de la consulta, su rango de fechas define el inicio de
+     *                   la primera sincronización y el fin de todas.
+     * @param consumer   al que se entregan los CFDI.
+     * @return el resultado de la sincronización.
+     */
+    public SyncResult sync(Parametros parametros, Consumer<? super CfdiMeta> consumer) {
+        SyncKey key = SyncKey.of(parametros);
+        SyncCheckpoint anterior = store.get(key);
+
+        LocalDateTime inicio = parametros.getFechaInicio();
+        LocalDateTime fin = parametros.getFechaFin();
+        if (anterior != null) {
+            LocalDateTime desde = anterior.syncedUntil().minus(overlap);
+            if (desde.isAfter(inicio)) {
+                inicio = desde;
+            }
+        }
+
+        if (inicio.isAfter(fin)) {
+            return new SyncResult(inicio, fin, 0, 0, anterior);
+        }
+
+        ShardedQuery.Builder consulta = new ShardedQuery.Builder(
+                        descargaCiec, parametros.toBuilder().fechaInicio(inicio).build())
+                .granularity(granularity)
+                .parallelism(parallelism);
+        if (densityHistory != null) {
+            consulta.densityHistory(densityHistory);
+        }
+
+        // lo emitido después de iniciar la consulta se consulta en la siguiente
+        LocalDateTime ahora = LocalDateTime.now();
+        ShardedQuery sharded = consulta.build().start().await();
+
+        HighWaterMark marca = new HighWaterMark(anterior);
+        try (Stream<CfdiMeta> resultados = sharded.streamResults()) {
+            resultados.forEach(cfdi -> {
+                consumer.accept(cfdi);
+                marca.update(cfdi);
+            });
+        }
+
+        int fallidos = sharded.getFailedShards().size();
+        SyncCheckpoint checkpoint = anterior;
+        if (fallidos == 0) {
+            LocalDateTime syncedUntil = fin.isAfter(ahora) ? ahora : fin;
+            checkpoint = new SyncCheckpoint(syncedUntil, marca.fechaEmision, marca.fechaCertificacion);
+            store.put(key, checkpoint);
+        }
+
+        return new SyncResult(inicio, fin, marca.cfdis, fallidos, checkpoint);
+    }
+
+    /**
+     * @param parametros de la consulta.
+     * @return el checkpoint actual de los CFDI de los parámetros dados o null
+     * si nunca se han sincronizado.
+     */
+    public SyncCheckpoint getCheckpoint(Parametros parametros) {
+        return store.get(SyncKey.of(parametros));
+    }
+
+    private static class HighWaterMark {
+
+        private LocalDateTime fechaEmision;
+        private LocalDateTime fechaCertificacion;
+        private long cfdis;
+
+        HighWaterMark(SyncCheckpoint anterior) {
+            if (anterior != null) {
+                fechaEmision = anterior.lastFechaEmision();
+                fechaCertificacion = anterior.lastFechaCertificacion();
+            }
+        }
+
+        void update(CfdiMeta cfdi) {
+            cfdis++;
+            fechaEmision = max(fechaEmision, cfdi.getFechaEmision());
+            fechaCertificacion = max(fechaCertificacion, cfdi.getFechaCertificacion());
+        }
+
+        private static LocalDateTime max(LocalDateTime actual, LocalDateTime nueva) {
+            if (nueva == null || (actual != null && !nueva.isAfter(actual))) {
+                return actual;
+            }
+
+            return nueva;
+        }
+    }
+
+    public static final class Builder {
+
+        private final DescargaCiec descargaCiec;
+
+        private final CheckpointStore store;
+
+        private Duration overlap = Duration.ofDays(1);
+
+        private ShardedQuery.Granularity granularity = ShardedQuery.Granularity.MONTH;
+
+        private int parallelism = 4;
+
+        private DensityHistory densityHistory;
+
+        /**
+         * @param descargaCiec con el que se realizan las consultas.
+         * @param store        donde se guardan los checkpoints.
+         */
+        public Builder(DescargaCiec descargaCiec, CheckpointStore store) {
+            this.descargaCiec = descargaCiec;
+            this.store = store;
+        }
+
+        /**
+         * Cuánto tiempo antes del checkpoint se comienza a consultar en cada
+         * sincronización, por defecto un día.
+         *
+         * @param overlap con la sincronización anterior.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder overlap(Duration overlap) {
+            this.overlap = overlap;
+            return this;
+        }
+
+        /**
+         * El tamaño de los fragmentos en los que se divide el rango a
+         * consultar, por defecto un mes, ver {@link ShardedQuery}.
+         *
+         * @param granularity de los fragmentos.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder granularity(ShardedQuery.Granularity granularity) {
+            this.granularity = granularity;
+            return this;
+        }
+
+        /**
+         * Número máximo de fragmentos consultados al mismo tiempo, por
+         * defecto 4.
+         *
+         * @param parallelism fragmentos simultáneos.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * El historial de rangos con muchos CFDI, ver {@link DensityHistory}.
+         *
+         * @param densityHistory a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder densityHistory(DensityHistory densityHistory) {
+            this.densityHistory = densityHistory;
+            return this;
+        }
+
+        public IncrementalSync build() {
+            if (descargaCiec == null || store == null) {
+                throw new IllegalStateException("descargaCiec y store deben establecerse");
+            }
+
+            if (overlap == null || overlap.isNegative()) {
+                throw new IllegalStateException("overlap debe ser >= 0");
+            }
+
+            return new IncrementalSync(this);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.csfacturacion.descarga.contract;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Configura la entrega de eventos a los {@link QueryProgressListener}: cada
+ * listener tiene su propia cola, de capacidad limitada, cuyos eventos se
+ * entregan en orden en el executor dado, de modo que un listener lento no
+ * retrasa la verificación de las consultas ni a los demás listeners.
+ */
+public final class ListenerDispatchOptions {
+
+    /**
+     * Lo que se hace cuando la cola de un listener está llena. Los eventos de
+     * término (e.g. COMPLETADO) nunca se descartan, aunque se exceda la
+     * capacidad de la cola.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Se descarta el evento más antiguo de la cola, el listener recibe
+         * siempre el status más reciente.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Se descarta el nuevo evento.
+         */
+        DROP_NEWEST,
+
+        /**
+         * Se espera a que haya lugar en la cola. Detiene la verificación de
+         * las consultas mientras el listener no avance.
+         */
+        BLOCK
+    }
+
+    private final int queueCapacity;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final Executor executor;
+
+    private ListenerDispatchOptions(Builder builder) {
+        this.queueCapacity = builder.queueCapacity;
+        this.overflowPolicy = builder.overflowPolicy;
+        this.executor = builder.executor;
+    }
+
+    /**
+     * Las opciones por defecto: hasta 64 eventos por listener, descartando
+     * los más antiguos, entregados en virtual threads.
+     *
+     * @return las opciones por defecto.
+     */
+    public static ListenerDispatchOptions defaults() {
+        return new Builder().build();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return el executor en el que se notifica a los listeners, o null si
+     * se utiliza un virtual thread por tarea.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public static final class Builder {
+
+        private int queueCapacity = 64;
+
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+        private Executor executor;
+
+        public Builder() {}
+
+        /**
+         * Número máximo de eventos pendientes por listener, por defecto 64.
+         *
+         * @param queueCapacity eventos pendientes.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Lo que se hace cuando la cola de un listener está llena, por defecto
+         * {@link OverflowPolicy#DROP_OLDEST}.
+         *
+         * @param overflowPolicy a aplicar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * El executor en el que se notifica a los listeners, por defecto un
+         * virtual thread por tarea. No es cerrado por el cliente.
+         *
+         * @param executor a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public ListenerDispatchOptions build() {
+            if (queueCapacity < 1) {
+                throw new IllegalStateException("queueCapacity debe ser > 0");
+            }
+
+            if (overflowPolicy == null) {
+                throw new IllegalStateException("La política de desbordamiento debe establecerse");
+            }
+
+            return new ListenerDispatchOptions(this);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.csfacturacion.descarga.contract;
+
+import com.csfacturacion.descarga.contract.ListenerDispatchOptions.OverflowPolicy;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Entrega los cambios de status a los {@link QueryProgressListener} fuera del
+ * thread que verifica las consultas, de acuerdo a las
+ * {@link ListenerDispatchOptions} dadas. Los eventos de un mismo listener se
+ * entregan uno a la vez y en el orden en que ocurrieron; los de listeners
+ * distintos, en paralelo.
+ */
+public class ListenerDispatcher implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListenerDispatcher.class);
+
+    private final ListenerDispatchOptions options;
+
+    private final Executor executor;
+
+    private final ExecutorService ownedExecutor;
+
+    private final Map<QueryProgressListener, ListenerQueue> queues = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    private final LongAdder delivered = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder callbackNanos = new LongAdder();
+
+    private final AtomicLong maxCallbackNanos = new AtomicLong();
+
+    private final LongAdder waitNanos = new LongAdder();
+
+    private volatile boolean closed;
+
+    public ListenerDispatcher(ListenerDispatchOptions options) {
+        this.options = options;
+        this.ownedExecutor = options.getExecutor() == null ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        this.executor = ownedExecutor != null ? ownedExecutor : options.getExecutor();
+    }
+
+    /**
+     * Encola el evento para el listener dado. Sólo espera si la cola está
+     * llena y la política es {@link OverflowPolicy#BLOCK}.
+     *
+     * @param listener  a notificar.
+     * @param status    actual de la consulta.
+     * @param retriever la consulta cuyo status ha cambiado.
+     */
+    public void dispatch(QueryProgressListener listener, QueryRetriever.Status status, QueryRetriever retriever) {
+        Event event = new Event(status, retriever, System.nanoTime());
+
+        while (!closed) {
+            ListenerQueue queue = queues.computeIfAbsent(listener, ListenerQueue::new);
+            if (queue.offer(event)) {
+                return;
+            }
+
+            // la cola se retiró al vaciarse, se crea una nueva
+        }
+    }
+
+    /**
+     * @return el número de eventos en espera de ser entregados, entre todos
+     * los listeners.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return el mayor número de eventos que han estado en espera al mismo
+     * tiempo.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return el número de eventos entregados.
+     */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * @return el número de eventos descartados porque la cola de su listener
+     * estaba llena.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return el tiempo promedio de ejecución de los listeners.
+     */
+    public Duration getAverageCallbackLatency() {
+        long n = delivered.sum();
+
+        return n == 0 ? Duration.ZERO : Duration.ofNanos(callbackNanos.sum() / n);
+    }
+
+    /**
+     * @return el mayor tiempo de ejecución de un listener.
+     */
+    public Duration getMaxCallbackLatency() {
+        return Duration.ofNanos(maxCallbackNanos.get());
+    }
+
+    /**
+     * @return el tiempo promedio que un evento espera en la cola antes de
+     * ser entregado.
+     */
+    public Duration getAverageQueueWait() {
+        long n = delivered.sum();
+
+        return n == 0 ? Duration.ZERO : Duration.ofNanos(waitNanos.sum() / n);
+    }
+
+    public ListenerDispatchOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Descarta los eventos pendientes. Los listeners en ejecución terminan
+     * normalmente.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        for (ListenerQueue queue : queues.values()) {
+            queue.discard();
+        }
+
+        queues.clear();
+
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private void deliver(QueryProgressListener listener, Event event) {
+        long inicio = System.nanoTime();
+        waitNanos.add(inicio - event.enqueued());
+
+        try {
+            listener.onStatusChanged(event.status(), event.retriever());
+        } catch (RuntimeException e) {
+            LOGGER.error(
+                    "Error en el listener de la consulta " + event.retriever().getFolio(), e);
+        } finally {
+            long nanos = System.nanoTime() - inicio;
+            callbackNanos.add(nanos);
+            maxCallbackNanos.accumulateAndGet(nanos, Math::max);
+            delivered.increment();
+        }
+    }
+
+    private record Event(QueryRetriever.Status status, QueryRetriever retriever, long enqueued) {
+
+        boolean isTerminal() {
+            return status.isFinished();
+        }
+    }
+
+    /**
+     * Los eventos pendientes de un listener. Mientras tiene eventos hay a lo
+     * más una tarea en el executor entregándolos; al vaciarse la cola se
+     * retira, para no conservar las de listeners que ya no se utilizan.
+     */
+    private class ListenerQueue {
+
+        private final QueryProgressListener listener;
+
+        // guardados por this
+        private final ArrayDeque<Event> events = new ArrayDeque<>();
+        private boolean running;
+        private boolean retired;
+
+        ListenerQueue(QueryProgressListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * @return false si la cola ya se retiró y el evento debe ofrecerse a
+         * una nueva.
+         */
+        synchronized boolean offer(Event event) {
+            if (retired) {
+                return false;
+            }
+
+            if (events.size() >= options.getQueueCapacity()) {
+                if (!makeRoom(event)) {
+                    dropped.increment();
+                    return true;
+                }
+
+                // mientras se esperaba lugar, la cola pudo vaciarse y retirarse
+                if (retired) {
+                    return false;
+                }
+            }
+
+            events.add(event);
+            maxQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), Math::max);
+
+            if (!running) {
+                running = true;
+                start();
+            }
+
+            return true;
+        }
+
+        /**
+         * Aplica la política de desbordamiento.
+         *
+         * @return true si el evento debe encolarse.
+         */
+        private boolean makeRoom(Event event) {
+            switch (options.getOverflowPolicy()) {
+                case BLOCK:
+                    try {
+                        while (events.size() >= options.getQueueCapacity() && !closed) {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        // el evento se encola de cualquier forma
+                        Thread.currentThread().interrupt();
+                    }
+
+                    return !closed;
+                case DROP_NEWEST:
+                    if (event.isTerminal()) {
+                        dropOldest();
+                        return true;
+                    }
+
+                    return false;
+                case DROP_OLDEST:
+                default:
+                    return dropOldest() || event.isTerminal();
+            }
+        }
+
+        /**
+         * Descarta el evento más antiguo que no sea de término.
+         */
+        private boolean dropOldest() {
+            for (Iterator<Event> it = events.iterator(); it.hasNext(); ) {
+                if (!it.next().isTerminal()) {
+                    it.remove();
+                    queueDepth.decrementAndGet();
+                    dropped.increment();
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private void start() {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn("No fue posible notificar al listener {}: executor cerrado", listener);
+                retire();
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Event event;
+                synchronized (this) {
+                    event = closed ? null : events.poll();
+                    if (event == null) {
+                        retire();
+                        return;
+                    }
+
+                    queueDepth.decrementAndGet();
+                    notifyAll();
+                }
+
+                deliver(listener, event);
+            }
+        }
+
+        synchronized void discard() {
+            retire();
+            notifyAll();
+        }
+
+        // se llama con el lock de esta cola
+        private void retire() {
+            dropped.add(events.size());
+            queueDepth.addAndGet(-events.size());
+            events.clear();
+
+            running = false;
+            retired = true;
+            queues.remove(listener, this);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.csfacturacion.descarga.contract;
+
+import com.csfacturacion.descarga.model.CfdiMeta;
+import com.csfacturacion.descarga.util.concurrent.CompletableFutures;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+/**
+ * Recorre los resultados de todas las páginas de una consulta, en orden,
+ * mientras solicita por adelantado las siguientes páginas. Como máximo se
+ * mantienen {@code window} páginas en curso o pendientes de consumir al mismo
+ * tiempo, incluyendo la página que se está esperando.
+ */
+class PagePrefetchIterator implements Iterator<CfdiMeta>, AutoCloseable {
+
+    private final IntFunction<CompletableFuture<List<CfdiMeta>>> pageLoader;
+
+    private final int pages;
+
+    private final int window;
+
+    private final Deque<CompletableFuture<List<CfdiMeta>>> inFlight = new ArrayDeque<>();
+
+    private int nextPage = 1;
+
+    private Iterator<CfdiMeta> current = Collections.emptyIterator();
+
+    private boolean closed;
+
+    /**
+     * @param pageLoader función que solicita de forma asíncrona la página
+     *                   dada (comenzando en 1).
+     * @param pages      total de páginas de la consulta.
+     * @param window     máximo de páginas solicitadas por adelantado.
+     */
+    PagePrefetchIterator(IntFunction<CompletableFuture<List<CfdiMeta>>> pageLoader, int pages, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window debe ser > 0");
+        }
+
+        this.pageLoader = pageLoader;
+        this.pages = pages;
+        this.window = window;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (closed) {
+                return false;
+            }
+
+            fill();
+
+            CompletableFuture<List<CfdiMeta>> next = inFlight.poll();
+            if (next == null) {
+                return false;
+            }
+
+            current = CompletableFutures.join(next).iterator();
+        }
+
+        return true;
+    }
+
+    @Override
+    public CfdiMeta next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return current.next();
+    }
+
+    /**
+     * Cancela las páginas solicitadas que aún no se han consumido.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        current = Collections.emptyIterator();
+
+        CompletableFuture<List<CfdiMeta>> pending;
+        while ((pending = inFlight.poll()) != null) {
+            pending.cancel(true);
+        }
+    }
+
+    private void fill() {
+        while (inFlight.size() < window && nextPage <= pages) {
+            inFlight.add(pageLoader.apply(nextPage++));
+        }
+    }
+}
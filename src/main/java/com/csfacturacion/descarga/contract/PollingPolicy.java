@@ -0,0 +1,231 @@
+package com.csfacturacion.descarga.contract;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Define cada cuánto tiempo el {@link StatusChecker} verifica el progreso de
+ * una consulta. El intervalo base depende del status actual de la consulta
+ * (e.g. las consultas EN_ESPERA se verifican con menos frecuencia que las que
+ * se encuentran DESCARGANDO), crece exponencialmente mientras el status no
+ * cambie y se le aplica un porcentaje aleatorio (jitter) para evitar que
+ * distintas instancias del cliente verifiquen sus consultas al mismo tiempo.
+ */
+public final class PollingPolicy {
+
+    private final Map<QueryRetriever.Status, Duration> intervals;
+
+    private final Duration defaultInterval;
+
+    private final Duration maxInterval;
+
+    private final double multiplier;
+
+    private final double jitter;
+
+    private final int maxConcurrentPolls;
+
+    private final int maxConsecutiveErrors;
+
+    private PollingPolicy(Builder builder) {
+        intervals = new EnumMap<>(builder.intervals);
+        defaultInterval = builder.defaultInterval;
+        maxInterval = builder.maxInterval;
+        multiplier = builder.multiplier;
+        jitter = builder.jitter;
+        maxConcurrentPolls = builder.maxConcurrentPolls;
+        maxConsecutiveErrors = builder.maxConsecutiveErrors;
+    }
+
+    /**
+     * La política por defecto: EN_ESPERA cada 30 s, EN_PROCESO cada 15 s,
+     * DESCARGANDO cada 5 s, con un máximo de 2 minutos entre verificaciones.
+     *
+     * @return la política por defecto.
+     */
+    public static PollingPolicy defaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * Calcula el tiempo que debe esperarse antes de la siguiente verificación.
+     *
+     * @param status         actual de la consulta.
+     * @param unchangedPolls verificaciones consecutivas en las que el status
+     *                       no ha cambiado.
+     * @return el tiempo a esperar.
+     */
+    public Duration nextDelay(QueryRetriever.Status status, int unchangedPolls) {
+        double base = interval(status).toMillis() * Math.pow(multiplier, Math.max(0, unchangedPolls));
+        double capped = Math.min(base, maxInterval.toMillis());
+        double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+
+        return Duration.ofMillis(Math.max(1, Math.round(capped * factor)));
+    }
+
+    /**
+     * @param status de la consulta.
+     * @return el intervalo base (sin backoff ni jitter) para el status dado.
+     */
+    public Duration interval(QueryRetriever.Status status) {
+        if (status == null) {
+            return defaultInterval;
+        }
+
+        return intervals.getOrDefault(status, defaultInterval);
+    }
+
+    public Duration getMaxInterval() {
+        return maxInterval;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public int getMaxConcurrentPolls() {
+        return maxConcurrentPolls;
+    }
+
+    public int getMaxConsecutiveErrors() {
+        return maxConsecutiveErrors;
+    }
+
+    public static final class Builder {
+
+        private final Map<QueryRetriever.Status, Duration> intervals = new EnumMap<>(QueryRetriever.Status.class);
+
+        private Duration defaultInterval = Duration.ofSeconds(15);
+
+        private Duration maxInterval = Duration.ofMinutes(2);
+
+        private double multiplier = 1.5;
+
+        private double jitter = 0.2;
+
+        private int maxConcurrentPolls = 16;
+
+        private int maxConsecutiveErrors = 10;
+
+        public Builder() {
+            intervals.put(QueryRetriever.Status.EN_ESPERA, Duration.ofSeconds(30));
+            intervals.put(QueryRetriever.Status.EN_PROCESO, Duration.ofSeconds(15));
+            intervals.put(QueryRetriever.Status.DESCARGANDO, Duration.ofSeconds(5));
+            intervals.put(QueryRetriever.Status.REPETIR, Duration.ofSeconds(30));
+        }
+
+        /**
+         * Intervalo base para las consultas con el status dado.
+         *
+         * @param status   de la consulta.
+         * @param interval entre verificaciones.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder interval(QueryRetriever.Status status, Duration interval) {
+            intervals.put(status, interval);
+            return this;
+        }
+
+        /**
+         * Intervalo base para los status sin un intervalo específico, por
+         * defecto 15 segundos.
+         *
+         * @param defaultInterval entre verificaciones.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder defaultInterval(Duration defaultInterval) {
+            this.defaultInterval = defaultInterval;
+            return this;
+        }
+
+        /**
+         * Tiempo máximo entre verificaciones sin importar el backoff, por
+         * defecto 2 minutos.
+         *
+         * @param maxInterval entre verificaciones.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder maxInterval(Duration maxInterval) {
+            this.maxInterval = maxInterval;
+            return this;
+        }
+
+        /**
+         * Factor por el que se multiplica el intervalo cada vez que el status
+         * de la consulta no cambia, por defecto 1.5. Un valor de 1 desactiva
+         * el backoff.
+         *
+         * @param multiplier del backoff.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder multiplier(double multiplier) {
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * Porcentaje (0 a 1) en el que puede variar aleatoriamente cada
+         * intervalo, por defecto 0.2 (±20%).
+         *
+         * @param jitter a aplicar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder jitter(double jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * Número máximo de verificaciones que pueden estar en curso al mismo
+         * tiempo, por defecto 16.
+         *
+         * @param maxConcurrentPolls verificaciones simultáneas.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder maxConcurrentPolls(int maxConcurrentPolls) {
+            this.maxConcurrentPolls = maxConcurrentPolls;
+            return this;
+        }
+
+        /**
+         * Número de verificaciones consecutivas con error tras las cuales se
+         * deja de verificar una consulta, por defecto 10. Tras cada error la
+         * siguiente verificación se retrasa con el mismo backoff que cuando el
+         * status no cambia. Los errores por un circuit breaker abierto no se
+         * cuentan.
+         *
+         * @param maxConsecutiveErrors errores consecutivos.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder maxConsecutiveErrors(int maxConsecutiveErrors) {
+            this.maxConsecutiveErrors = maxConsecutiveErrors;
+            return this;
+        }
+
+        public PollingPolicy build() {
+            if (multiplier < 1) {
+                throw new IllegalStateException("El multiplicador debe ser >= 1");
+            }
+
+            if (jitter < 0 || jitter >= 1) {
+                throw new IllegalStateException("El jitter debe estar en el rango [0, 1)");
+            }
+
+            if (maxConcurrentPolls < 1) {
+                throw new IllegalStateException("maxConcurrentPolls debe ser > 0");
+            }
+
+            if (maxConsecutiveErrors < 1) {
+                throw new IllegalStateException("maxConsecutiveErrors debe ser > 0");
+            }
+
+            return new PollingPolicy(this);
+        }
+    }
+}
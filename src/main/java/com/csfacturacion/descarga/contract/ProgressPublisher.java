@@ -0,0 +1,208 @@
+package com.csfacturacion.descarga.contract;
+
+import com.csfacturacion.descarga.model.Progress;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publica el progreso de una consulta, verificado por el
+ * {@link StatusChecker} compartido. Sólo se emite un evento cuando cambia el
+ * status o el número de resultados encontrados, y la secuencia termina con el
+ * status final de la consulta.
+ * <p>
+ * Cada suscriptor tiene su propia verificación, que sólo se realiza mientras
+ * el suscriptor tiene demanda: si no la tiene, la verificación se pausa y del
+ * progreso sólo se conserva el más reciente. Los eventos se entregan en el
+ * thread que realiza la verificación, por lo que los suscriptores no deben
+ * bloquearlo.
+ */
+final class ProgressPublisher implements Flow.Publisher<Progress> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgressPublisher.class);
+
+    private final QueryRetriever retriever;
+
+    private final StatusChecker statusChecker;
+
+    ProgressPublisher(QueryRetriever retriever, StatusChecker statusChecker) {
+        this.retriever = retriever;
+        this.statusChecker = statusChecker;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Progress> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+
+        subscriber.onSubscribe(new ProgressSubscription(subscriber));
+    }
+
+    private class ProgressSubscription implements Flow.Subscription, StatusChecker.ProgressObserver {
+
+        private final Flow.Subscriber<? super Progress> subscriber;
+
+        private final AtomicLong requested = new AtomicLong();
+
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private final AtomicInteger drainRequests = new AtomicInteger();
+
+        // el progreso que falta entregar; si cambia antes de entregarse sólo
+        // se conserva el más reciente
+        private final AtomicReference<Progress> pending = new AtomicReference<>();
+
+        // sólo se modifica desde la verificación en curso
+        private volatile Progress last;
+
+        private volatile boolean finished;
+
+        private volatile Throwable error;
+
+        private volatile boolean cancelled;
+
+        private volatile StatusChecker.Watch watch;
+
+        ProgressSubscription(Flow.Subscriber<? super Progress> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (cancelled) {
+                return;
+            }
+
+            if (n <= 0) {
+                error = new IllegalArgumentException("La demanda debe ser mayor a 0: " + n);
+                stopWatching();
+                drain();
+                return;
+            }
+
+            requested.accumulateAndGet(n, (actual, m) -> actual + m < 0 ? Long.MAX_VALUE : actual + m);
+
+            if (started.compareAndSet(false, true)) {
+                try {
+                    watch = statusChecker.watch(retriever, this);
+                } catch (IllegalStateException e) {
+                    error = e;
+                }
+
+                // pudo cancelarse mientras se iniciaba la verificación
+                if (cancelled) {
+                    stopWatching();
+                }
+            }
+
+            // si la verificación se pausó por falta de demanda, se reanuda
+            StatusChecker.Watch actual = watch;
+            if (actual != null) {
+                actual.resume();
+            }
+
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            stopWatching();
+        }
+
+        @Override
+        public void onProgress(Progress progress) {
+            Progress anterior = last;
+            last = progress;
+
+            if (anterior == null || anterior.status() != progress.status() || anterior.found() != progress.found()) {
+                pending.set(progress);
+            }
+
+            if (progress.status().isFinished()) {
+                finished = true;
+            }
+
+            drain();
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            this.error = error;
+            drain();
+        }
+
+        @Override
+        public boolean isActive() {
+            return !cancelled && requested.get() > 0;
+        }
+
+        private void stopWatching() {
+            StatusChecker.Watch actual = watch;
+            if (actual != null) {
+                actual.cancel();
+            }
+        }
+
+        /**
+         * Entrega los eventos pendientes mientras haya demanda. Las llamadas
+         * reentrantes (e.g. request() desde onNext()) sólo se registran y
+         * las atiende el hilo que ya está entregando.
+         */
+        private void drain() {
+            if (drainRequests.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                while (!cancelled) {
+                    Progress siguiente = requested.get() > 0 ? pending.getAndSet(null) : null;
+                    if (siguiente != null) {
+                        if (requested.get() != Long.MAX_VALUE) {
+                            requested.decrementAndGet();
+                        }
+
+                        emit(siguiente);
+                        continue;
+                    }
+
+                    if (error != null || (finished && pending.get() == null)) {
+                        cancelled = true;
+                        stopWatching();
+                        complete();
+                    }
+
+                    break;
+                }
+
+                missed = drainRequests.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit(Progress progress) {
+            try {
+                subscriber.onNext(progress);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error en el suscriptor del progreso de la consulta " + retriever.getFolio(), e);
+                cancel();
+            }
+        }
+
+        private void complete() {
+            try {
+                if (error != null) {
+                    subscriber.onError(error);
+                } else {
+                    subscriber.onComplete();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.error("Error en el suscriptor del progreso de la consulta " + retriever.getFolio(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,536 @@
+package com.csfacturacion.descarga.contract;
+
+import com.csfacturacion.descarga.model.Parametros;
+import com.csfacturacion.descarga.util.concurrent.CompletableFutures;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Ejecuta consultas de muchos contribuyentes (tenants) a través de un mismo
+ * {@link DescargaCiec}, repartiendo de forma justa la capacidad disponible:
+ * <ul>
+ *     <li>Hay un límite global de trabajos en curso y uno por tenant, por lo
+ *     que un tenant con muchos trabajos no puede acaparar la capacidad.</li>
+ *     <li>Entre los tenants con trabajos pendientes se elige de acuerdo a su
+ *     peso (weighted fair queuing): un tenant con peso 2 recibe el doble de
+ *     turnos que uno con peso 1.</li>
+ *     <li>Los trabajos {@link Priority#INTERACTIVE} siempre se inician antes
+ *     que los {@link Priority#BATCH}.</li>
+ * </ul>
+ * Un trabajo ocupa su lugar desde que se crea la consulta hasta que ésta
+ * termina y, si se indica, hasta que termina de procesarse su resultado (e.g.
+ * la descarga de los XML), de modo que las verificaciones de status y las
+ * descargas se rigen por los mismos límites.
+ *
+ * <pre>{@code
+ * QueryOrchestrator orchestrator = new QueryOrchestrator.Builder(descargaCiec)
+ *         .globalConcurrency(32)
+ *         .tenant("AAA010101AAA", 2, 8)
+ *         .build();
+ *
+ * orchestrator.submit("AAA010101AAA", Priority.BATCH, params, retriever -> {
+ *     retriever.asZip(Path.of(retriever.getFolio() + ".zip"));
+ *     return null;
+ * });
+ * }</pre>
+ */
+public class QueryOrchestrator implements AutoCloseable {
+
+    /**
+     * Carril en el que se forma un trabajo.
+     */
+    public enum Priority {
+        /**
+         * Trabajos que un usuario está esperando, se inician antes que
+         * cualquier trabajo BATCH.
+         */
+        INTERACTIVE,
+        /**
+         * Trabajos en segundo plano, e.g. sincronizaciones nocturnas.
+         */
+        BATCH
+    }
+
+    /**
+     * Procesa el resultado de una consulta terminada, mientras el trabajo
+     * sigue ocupando su lugar.
+     *
+     * @param <T> tipo del resultado del procesamiento.
+     */
+    @FunctionalInterface
+    public interface QueryJob<T> {
+
+        /**
+         * @param retriever la consulta terminada, correcta o incorrectamente.
+         * @return el resultado del trabajo.
+         * @throws Exception si ocurre un error al procesar la consulta.
+         */
+        T onFinished(QueryRetriever retriever) throws Exception;
+    }
+
+    // avance de un tenant con peso 1 cada vez que inicia un trabajo
+    private static final long STRIDE = 1 << 20;
+
+    private static final Comparator<Tenant> BY_PASS =
+            Comparator.comparingLong((Tenant t) -> t.pass).thenComparing(t -> t.id);
+
+    private final DescargaCiec descargaCiec;
+
+    private final int globalConcurrency;
+
+    private final int defaultTenantConcurrency;
+
+    private final Map<String, TenantConfig> configs;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // guardados por this; sólo se conservan los tenants con trabajos en curso
+    // o en espera, y en cada carril los que pueden iniciar uno ordenados por
+    // su avance
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    private final Map<Priority, NavigableSet<Tenant>> ready = new EnumMap<>(Priority.class);
+    private long globalPass;
+    private int running;
+    private int queued;
+    private boolean closed;
+
+    private QueryOrchestrator(Builder builder) {
+        this.descargaCiec = builder.descargaCiec;
+        this.globalConcurrency = builder.globalConcurrency;
+        this.defaultTenantConcurrency = builder.defaultTenantConcurrency;
+        this.configs = Map.copyOf(builder.configs);
+
+        for (Priority priority : Priority.values()) {
+            ready.put(priority, new TreeSet<>(BY_PASS));
+        }
+    }
+
+    /**
+     * Forma una consulta en el carril BATCH, utilizando el RFC de las
+     * credenciales SAT como tenant.
+     *
+     * @param parametros de la consulta.
+     * @return un future que se completa con la consulta una vez que termina.
+     */
+    public CompletableFuture<QueryRetriever> submit(Parametros parametros) {
+        return submit(parametros.getCredenciales().user(), Priority.BATCH, parametros);
+    }
+
+    /**
+     * Forma una consulta del tenant dado.
+     *
+     * @param tenant     al que pertenece la consulta.
+     * @param priority   carril de la consulta.
+     * @param parametros de la consulta.
+     * @return un future que se completa con la consulta una vez que termina.
+     */
+    public CompletableFuture<QueryRetriever> submit(String tenant, Priority priority, Parametros parametros) {
+        return submit(tenant, priority, parametros, retriever -> retriever);
+    }
+
+    /**
+     * Forma una consulta del tenant dado. Una vez que termina, el trabajo
+     * dado se ejecuta en un virtual thread sin liberar el lugar de la
+     * consulta.
+     *
+     * @param tenant     al que pertenece la consulta.
+     * @param priority   carril de la consulta.
+     * @param parametros de la consulta.
+     * @param job        que procesa la consulta terminada.
+     * @return un future que se completa con el resultado del trabajo.
+     */
+    public <T> CompletableFuture<T> submit(String tenant, Priority priority, Parametros parametros, QueryJob<T> job) {
+        Job<T> trabajo = new Job<>(parametros, job);
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("El orquestador ya ha sido cerrado.");
+            }
+
+            // un tenant inactivo no acumula turnos: al volver inicia en el
+            // avance global
+            Tenant t = tenants.computeIfAbsent(tenant, this::newTenant);
+            unschedule(t);
+            t.queues.get(priority).add(trabajo);
+            queued++;
+            schedule(t);
+        }
+
+        dispatch();
+
+        return trabajo.result;
+    }
+
+    /**
+     * @return el número de trabajos en curso.
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * @return el número de trabajos en espera de iniciarse.
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return el número de tenants con trabajos en curso o en espera.
+     */
+    public synchronized int getTenants() {
+        return tenants.size();
+    }
+
+    /**
+     * @param tenant a consultar.
+     * @return el número de trabajos en curso del tenant dado.
+     */
+    public synchronized int getRunning(String tenant) {
+        Tenant t = tenants.get(tenant);
+
+        return t != null ? t.running : 0;
+    }
+
+    /**
+     * Cancela los trabajos en espera. Los trabajos que ya procesan su
+     * consulta terminada no se interrumpen; los trabajos cuya consulta aún no
+     * termina se completan con una {@link CancellationException} en cuanto
+     * termina, sin procesarse.
+     */
+    @Override
+    public void close() {
+        List<Job<?>> cancelados = new ArrayList<>();
+
+        synchronized (this) {
+            closed = true;
+
+            for (Tenant t : tenants.values()) {
+                for (Queue<Job<?>> cola : t.queues.values()) {
+                    cancelados.addAll(cola);
+                    cola.clear();
+                }
+            }
+
+            ready.values().forEach(NavigableSet::clear);
+            tenants.values().removeIf(Tenant::isIdle);
+            queued = 0;
+        }
+
+        for (Job<?> trabajo : cancelados) {
+            trabajo.result.completeExceptionally(closedException());
+        }
+
+        executor.shutdown();
+    }
+
+    private static CancellationException closedException() {
+        return new CancellationException("El orquestador fue cerrado.");
+    }
+
+    private Tenant newTenant(String id) {
+        TenantConfig config = configs.getOrDefault(id, new TenantConfig(1, defaultTenantConcurrency));
+
+        Tenant tenant = new Tenant(id, config);
+        tenant.pass = globalPass;
+
+        return tenant;
+    }
+
+    /**
+     * Quita al tenant de los carriles; debe llamarse antes de modificar su
+     * avance, sus trabajos en curso o sus colas.
+     */
+    private void unschedule(Tenant tenant) {
+        for (NavigableSet<Tenant> carril : ready.values()) {
+            carril.remove(tenant);
+        }
+    }
+
+    /**
+     * Forma al tenant en los carriles en los que tiene trabajos, si tiene
+     * lugares disponibles.
+     */
+    private void schedule(Tenant tenant) {
+        if (tenant.running >= tenant.config.maxConcurrent()) {
+            return;
+        }
+
+        tenant.queues.forEach((priority, cola) -> {
+            if (!cola.isEmpty()) {
+                ready.get(priority).add(tenant);
+            }
+        });
+    }
+
+    /**
+     * Inicia tantos trabajos como lo permitan los límites, eligiendo
+     * primero del carril INTERACTIVE y después del BATCH.
+     */
+    private void dispatch() {
+        List<Started> iniciar = new ArrayList<>();
+
+        synchronized (this) {
+            while (!closed && running < globalConcurrency) {
+                Started siguiente = poll(Priority.INTERACTIVE);
+                if (siguiente == null) {
+                    siguiente = poll(Priority.BATCH);
+                }
+
+                if (siguiente == null) {
+                    break;
+                }
+
+                running++;
+                queued--;
+                iniciar.add(siguiente);
+            }
+        }
+
+        for (Started s : iniciar) {
+            start(s.tenant(), s.job());
+        }
+    }
+
+    /**
+     * Elige, entre los tenants con trabajos en el carril dado y lugares
+     * disponibles, el que tiene el menor avance, y avanza su turno de acuerdo
+     * a su peso.
+     */
+    private Started poll(Priority priority) {
+        NavigableSet<Tenant> carril = ready.get(priority);
+        if (carril.isEmpty()) {
+            return null;
+        }
+
+        Tenant elegido = carril.first();
+        unschedule(elegido);
+
+        globalPass = Math.max(globalPass, elegido.pass);
+        elegido.pass += STRIDE / elegido.config.weight();
+        elegido.running++;
+        Job<?> trabajo = elegido.queues.get(priority).poll();
+
+        schedule(elegido);
+
+        return new Started(elegido, trabajo);
+    }
+
+    private <T> void start(Tenant tenant, Job<T> trabajo) {
+        CompletableFuture<QueryRetriever> consulta;
+        try {
+            consulta = descargaCiec.queryAsync(trabajo.parametros, new JobListener<>(tenant, trabajo));
+        } catch (RuntimeException e) {
+            consulta = CompletableFuture.failedFuture(e);
+        }
+
+        consulta.whenComplete((retriever, e) -> {
+            if (e != null) {
+                finish(tenant, trabajo, null, CompletableFutures.unwrap(e));
+            }
+        });
+    }
+
+    private <T> void onQueryFinished(Tenant tenant, Job<T> trabajo, QueryRetriever retriever) {
+        try {
+            // el procesamiento puede bloquear (e.g. descargas), no debe
+            // ejecutarse en el hilo que verifica el status
+            executor.execute(() -> {
+                try {
+                    finish(tenant, trabajo, trabajo.job.onFinished(retriever), null);
+                } catch (Exception e) {
+                    finish(tenant, trabajo, null, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // el orquestador fue cerrado antes de que terminara la consulta
+            finish(tenant, trabajo, null, closedException());
+        }
+    }
+
+    private <T> void finish(Tenant tenant, Job<T> trabajo, T resultado, Throwable error) {
+        synchronized (this) {
+            if (trabajo.done) {
+                return;
+            }
+
+            trabajo.done = true;
+            running--;
+
+            unschedule(tenant);
+            tenant.running--;
+            if (tenant.isIdle()) {
+                tenants.remove(tenant.id, tenant);
+            } else if (!closed) {
+                schedule(tenant);
+            }
+        }
+
+        if (error != null) {
+            trabajo.result.completeExceptionally(error);
+        } else {
+            trabajo.result.complete(resultado);
+        }
+
+        dispatch();
+    }
+
+    /**
+     * Libera el lugar de un trabajo cuando su consulta termina o cuando se
+     * deja de verificar antes de terminar.
+     */
+    private class JobListener<T> implements QueryProgressListener {
+
+        private final Tenant tenant;
+        private final Job<T> trabajo;
+
+        JobListener(Tenant tenant, Job<T> trabajo) {
+            this.tenant = tenant;
+            this.trabajo = trabajo;
+        }
+
+        @Override
+        public void onStatusChanged(QueryRetriever.Status status, QueryRetriever retriever) {
+            if (status.isFinished()) {
+                onQueryFinished(tenant, trabajo, retriever);
+            }
+        }
+
+        @Override
+        public void onFailure(QueryRetriever retriever, Throwable error) {
+            finish(tenant, trabajo, null, error);
+        }
+    }
+
+    private record TenantConfig(int weight, int maxConcurrent) {}
+
+    private record Started(Tenant tenant, Job<?> job) {}
+
+    private static class Tenant {
+
+        private final String id;
+        private final TenantConfig config;
+        private final Map<Priority, Queue<Job<?>>> queues = new EnumMap<>(Priority.class);
+
+        private long pass;
+        private int running;
+
+        Tenant(String id, TenantConfig config) {
+            this.id = id;
+            this.config = config;
+
+            for (Priority priority : Priority.values()) {
+                queues.put(priority, new ArrayDeque<>());
+            }
+        }
+
+        boolean isIdle() {
+            return running == 0 && queues.values().stream().allMatch(Queue::isEmpty);
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+
+    private static class Job<T> {
+
+        private final Parametros parametros;
+        private final QueryJob<T> job;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        // guardado por el orquestador
+        private boolean done;
+
+        Job(Parametros parametros, QueryJob<T> job) {
+            this.parametros = parametros;
+            this.job = job;
+        }
+    }
+
+    public static final class Builder {
+
+        private final DescargaCiec descargaCiec;
+
+        private final Map<String, TenantConfig> configs = new HashMap<>();
+
+        private int globalConcurrency = 32;
+
+        private int defaultTenantConcurrency = 4;
+
+        /**
+         * @param descargaCiec con el que se realizan las consultas.
+         */
+        public Builder(DescargaCiec descargaCiec) {
+            this.descargaCiec = descargaCiec;
+        }
+
+        /**
+         * Número máximo de trabajos en curso de todos los tenants, por
+         * defecto 32.
+         *
+         * @param globalConcurrency trabajos simultáneos.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder globalConcurrency(int globalConcurrency) {
+            this.globalConcurrency = globalConcurrency;
+            return this;
+        }
+
+        /**
+         * Número máximo de trabajos en curso de cada tenant sin una
+         * configuración específica, por defecto 4.
+         *
+         * @param defaultTenantConcurrency trabajos simultáneos por tenant.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder defaultTenantConcurrency(int defaultTenantConcurrency) {
+            this.defaultTenantConcurrency = defaultTenantConcurrency;
+            return this;
+        }
+
+        /**
+         * Configura el peso y el límite de trabajos en curso de un tenant. Los
+         * tenants sin configuración tienen peso 1.
+         *
+         * @param tenant        a configurar.
+         * @param weight        peso del tenant, al menos 1.
+         * @param maxConcurrent trabajos simultáneos del tenant.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder tenant(String tenant, int weight, int maxConcurrent) {
+            if (weight < 1 || maxConcurrent < 1) {
+                throw new IllegalArgumentException("weight y maxConcurrent deben ser > 0");
+            }
+
+            configs.put(tenant, new TenantConfig(weight, maxConcurrent));
+            return this;
+        }
+
+        public QueryOrchestrator build() {
+            if (descargaCiec == null) {
+                throw new IllegalStateException("descargaCiec debe establecerse");
+            }
+
+            if (globalConcurrency < 1 || defaultTenantConcurrency < 1) {
+                throw new IllegalStateException("Los límites de concurrencia deben ser > 0");
+            }
+
+            return new QueryOrchestrator(this);
+        }
+    }
+}
@@ -12,4 +12,16 @@ public interface QueryProgressListener {
      * @param retriever la consulta cuyo status ha cambiado.
      */
     void onStatusChanged(QueryRetriever.Status status, QueryRetriever retriever);
+
+    /**
+     * Este método es llamado si la consulta deja de verificarse antes de
+     * terminar, ya sea tras demasiados errores consecutivos al consultar su
+     * progreso, porque el scheduler rechazó su siguiente verificación o porque
+     * se cerró el cliente. Después de esta llamada el
+     * listener ya no recibe más cambios de status terminales.
+     *
+     * @param retriever la consulta que dejó de verificarse.
+     * @param error     que detuvo las verificaciones.
+     */
+    default void onFailure(QueryRetriever retriever, Throwable error) {}
 }
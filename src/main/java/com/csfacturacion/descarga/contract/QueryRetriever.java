@@ -5,9 +5,17 @@ import com.csfacturacion.descarga.error.QueryNotReadyYet;
 import com.csfacturacion.descarga.error.XmlNotFoundException;
 import com.csfacturacion.descarga.error.ZipException;
 import com.csfacturacion.descarga.model.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public interface QueryRetriever {
 
@@ -66,6 +74,28 @@ public interface QueryRetriever {
      */
     Progress getProgress();
 
+    /**
+     * Versión asíncrona de {@link #getProgress()}, no bloquea el hilo actual
+     * mientras se espera la respuesta del webservice.
+     *
+     * @return un future que se completa con el status actual de la consulta.
+     */
+    CompletableFuture<Progress> getProgressAsync();
+
+    /**
+     * Publica el progreso de la consulta, verificado periódicamente con la
+     * {@link PollingPolicy} del cliente. Sólo se emite un evento cuando
+     * cambia el status o el número de resultados encontrados, y la secuencia
+     * termina (onComplete) después del status final. Respeta la demanda de
+     * cada suscriptor: mientras éste no solicite más eventos, no se verifica
+     * la consulta.
+     *
+     * @return el publicador del progreso de la consulta.
+     * @throws IllegalStateException si la consulta no se creó con un
+     *                               {@link DescargaCiec}.
+     */
+    Flow.Publisher<Progress> progressPublisher();
+
     /**
      * Cuando una consulta ha terminado, su status puede ser:
      * <ul>
@@ -124,6 +154,14 @@ public interface QueryRetriever {
      */
     Summary getSummary() throws QueryNotReadyYet;
 
+    /**
+     * Versión asíncrona de {@link #getSummary()}. Si la consulta no ha
+     * terminado, el future se completa con {@link QueryNotReadyYet}.
+     *
+     * @return un future que se completa con el resumen de la consulta.
+     */
+    CompletableFuture<Summary> getSummaryAsync();
+
     /**
      * Este método sirve cuando se quiere obtener los resultados en objetos que
      * no sean CFDIMeta sino una extensión de éste. Esto es útil en casos donde
@@ -137,6 +175,55 @@ public interface QueryRetriever {
      */
     List<CfdiMeta> getResults(int page) throws NotEnoughResultsException, QueryNotReadyYet;
 
+    /**
+     * Versión asíncrona de {@link #getResults(int)}. Las excepciones del
+     * método bloqueante se reportan completando el future excepcionalmente.
+     *
+     * @param page que se desea obtener.
+     * @return un future que se completa con los resultados de la página dada.
+     */
+    CompletableFuture<List<CfdiMeta>> getResultsAsync(int page);
+
+    /**
+     * Obtiene los resultados de la página dada conforme se reciben del
+     * webservice, sin cargar la página completa en memoria. El stream
+     * devuelto mantiene abierta la conexión, por lo que debe cerrarse
+     * (e.g. con try-with-resources).
+     *
+     * @param page que se desea obtener.
+     * @return los resultados de la página dada.
+     */
+    Stream<CfdiMeta> streamResults(int page) throws NotEnoughResultsException, QueryNotReadyYet;
+
+    /**
+     * Ejecuta la acción dada sobre cada resultado de la página conforme se
+     * reciben del webservice, sin cargar la página completa en memoria.
+     *
+     * @param page   que se desea obtener.
+     * @param action a ejecutar sobre cada resultado.
+     */
+    void forEachResult(int page, Consumer<? super CfdiMeta> action) throws NotEnoughResultsException, QueryNotReadyYet;
+
+    /**
+     * Obtiene los resultados de todas las páginas de la consulta, en orden.
+     * Mientras se consumen los resultados de una página, las siguientes se
+     * solicitan por adelantado de forma concurrente. Al cerrar el stream se
+     * cancelan las páginas pendientes.
+     *
+     * @return todos los resultados de la consulta.
+     * @see #streamAllResults(int)
+     */
+    Stream<CfdiMeta> streamAllResults() throws QueryNotReadyYet;
+
+    /**
+     * Obtiene los resultados de todas las páginas de la consulta, en orden,
+     * solicitando por adelantado hasta {@code prefetch} páginas a la vez.
+     *
+     * @param prefetch máximo de páginas solicitadas al mismo tiempo.
+     * @return todos los resultados de la consulta.
+     */
+    Stream<CfdiMeta> streamAllResults(int prefetch) throws QueryNotReadyYet;
+
     /**
      * Determina si hay resultados disponibles para esta consulta.
      *
@@ -174,5 +261,103 @@ public interface QueryRetriever {
      */
     String getXml(CfdiMeta cfdi) throws XmlNotFoundException;
 
+    /**
+     * Versión asíncrona de {@link #getXml(UUID)}. Si no se encuentra el XML,
+     * el future se completa con {@link XmlNotFoundException}.
+     *
+     * @param folio del CFDIMeta.
+     * @return un future que se completa con el XML asociado o null si no hay
+     * ninguno.
+     */
+    CompletableFuture<String> getXmlAsync(UUID folio);
+
+    /**
+     * Devuelve el XML del CFDIMeta asociado con el folio dado, codificado en
+     * UTF-8, sin decodificarlo a texto.
+     *
+     * @param folio del CFDIMeta.
+     * @return el XML asociado con el CFDIMeta o null si no hay ninguno.
+     * @throws XmlNotFoundException si no se encuentra el XML solicitado.
+     */
+    byte[] getXmlBytes(UUID folio) throws XmlNotFoundException;
+
+    /**
+     * Devuelve el XML del CFDIMeta asociado con el folio dado como un stream
+     * que se lee conforme se recibe del webservice. El stream debe cerrarse.
+     *
+     * @param folio del CFDIMeta.
+     * @return el XML asociado con el CFDIMeta, vacío si no hay ninguno.
+     * @throws XmlNotFoundException si no se encuentra el XML solicitado.
+     */
+    InputStream getXmlStream(UUID folio) throws XmlNotFoundException;
+
+    /**
+     * Escribe el XML del CFDIMeta asociado con el folio dado en el stream
+     * dado conforme se recibe del webservice. El stream no se cierra.
+     *
+     * @param folio del CFDIMeta.
+     * @param out   donde se escribe el XML.
+     * @throws XmlNotFoundException si no se encuentra el XML solicitado.
+     * @throws IOException          si no es posible escribir en el stream.
+     */
+    void writeXml(UUID folio, OutputStream out) throws XmlNotFoundException, IOException;
+
+    /**
+     * Descarga en lote los XML de los folios dados, con la concurrencia por
+     * defecto. Cada XML se entrega al sink tan pronto como se recibe; los
+     * folios que no puedan descargarse o guardarse se reportan en el
+     * resultado sin detener el resto de la descarga.
+     *
+     * @param folios de los CFDI cuyos XML se quieren descargar.
+     * @param sink   destino de los XML descargados.
+     * @return el total de XML descargados y los fallos por folio.
+     * @see #getXmls(Collection, XmlSink, int)
+     */
+    XmlBatchResult getXmls(Collection<UUID> folios, XmlSink sink);
+
+    /**
+     * Descarga en lote los XML de los folios dados, con hasta
+     * {@code concurrency} descargas simultáneas.
+     *
+     * @param folios      de los CFDI cuyos XML se quieren descargar.
+     * @param sink        destino de los XML descargados.
+     * @param concurrency máximo de descargas simultáneas.
+     * @return el total de XML descargados y los fallos por folio.
+     */
+    XmlBatchResult getXmls(Collection<UUID> folios, XmlSink sink, int concurrency);
+
     void asZip(Path dest) throws ZipException;
+
+    /**
+     * Descarga el ZIP con todos los XML de la consulta mediante solicitudes
+     * HTTP {@code Range}, permitiendo continuar una descarga interrumpida o
+     * descargar el archivo en fragmentos concurrentes, ver
+     * {@link ZipDownloadOptions}.
+     *
+     * @param dest    archivo donde se guardará el ZIP.
+     * @param options de la descarga.
+     * @throws ZipException si ocurre un error al descargar el ZIP.
+     */
+    void asZip(Path dest, ZipDownloadOptions options) throws ZipException;
+
+    /**
+     * Versión asíncrona de {@link #asZip(Path)}, el contenido se escribe en el
+     * destino conforme se recibe. Si ocurre algún error, el future se
+     * completa con {@link ZipException}.
+     *
+     * @param dest archivo donde se guardará el ZIP.
+     * @return un future que se completa con la ruta del ZIP descargado.
+     */
+    CompletableFuture<Path> asZipAsync(Path dest);
+
+    /**
+     * Descarga el ZIP con todos los XML de la consulta y entrega cada entrada
+     * al handler conforme se recibe, sin escribir el archivo en disco.
+     *
+     * @param handler que recibe cada XML del ZIP.
+     * @return el total de entradas procesadas.
+     * @throws ZipException si ocurre un error al descargar o leer el ZIP, o
+     *                      si el handler lanza una excepción.
+     */
+    int asZipStream(ZipEntryHandler handler) throws ZipException;
 }
@@ -6,42 +6,129 @@ import com.csfacturacion.descarga.error.XmlNotFoundException;
 import com.csfacturacion.descarga.error.ZipException;
 import com.csfacturacion.descarga.model.*;
 import com.csfacturacion.descarga.util.RequestFactory;
+import com.csfacturacion.descarga.util.cache.ResultPageCache;
+import com.csfacturacion.descarga.util.cache.XmlCache;
+import com.csfacturacion.descarga.util.concurrent.CompletableFutures;
+import com.csfacturacion.descarga.util.concurrent.SingleFlight;
+import com.csfacturacion.descarga.util.concurrent.TaskScope;
 import com.csfacturacion.descarga.util.http.ApiClient;
+import com.csfacturacion.descarga.util.http.RangeDownloader;
 import com.csfacturacion.descarga.util.json.GsonFactory;
+import com.csfacturacion.descarga.util.json.JsonArrayReader;
+import com.csfacturacion.descarga.util.xml.SanitizingInputStream;
+import com.csfacturacion.descarga.util.xml.SanitizingOutputStream;
+import com.csfacturacion.descarga.util.xml.XmlSanitizer;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
 import java.net.URISyntaxException;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class QueryRetrieverImpl implements QueryRetriever {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryRetrieverImpl.class);
+
+    private static final int DEFAULT_PREFETCH = 4;
+
+    private static final int DEFAULT_XML_CONCURRENCY = 8;
+
     private final ApiClient apiClient;
     private final UUID folio;
 
     private final RequestFactory requestFactory;
 
-    private Progress progress;
+    // progreso de la consulta terminada, no vuelve a solicitarse
+    private volatile Progress progress;
+
+    // último progreso recibido y el momento (System.nanoTime) en que se recibió
+    private volatile TimedProgress lastProgress;
+
+    private final long progressTtlNanos;
 
     private final Parametros parameters;
 
-    private Summary summary;
+    private volatile Summary summary;
+
+    private final XmlCache xmlCache;
+
+    // null si los resultados no se guardan
+    private final ResultPageCache pageCache;
+
+    // las solicitudes concurrentes de un mismo recurso comparten la respuesta
+    private final SingleFlight<UUID, Progress> progressCalls = new SingleFlight<>();
+    private final SingleFlight<UUID, Summary> summaryCalls = new SingleFlight<>();
+    private final SingleFlight<Integer, byte[]> pageCalls = new SingleFlight<>();
+    private final SingleFlight<UUID, byte[]> xmlCalls = new SingleFlight<>();
 
     private final Gson gson = GsonFactory.getGsonInstance();
 
+    // null si la consulta no se creó con un DescargaCiec
+    private final StatusChecker statusChecker;
+
     protected QueryRetrieverImpl(
             Parametros parameters, UUID folio, RequestFactory requestFactory, ApiClient apiClient) {
+        this(parameters, folio, requestFactory, apiClient, QueryRetrieverOptions.defaults());
+    }
+
+    protected QueryRetrieverImpl(
+            Parametros parameters,
+            UUID folio,
+            RequestFactory requestFactory,
+            ApiClient apiClient,
+            QueryRetrieverOptions options) {
+        this(parameters, folio, requestFactory, apiClient, options, null);
+    }
+
+    protected QueryRetrieverImpl(
+            Parametros parameters,
+            UUID folio,
+            RequestFactory requestFactory,
+            ApiClient apiClient,
+            QueryRetrieverOptions options,
+            StatusChecker statusChecker) {
 
         this.folio = folio;
+        this.statusChecker = statusChecker;
         this.apiClient = apiClient;
         this.requestFactory = requestFactory;
         this.parameters = parameters;
+        this.xmlCache = options.getXmlCache();
+        this.progressTtlNanos = options.getProgressTtl().toNanos();
+
+        if (options.getResultPageCache() != null) {
+            this.pageCache = options.getResultPageCache();
+        } else if (options.getResultPageCacheBytes() > 0) {
+            this.pageCache = new ResultPageCache(options.getResultPageCacheBytes());
+        } else {
+            this.pageCache = null;
+        }
     }
 
     @Override
@@ -49,29 +136,54 @@ public class QueryRetrieverImpl implements QueryRetriever {
         return parameters;
     }
 
-    /**
-     *
-     */
     @Override
     public Progress getProgress() {
-        Progress progressNuevo = progress; // EN_PROGRESO
-        try {
-            if (progressNuevo == null) {
-                HttpResponse<String> response = apiClient.send(requestFactory.newStatusRequest(folio));
+        return CompletableFutures.join(getProgressAsync());
+    }
+
+    @Override
+    public Flow.Publisher<Progress> progressPublisher() {
+        if (statusChecker == null) {
+            throw new IllegalStateException("La consulta no tiene un verificador de status.");
+        }
 
+        return new ProgressPublisher(this, statusChecker);
+    }
+
+    @Override
+    public CompletableFuture<Progress> getProgressAsync() {
+        Progress progressFinal = progress;
+        if (progressFinal != null) {
+            return CompletableFuture.completedFuture(progressFinal);
+        }
+
+        TimedProgress reciente = lastProgress;
+        if (reciente != null && System.nanoTime() - reciente.receivedAt() < progressTtlNanos) {
+            return CompletableFuture.completedFuture(reciente.progress());
+        }
+
+        return progressCalls.execute(folio, this::fetchProgress);
+    }
+
+    private CompletableFuture<Progress> fetchProgress() {
+        try {
+            return apiClient.sendAsync(requestFactory.newStatusRequest(folio)).thenApply(response -> {
                 // no deberia ocurrir
                 if (response.statusCode() != 200) {
                     throw new RuntimeException("Consulta con UUID: " + folio + " dio error " + response.body());
                 }
-                progressNuevo = gson.fromJson(response.body(), Progress.class);
+
+                Progress progressNuevo = gson.fromJson(response.body(), Progress.class);
                 if (progressNuevo.status().isFinished()) {
-                    progress = progressNuevo; // EN_PROGRESO
+                    progress = progressNuevo;
+                } else {
+                    lastProgress = new TimedProgress(progressNuevo, System.nanoTime());
                 }
-            }
 
-            return progressNuevo;
-        } catch (URISyntaxException | IOException | InterruptedException e) {
-            throw new RuntimeException(e);
+                return progressNuevo;
+            });
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(new RuntimeException(e));
         }
     }
 
@@ -97,37 +209,166 @@ public class QueryRetrieverImpl implements QueryRetriever {
 
     @Override
     public Summary getSummary() throws QueryNotReadyYet {
-        if (summary == null) {
-            try {
-                HttpResponse<String> response = apiClient.send(requestFactory.newResumenRequest(folio));
+        return CompletableFutures.join(getSummaryAsync(), QueryNotReadyYet.class);
+    }
+
+    @Override
+    public CompletableFuture<Summary> getSummaryAsync() {
+        Summary summaryActual = summary;
+        if (summaryActual != null) {
+            return CompletableFuture.completedFuture(summaryActual);
+        }
+
+        return summaryCalls.execute(folio, this::fetchSummary);
+    }
 
+    private CompletableFuture<Summary> fetchSummary() {
+        try {
+            return apiClient.sendAsync(requestFactory.newResumenRequest(folio)).thenApply(response -> {
                 if (response.statusCode() != 200) {
-                    throw new QueryNotReadyYet(folio);
+                    throw new CompletionException(new QueryNotReadyYet(folio));
                 }
 
-                summary = gson.fromJson(response.body(), Summary.class);
+                Summary summaryNuevo = gson.fromJson(response.body(), Summary.class);
+                summary = summaryNuevo;
 
-            } catch (IOException | URISyntaxException | InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+                return summaryNuevo;
+            });
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(new RuntimeException(e));
         }
-
-        return summary;
     }
 
     @Override
     public List<CfdiMeta> getResults(int page) throws QueryNotReadyYet {
+        List<CfdiMeta> resultados = new ArrayList<>();
+        forEachResult(page, resultados::add);
+
+        return resultados;
+    }
+
+    @Override
+    public CompletableFuture<List<CfdiMeta>> getResultsAsync(int page) {
+        return getResultsBytesAsync(page).thenApply(this::toList);
+    }
+
+    /**
+     * Obtiene el JSON de la página de resultados dada, del caché de páginas
+     * si es posible.
+     */
+    private CompletableFuture<byte[]> getResultsBytesAsync(int page) {
+        byte[] cached = pageCache != null ? pageCache.get(folio, page) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return pageCalls.execute(page, () -> fetchResultsBytes(page));
+    }
+
+    private CompletableFuture<byte[]> fetchResultsBytes(int page) {
+        return terminada()
+                .thenCompose(p -> getSummaryAsync())
+                .thenCompose(s -> {
+                    validarResultadosSuficientes(s, page);
+
+                    try {
+                        return apiClient.sendAsync(
+                                requestFactory.newResultadosRequest(folio, page),
+                                HttpResponse.BodyHandlers.ofByteArray());
+                    } catch (URISyntaxException e) {
+                        throw new CompletionException(new RuntimeException(e));
+                    }
+                })
+                .thenApply(response -> {
+                    validarRespuestaResultados(response, page);
+
+                    if (pageCache != null) {
+                        pageCache.put(folio, page, response.body());
+                    }
+
+                    return response.body();
+                });
+    }
+
+    private List<CfdiMeta> toList(byte[] json) {
+        List<CfdiMeta> resultados = new ArrayList<>();
+        newResultadosReader(json).forEach(resultados::add);
+
+        return resultados;
+    }
+
+    private JsonArrayReader<CfdiMeta> newResultadosReader(byte[] json) {
+        return new JsonArrayReader<>(new ByteArrayInputStream(json), gson, CfdiMeta.class);
+    }
+
+    @Override
+    public Stream<CfdiMeta> streamResults(int page) throws QueryNotReadyYet {
+        return openResultados(page).stream();
+    }
+
+    @Override
+    public void forEachResult(int page, Consumer<? super CfdiMeta> action) throws QueryNotReadyYet {
+        openResultados(page).forEach(action);
+    }
+
+    @Override
+    public Stream<CfdiMeta> streamAllResults() throws QueryNotReadyYet {
+        return streamAllResults(DEFAULT_PREFETCH);
+    }
+
+    @Override
+    public Stream<CfdiMeta> streamAllResults(int prefetch) throws QueryNotReadyYet {
+        validarTerminada();
+
+        PagePrefetchIterator iterator =
+                new PagePrefetchIterator(this::getResultsAsync, getSummary().pages(), prefetch);
+
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * Solicita la página de resultados dada. Si no se utiliza un caché de
+     * páginas, los resultados se leen del cuerpo de la respuesta conforme se
+     * consume el reader devuelto.
+     *
+     * @param page que se desea obtener.
+     * @return el reader de los resultados, debe cerrarse.
+     */
+    protected JsonArrayReader<CfdiMeta> openResultados(int page) throws QueryNotReadyYet {
+        if (pageCache != null) {
+            // la página se descarga completa para poder guardarla en el caché
+            return newResultadosReader(CompletableFutures.join(getResultsBytesAsync(page), QueryNotReadyYet.class));
+        }
 
         validarTerminada();
         validarResultadosSuficientes(page);
 
         try {
-            return newResultadosList(apiClient.send(requestFactory.newResultadosRequest(folio, page)));
+            HttpResponse<JsonArrayReader<CfdiMeta>> response = apiClient.send(
+                    requestFactory.newResultadosRequest(folio, page),
+                    JsonArrayReader.bodyHandler(gson, CfdiMeta.class));
+
+            if (response.statusCode() != 200) {
+                response.body().close();
+            }
+
+            validarRespuestaResultados(response, page);
+
+            return response.body();
         } catch (IOException | URISyntaxException | InterruptedException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private void validarRespuestaResultados(HttpResponse<?> response, int page) {
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Error al obtener la página " + page + " de la consulta con UUID: " + folio
+                    + ", status: " + response.statusCode());
+        }
+    }
+
     protected List<CfdiMeta> newResultadosList(HttpResponse<String> response) {
         Type collectionType = new TypeToken<List<CfdiMeta>>() {}.getType();
 
@@ -140,9 +381,13 @@ public class QueryRetrieverImpl implements QueryRetriever {
     }
 
     protected void validarResultadosSuficientes(int page) throws QueryNotReadyYet {
-        if (!hasResults() || page > getSummary().total()) {
-            throw new NotEnoughResultsException("No existen suficientes " + "resultados para mostrar, total páginas: "
-                    + getSummary().pages());
+        validarResultadosSuficientes(getSummary(), page);
+    }
+
+    private void validarResultadosSuficientes(Summary summary, int page) {
+        if (summary.total() <= 0 || page > summary.pages()) {
+            throw new NotEnoughResultsException(
+                    "No existen suficientes " + "resultados para mostrar, total páginas: " + summary.pages());
         }
     }
 
@@ -167,54 +412,319 @@ public class QueryRetrieverImpl implements QueryRetriever {
 
     @Override
     public String getXml(UUID folioCFDI) throws XmlNotFoundException {
+        byte[] xml = getXmlBytes(folioCFDI);
+
+        return xml != null ? new String(xml, StandardCharsets.UTF_8) : null;
+    }
+
+    @Override
+    public CompletableFuture<String> getXmlAsync(UUID folioCFDI) {
+        return getXmlBytesAsync(folioCFDI)
+                .thenApply(xml -> xml != null ? new String(xml, StandardCharsets.UTF_8) : null);
+    }
+
+    @Override
+    public byte[] getXmlBytes(UUID folioCFDI) throws XmlNotFoundException {
+        return CompletableFutures.join(getXmlBytesAsync(folioCFDI), XmlNotFoundException.class);
+    }
+
+    @Override
+    public InputStream getXmlStream(UUID folioCFDI) throws XmlNotFoundException {
+        if (xmlCache != null) {
+            // se descarga completo para poder guardarlo en el caché
+            byte[] xml = getXmlBytes(folioCFDI);
+
+            return new ByteArrayInputStream(xml != null ? xml : new byte[0]);
+        }
+
+        return new SanitizingInputStream(openXml(folioCFDI));
+    }
+
+    @Override
+    public void writeXml(UUID folioCFDI, OutputStream out) throws XmlNotFoundException, IOException {
+        if (xmlCache != null) {
+            byte[] xml = getXmlBytes(folioCFDI);
+            if (xml != null) {
+                out.write(xml);
+            }
+
+            return;
+        }
+
+        try (InputStream in = openXml(folioCFDI)) {
+            SanitizingOutputStream sanitizer = new SanitizingOutputStream(out);
+            in.transferTo(sanitizer);
+
+            // no se cierra el stream del cliente
+            sanitizer.finish();
+        }
+    }
+
+    private CompletableFuture<byte[]> getXmlBytesAsync(UUID folioCFDI) {
+        // los CFDI no cambian, por lo que no es necesario verificar la consulta
+        byte[] cached = cachedXml(folioCFDI);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return xmlCalls.execute(folioCFDI, () -> fetchXmlBytes(folioCFDI));
+    }
+
+    private CompletableFuture<byte[]> fetchXmlBytes(UUID folioCFDI) {
+        return terminada()
+                .thenCompose(p -> {
+                    try {
+                        return apiClient.sendAsync(
+                                requestFactory.newDescargaCfdiRequest(folioCFDI, Request.MediaType.XML),
+                                HttpResponse.BodyHandlers.ofByteArray());
+                    } catch (URISyntaxException e) {
+                        throw new CompletionException(new RuntimeException(e));
+                    }
+                })
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        throw new CompletionException(xmlNotFound(folioCFDI));
+                    }
+
+                    if (response.body() == null || response.body().length == 0) {
+                        return null;
+                    }
+
+                    // elimina caracteres de formato y espacios al inicio y al final
+                    byte[] xml = XmlSanitizer.sanitize(response.body());
+                    cacheXml(folioCFDI, xml);
+
+                    return xml;
+                });
+    }
+
+    /**
+     * Solicita el XML del folio dado, sin limpiar.
+     *
+     * @return el cuerpo de la respuesta, debe cerrarse.
+     */
+    private InputStream openXml(UUID folioCFDI) throws XmlNotFoundException {
         validarTerminada();
 
         try {
-            HttpResponse<String> response =
-                    apiClient.send(requestFactory.newDescargaCfdiRequest(folioCFDI, Request.MediaType.XML));
+            HttpResponse<InputStream> response =
+                    apiClient.download(requestFactory.newDescargaCfdiRequest(folioCFDI, Request.MediaType.XML));
 
             if (response.statusCode() != 200) {
-                throw new XmlNotFoundException("No se encontró el XML para el " + "folio: " + folioCFDI);
+                response.body().close();
+                throw xmlNotFound(folioCFDI);
             }
 
-            if (response.body() == null || response.body().isEmpty()) {
-                return null;
-            }
+            return response.body();
+        } catch (URISyntaxException | IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static XmlNotFoundException xmlNotFound(UUID folioCFDI) {
+        return new XmlNotFoundException("No se encontró el XML para el " + "folio: " + folioCFDI);
+    }
 
-            // clean white-spaces
-            return response.body().replaceAll("\\p{Cf}", "").trim();
+    @Override
+    public XmlBatchResult getXmls(Collection<UUID> folios, XmlSink sink) {
+        return getXmls(folios, sink, DEFAULT_XML_CONCURRENCY);
+    }
 
-        } catch (URISyntaxException | IOException | InterruptedException e) {
+    @Override
+    public XmlBatchResult getXmls(Collection<UUID> folios, XmlSink sink, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency debe ser > 0");
+        }
+
+        validarTerminada();
+
+        AtomicInteger downloaded = new AtomicInteger();
+        Map<UUID, Exception> failures = new ConcurrentHashMap<>();
+
+        // cada descarga se ejecuta en su propio virtual thread, el scope
+        // limita cuántas pueden estar en curso al mismo tiempo y las cancela
+        // si se interrumpe el thread actual
+        try (TaskScope scope = new TaskScope(concurrency)) {
+            for (UUID folioCfdi : folios) {
+                scope.fork(() -> {
+                    try {
+                        byte[] xml = getXmlBytes(folioCfdi);
+                        if (xml == null) {
+                            throw new XmlNotFoundException("El XML del folio " + folioCfdi + " está vacío");
+                        }
+
+                        sink.accept(folioCfdi, xml);
+                        downloaded.incrementAndGet();
+                    } catch (Exception e) {
+                        failures.put(folioCfdi, e);
+                    }
+
+                    return null;
+                });
+            }
+
+            scope.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            // cada descarga registra sus propios errores, sólo puede ocurrir con un Error
+            throw new RuntimeException(e.getCause());
         }
+
+        return new XmlBatchResult(downloaded.get(), failures);
     }
 
     @Override
     public void asZip(Path dest) throws ZipException {
+        CompletableFutures.join(asZipAsync(dest), ZipException.class);
+    }
+
+    @Override
+    public void asZip(Path dest, ZipDownloadOptions options) throws ZipException {
+        RangeDownloader downloader = new RangeDownloader(apiClient);
+        RangeDownloader.RangeRequestFactory requests = (from, to) -> from == 0 && to < 0
+                ? requestFactory.newDescargaZipRequest(folio)
+                : requestFactory.newDescargaZipRequest(folio, from, to);
+
+        try {
+            downloader.download(requests, dest, options);
+        } catch (URISyntaxException | InterruptedException | IOException e) {
+            throw new ZipException(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Path> asZipAsync(Path dest) {
+        try {
+            // el cuerpo sólo se escribe en el destino si la respuesta es correcta
+            HttpResponse.BodyHandler<Path> bodyHandler = responseInfo -> responseInfo.statusCode() == 200
+                    ? HttpResponse.BodySubscribers.ofFile(
+                            dest,
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)
+                    : HttpResponse.BodySubscribers.replacing(null);
+
+            return apiClient
+                    .sendAsync(requestFactory.newDescargaZipRequest(folio), bodyHandler)
+                    .handle((resp, e) -> {
+                        if (e != null) {
+                            throw new CompletionException(new ZipException(CompletableFutures.unwrap(e)));
+                        }
+
+                        if (resp.statusCode() != 200) {
+                            throw new CompletionException(new ZipException(
+                                    "Error al obtener el ZIP. Posiblemente la consulta no ha terminado"));
+                        }
+
+                        return resp.body();
+                    });
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(new ZipException(e));
+        }
+    }
 
+    @Override
+    public int asZipStream(ZipEntryHandler handler) throws ZipException {
         try {
             HttpResponse<InputStream> resp = apiClient.download(requestFactory.newDescargaZipRequest(folio));
-            if (resp.statusCode() != 200) {
-                throw new ZipException("Error al obtener el ZIP. Posiblemente la consulta no ha terminado");
-            }
 
-            try (InputStream in = resp.body();
-                    FileOutputStream out = new FileOutputStream(dest.toFile())) {
+            try (ZipInputStream zip = new ZipInputStream(resp.body())) {
+                if (resp.statusCode() != 200) {
+                    throw new ZipException("Error al obtener el ZIP. Posiblemente la consulta no ha terminado");
+                }
+
+                int entries = 0;
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
 
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
+                    UUID folioCfdi = folioFromEntryName(entry.getName());
+                    byte[] xml = zip.readAllBytes();
+
+                    // aprovecha la descarga para llenar el caché
+                    if (folioCfdi != null && isXmlEntry(entry.getName())) {
+                        cacheXml(folioCfdi, XmlSanitizer.sanitize(xml));
+                    }
+
+                    handler.onEntry(folioCfdi, entry.getName(), xml);
+                    entries++;
                 }
+
+                return entries;
             }
         } catch (URISyntaxException | InterruptedException | IOException e) {
             throw new ZipException(e);
         }
     }
 
+    private byte[] cachedXml(UUID folioCFDI) {
+        if (xmlCache == null) {
+            return null;
+        }
+
+        try {
+            return xmlCache.get(folioCFDI);
+        } catch (RuntimeException e) {
+            // un error del caché se trata como si el XML no estuviera en él
+            LOGGER.warn("No fue posible leer el XML {} del caché", folioCFDI, e);
+            return null;
+        }
+    }
+
+    private void cacheXml(UUID folioCFDI, byte[] xml) {
+        if (xmlCache == null || xml.length == 0) {
+            return;
+        }
+
+        try {
+            xmlCache.put(folioCFDI, xml);
+        } catch (RuntimeException e) {
+            // el caché no debe impedir entregar el XML
+            LOGGER.warn("No fue posible guardar el XML {} en el caché", folioCFDI, e);
+        }
+    }
+
+    private static boolean isXmlEntry(String name) {
+        return name.regionMatches(true, name.length() - 4, ".xml", 0, 4);
+    }
+
+    /**
+     * Las entradas del ZIP se nombran con el folio del CFDI, e.g.
+     * {@code <folio>.xml}, posiblemente dentro de un directorio.
+     */
+    private static UUID folioFromEntryName(String name) {
+        String fileName = name.substring(name.lastIndexOf('/') + 1);
+        int extension = fileName.lastIndexOf('.');
+        if (extension > 0) {
+            fileName = fileName.substring(0, extension);
+        }
+
+        try {
+            return UUID.fromString(fileName);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     protected void validarTerminada() {
         if (!isFinished()) {
             throw new IllegalStateException("La consulta no ha terminado.");
         }
     }
+
+    private CompletableFuture<Progress> terminada() {
+        return getProgressAsync().thenApply(p -> {
+            if (!p.status().isFinished()) {
+                throw new IllegalStateException("La consulta no ha terminado.");
+            }
+
+            return p;
+        });
+    }
+
+    private record TimedProgress(Progress progress, long receivedAt) {}
 }
@@ -0,0 +1,140 @@
+package com.csfacturacion.descarga.contract;
+
+import com.csfacturacion.descarga.util.cache.ResultPageCache;
+import com.csfacturacion.descarga.util.cache.XmlCache;
+import java.time.Duration;
+
+/**
+ * Opciones compartidas por los {@link QueryRetriever} creados por un
+ * {@link DescargaCiecImpl}.
+ */
+public final class QueryRetrieverOptions {
+
+    private final XmlCache xmlCache;
+
+    private final ResultPageCache resultPageCache;
+
+    private final long resultPageCacheBytes;
+
+    private final Duration progressTtl;
+
+    private QueryRetrieverOptions(Builder builder) {
+        xmlCache = builder.xmlCache;
+        resultPageCache = builder.resultPageCache;
+        resultPageCacheBytes = builder.resultPageCacheBytes;
+        progressTtl = builder.progressTtl;
+    }
+
+    /**
+     * @return las opciones por defecto: sin caché de XML ni de páginas de
+     * resultados, el progreso se reutiliza durante 1 segundo.
+     */
+    public static QueryRetrieverOptions defaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * @return el caché de XML, o null si no se utiliza.
+     */
+    public XmlCache getXmlCache() {
+        return xmlCache;
+    }
+
+    /**
+     * @return el caché de páginas compartido por todas las consultas, o null
+     * si cada consulta utiliza el suyo.
+     */
+    public ResultPageCache getResultPageCache() {
+        return resultPageCache;
+    }
+
+    public long getResultPageCacheBytes() {
+        return resultPageCacheBytes;
+    }
+
+    public Duration getProgressTtl() {
+        return progressTtl;
+    }
+
+    public static final class Builder {
+
+        private XmlCache xmlCache;
+
+        private ResultPageCache resultPageCache;
+
+        private long resultPageCacheBytes;
+
+        private Duration progressTtl = Duration.ofSeconds(1);
+
+        public Builder() {}
+
+        /**
+         * El caché en el que se guardan y buscan los XML de los CFDI antes de
+         * solicitarlos al webservice, por defecto no se utiliza ninguno.
+         *
+         * @param xmlCache a utilizar, e.g. un {@link
+         *                 com.csfacturacion.descarga.util.cache.TieredXmlCache}.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder xmlCache(XmlCache xmlCache) {
+            this.xmlCache = xmlCache;
+            return this;
+        }
+
+        /**
+         * Un caché de páginas de resultados compartido por todas las
+         * consultas. Si no se establece, cada consulta utiliza su propio
+         * caché de {@link #resultPageCacheBytes(long)} bytes, o ninguno.
+         *
+         * @param resultPageCache a compartir.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder resultPageCache(ResultPageCache resultPageCache) {
+            this.resultPageCache = resultPageCache;
+            return this;
+        }
+
+        /**
+         * Tamaño máximo, en bytes, del caché de páginas de resultados de cada
+         * consulta, por defecto 0: sin caché, los resultados se leen conforme
+         * se reciben del webservice. Si se establece, cada consulta guarda sus
+         * páginas en memoria y las lee completas antes de procesarlas; para
+         * limitar la memoria de muchas consultas simultáneas es preferible
+         * compartir un solo caché con {@link #resultPageCache(ResultPageCache)}.
+         *
+         * @param resultPageCacheBytes por consulta.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder resultPageCacheBytes(long resultPageCacheBytes) {
+            this.resultPageCacheBytes = resultPageCacheBytes;
+            return this;
+        }
+
+        /**
+         * Tiempo durante el cual se reutiliza el progreso de una consulta que
+         * no ha terminado, por defecto 1 segundo. Evita que llamadas seguidas
+         * (e.g. {@code isFinished()} y luego {@code isFailed()}) consulten
+         * cada una al webservice. Un valor de 0 siempre solicita el progreso;
+         * el progreso de una consulta terminada se reutiliza siempre.
+         *
+         * @param progressTtl tiempo de reutilización.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder progressTtl(Duration progressTtl) {
+            this.progressTtl = progressTtl;
+            return this;
+        }
+
+        public QueryRetrieverOptions build() {
+            if (progressTtl == null || progressTtl.isNegative()) {
+                throw new IllegalStateException("progressTtl debe ser >= 0");
+            }
+
+            if (resultPageCacheBytes < 0) {
+                throw new IllegalStateException("resultPageCacheBytes debe ser >= 0");
+            }
+
+            return new QueryRetrieverOptions(this);
+        }
+    }
+}
@@ -0,0 +1,639 @@
+package com.csfacturacion.descarga.contract;
+
+import com.csfacturacion.descarga.error.QueryNotReadyYet;
+import com.csfacturacion.descarga.model.CfdiMeta;
+import com.csfacturacion.descarga.model.Parametros;
+import com.csfacturacion.descarga.model.ShardedProgress;
+import com.csfacturacion.descarga.util.concurrent.CompletableFutures;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Divide una consulta con un rango de fechas amplio en varias consultas
+ * (fragmentos) de un mes, día u hora, y las envía al webservice de forma
+ * concurrente, con un límite de fragmentos en curso al mismo tiempo. Cada
+ * fragmento conserva el resto de los parámetros originales, incluyendo el
+ * {@link Parametros.ModoBusqueda}.
+ * <p>
+ * Si un fragmento termina con
+ * {@link QueryRetriever.Status#FALLO_500_MISMO_HORARIO}, se divide a la mitad
+ * y se consultan sólo sus mitades, recursivamente hasta llegar al rango
+ * mínimo (por defecto una hora); si aún así falla, se consulta con
+ * {@link Parametros.ModoBusqueda#EXHAUSTIVA}. Con un {@link DensityHistory},
+ * los rangos que requirieron dividirse se dividen de antemano en las siguientes
+ * consultas del mismo RFC.
+ * <p>
+ * Una vez que todos los fragmentos terminan, sus resultados pueden
+ * obtenerse como un solo stream, sin CFDI duplicados.
+ *
+ * <pre>{@code
+ * ShardedQuery consulta = new ShardedQuery.Builder(descargaCiec, params)
+ *         .granularity(ShardedQuery.Granularity.MONTH)
+ *         .parallelism(4)
+ *         .build()
+ *         .start();
+ *
+ * consulta.await();
+ * try (Stream<CfdiMeta> resultados = consulta.streamResults()) {
+ *     resultados.forEach(System.out::println);
+ * }
+ * }</pre>
+ */
+public class ShardedQuery {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardedQuery.class);
+
+    /**
+     * Tamaño de los fragmentos en los que se divide el rango de fechas. Los
+     * fragmentos se alinean al inicio de cada mes, día u hora.
+     */
+    public enum Granularity {
+        MONTH,
+        DAY,
+        HOUR;
+
+        /**
+         * @param fecha dentro de un fragmento.
+         * @return el inicio del fragmento siguiente.
+         */
+        LocalDateTime next(LocalDateTime fecha) {
+            return switch (this) {
+                case MONTH -> fecha.truncatedTo(ChronoUnit.DAYS)
+                        .with(TemporalAdjusters.firstDayOfMonth())
+                        .plusMonths(1);
+                case DAY -> fecha.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+                case HOUR -> fecha.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            };
+        }
+    }
+
+    private final DescargaCiec descargaCiec;
+
+    private final Parametros parametros;
+
+    private final int parallelism;
+
+    private final boolean resplit;
+
+    private final Duration minWindow;
+
+    private final DensityHistory densityHistory;
+
+    // incluye los fragmentos reemplazados por sus mitades
+    private final List<Shard> shards = new CopyOnWriteArrayList<>();
+
+    // guardados por this
+    private final Deque<Shard> pending = new ArrayDeque<>();
+    private int running;
+    private boolean started;
+
+    private final CompletableFuture<ShardedQuery> completion = new CompletableFuture<>();
+
+    private ShardedQuery(Builder builder) {
+        this.descargaCiec = builder.descargaCiec;
+        this.parametros = builder.parametros;
+        this.parallelism = builder.parallelism;
+        this.resplit = builder.resplit;
+        this.minWindow = builder.minWindow;
+        this.densityHistory = builder.densityHistory;
+
+        for (Parametros fragmento : split(builder.parametros, builder.granularity)) {
+            addShard(fragmento);
+        }
+
+        pending.addAll(shards);
+    }
+
+    /**
+     * Agrega el fragmento con los parámetros dados, dividido de antemano si el
+     * historial indica que tiene demasiados CFDI.
+     */
+    private void addShard(Parametros fragmento) {
+        if (densityHistory != null && densityHistory.isDense(fragmento)) {
+            List<Parametros> subrangos = resplit(fragmento);
+            if (!subrangos.isEmpty()) {
+                subrangos.forEach(this::addShard);
+                return;
+            }
+        }
+
+        shards.add(new Shard(fragmento));
+    }
+
+    /**
+     * Divide el rango de fechas de los parámetros dados en rangos
+     * consecutivos, sin traslapes, alineados al inicio de cada mes, día u
+     * hora. El primer y el último rango pueden ser más cortos.
+     *
+     * @param parametros  a dividir.
+     * @param granularity tamaño de los rangos.
+     * @return los parámetros de cada rango, en orden.
+     */
+    public static List<Parametros> split(Parametros parametros, Granularity granularity) {
+        List<Parametros> fragmentos = new ArrayList<>();
+
+        LocalDateTime inicio = parametros.getFechaInicio();
+        LocalDateTime fin = parametros.getFechaFin();
+        while (!inicio.isAfter(fin)) {
+            LocalDateTime siguiente = granularity.next(inicio);
+
+            // el webservice recibe las fechas con resolución de segundos
+            LocalDateTime finFragmento = siguiente.minusSeconds(1);
+            if (finFragmento.isAfter(fin)) {
+                finFragmento = fin;
+            }
+
+            fragmentos.add(parametros.toBuilder()
+                    .fechaInicio(inicio)
+                    .fechaFin(finFragmento)
+                    .build());
+            inicio = siguiente;
+        }
+
+        return fragmentos;
+    }
+
+    /**
+     * Comienza a enviar los fragmentos al webservice. Este método no espera
+     * a que terminen, ver {@link #await()}.
+     *
+     * @return esta consulta, para encadenamiento.
+     */
+    public ShardedQuery start() {
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("La consulta ya fue iniciada.");
+            }
+
+            started = true;
+        }
+
+        dispatch();
+
+        return this;
+    }
+
+    /**
+     * Espera a que terminen todos los fragmentos, correcta o
+     * incorrectamente.
+     *
+     * @return esta consulta, para encadenamiento.
+     */
+    public ShardedQuery await() {
+        return CompletableFutures.join(completion);
+    }
+
+    /**
+     * @return un future que se completa cuando terminan todos los
+     * fragmentos.
+     */
+    public CompletableFuture<ShardedQuery> completion() {
+        return completion.copy();
+    }
+
+    public boolean isFinished() {
+        return completion.isDone();
+    }
+
+    public Parametros getParametros() {
+        return parametros;
+    }
+
+    /**
+     * @return los fragmentos de la consulta, en orden, sin incluir los que
+     * fueron reemplazados por sus mitades.
+     */
+    public List<Shard> getShards() {
+        return shards.stream().filter(shard -> !shard.replaced).toList();
+    }
+
+    /**
+     * @return los fragmentos que terminaron con error o no pudieron enviarse.
+     */
+    public List<Shard> getFailedShards() {
+        return getShards().stream().filter(Shard::isFailed).toList();
+    }
+
+    /**
+     * El progreso combinado de los fragmentos. El número de CFDI encontrados
+     * de cada fragmento se actualiza cada vez que cambia su status.
+     *
+     * @return el progreso de la consulta.
+     */
+    public ShardedProgress getProgress() {
+        int enEspera = 0;
+        int enCurso = 0;
+        int completados = 0;
+        int fallidos = 0;
+        long encontrados = 0;
+
+        List<Shard> activos = getShards();
+        for (Shard shard : activos) {
+            encontrados += shard.found;
+
+            if (shard.isFailed()) {
+                fallidos++;
+            } else if (shard.isFinished()) {
+                completados++;
+            } else if (shard.submitted) {
+                enCurso++;
+            } else {
+                enEspera++;
+            }
+        }
+
+        return new ShardedProgress(activos.size(), enEspera, enCurso, completados, fallidos, encontrados);
+    }
+
+    /**
+     * Obtiene los resultados de todos los fragmentos terminados correctamente,
+     * en orden, sin CFDI duplicados. Los fragmentos se leen uno a la vez
+     * conforme se consume el stream, por lo que éste debe cerrarse. Los
+     * fragmentos fallidos se omiten, ver {@link #getFailedShards()}.
+     *
+     * @return los resultados de la consulta.
+     * @throws IllegalStateException si aún no terminan todos los fragmentos.
+     */
+    public Stream<CfdiMeta> streamResults() {
+        if (!isFinished()) {
+            throw new IllegalStateException("La consulta no ha terminado.");
+        }
+
+        Set<UUID> vistos = new HashSet<>();
+
+        return getShards().stream()
+                .filter(shard -> shard.isFinished() && !shard.isFailed())
+                .flatMap(Shard::streamResults)
+                .filter(cfdi -> vistos.add(cfdi.getFolio()));
+    }
+
+    /**
+     * Envía tantos fragmentos pendientes como lo permita el límite de
+     * fragmentos en curso.
+     */
+    private void dispatch() {
+        List<Shard> enviar = new ArrayList<>();
+        boolean terminada;
+
+        synchronized (this) {
+            while (running < parallelism && !pending.isEmpty()) {
+                enviar.add(pending.poll());
+                running++;
+            }
+
+            terminada = running == 0 && pending.isEmpty();
+        }
+
+        if (terminada) {
+            completion.complete(this);
+            return;
+        }
+
+        for (Shard shard : enviar) {
+            submit(shard);
+        }
+    }
+
+    private void submit(Shard shard) {
+        shard.submitted = true;
+
+        CompletableFuture<QueryRetriever> consulta;
+        try {
+            consulta = descargaCiec.queryAsync(shard.parametros, new ShardListener(shard));
+        } catch (RuntimeException e) {
+            consulta = CompletableFuture.failedFuture(e);
+        }
+
+        consulta.whenComplete((retriever, e) -> {
+            if (e != null) {
+                LOGGER.error("No fue posible enviar el fragmento " + shard, e);
+
+                shard.error = CompletableFutures.unwrap(e);
+                onShardFinished(shard);
+            } else {
+                shard.retriever = retriever;
+            }
+        });
+    }
+
+    private void onStatusChanged(Shard shard, QueryRetriever.Status status, QueryRetriever retriever) {
+        shard.retriever = retriever;
+        retriever.getProgressAsync().thenAccept(progress -> shard.found = progress.found());
+
+        shard.status = status;
+        if (status == QueryRetriever.Status.FALLO_500_MISMO_HORARIO && densityHistory != null) {
+            // se recuerda el rango para dividirlo de antemano la próxima vez
+            try {
+                densityHistory.record(shard.parametros);
+            } catch (RuntimeException e) {
+                LOGGER.warn("No fue posible guardar el historial del fragmento {}", shard, e);
+            }
+        }
+
+        if (status == QueryRetriever.Status.FALLO_500_MISMO_HORARIO && resplit) {
+            List<Parametros> subrangos = resplit(shard.parametros);
+            if (!subrangos.isEmpty()) {
+                replace(shard, subrangos);
+                return;
+            }
+        }
+
+        if (status.isFinished()) {
+            onShardFinished(shard);
+        }
+    }
+
+    private void onFailure(Shard shard, QueryRetriever retriever, Throwable error) {
+        LOGGER.error("Se dejó de verificar el fragmento " + shard, error);
+
+        shard.retriever = retriever;
+        shard.error = CompletableFutures.unwrap(error);
+        onShardFinished(shard);
+    }
+
+    /**
+     * Divide el rango de los parámetros dados a la mitad, o si ya es del
+     * tamaño mínimo, cambia la consulta al modo exhaustivo.
+     *
+     * @return los nuevos parámetros a consultar, o una lista vacía si ya no
+     * es posible dividir el rango.
+     */
+    private List<Parametros> resplit(Parametros parametros) {
+        LocalDateTime inicio = parametros.getFechaInicio();
+        Duration window = Duration.between(inicio, parametros.getFechaFin()).plusSeconds(1);
+
+        if (window.compareTo(minWindow) > 0) {
+            LocalDateTime mitad = inicio.plusSeconds(window.toSeconds() / 2);
+
+            return List.of(
+                    parametros.toBuilder().fechaFin(mitad.minusSeconds(1)).build(),
+                    parametros.toBuilder().fechaInicio(mitad).build());
+        }
+
+        if (parametros.getModoBusqueda() != Parametros.ModoBusqueda.EXHAUSTIVA) {
+            return List.of(parametros.toBuilder()
+                    .modoBusqueda(Parametros.ModoBusqueda.EXHAUSTIVA)
+                    .build());
+        }
+
+        return List.of();
+    }
+
+    private void replace(Shard shard, List<Parametros> subrangos) {
+        LOGGER.info("El fragmento {} tiene demasiados CFDI, se consultará en {} partes", shard, subrangos.size());
+
+        List<Shard> nuevos =
+                subrangos.stream().map(subrango -> new Shard(subrango)).toList();
+
+        synchronized (this) {
+            shard.replaced = true;
+            shards.addAll(shards.indexOf(shard) + 1, nuevos);
+
+            // se consultan antes que el resto de los fragmentos pendientes
+            for (int i = nuevos.size() - 1; i >= 0; i--) {
+                pending.addFirst(nuevos.get(i));
+            }
+        }
+
+        onShardFinished(shard);
+    }
+
+    private void onShardFinished(Shard shard) {
+        synchronized (this) {
+            // un fragmento que falló aún puede recibir cambios de status
+            // pendientes de entregar
+            if (shard.done) {
+                return;
+            }
+
+            shard.done = true;
+            running--;
+        }
+
+        dispatch();
+    }
+
+    /**
+     * Recibe los cambios de status y la falla de la verificación de un
+     * fragmento.
+     */
+    private class ShardListener implements QueryProgressListener {
+
+        private final Shard shard;
+
+        ShardListener(Shard shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public void onStatusChanged(QueryRetriever.Status status, QueryRetriever retriever) {
+            ShardedQuery.this.onStatusChanged(shard, status, retriever);
+        }
+
+        @Override
+        public void onFailure(QueryRetriever retriever, Throwable error) {
+            ShardedQuery.this.onFailure(shard, retriever, error);
+        }
+    }
+
+    /**
+     * Una de las consultas en las que se divide una {@link ShardedQuery}.
+     */
+    public static final class Shard {
+
+        private final Parametros parametros;
+
+        private volatile boolean submitted;
+        private volatile boolean replaced;
+        private volatile QueryRetriever retriever;
+        private volatile QueryRetriever.Status status;
+        private volatile long found;
+        private volatile Throwable error;
+
+        // guardado por la ShardedQuery
+        private boolean done;
+
+        private Shard(Parametros parametros) {
+            this.parametros = parametros;
+        }
+
+        /**
+         * @return los parámetros del fragmento, con su rango de fechas.
+         */
+        public Parametros getParametros() {
+            return parametros;
+        }
+
+        /**
+         * @return la consulta del fragmento, o null si aún no se crea en el
+         * webservice.
+         */
+        public QueryRetriever getRetriever() {
+            return retriever;
+        }
+
+        /**
+         * @return el último status conocido del fragmento, o null si aún no
+         * se conoce.
+         */
+        public QueryRetriever.Status getStatus() {
+            return status;
+        }
+
+        public long getFound() {
+            return found;
+        }
+
+        /**
+         * @return la excepción por la que no pudo enviarse el fragmento o se
+         * dejó de verificar, o null si no hubo error.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isFinished() {
+            return error != null || (status != null && status.isFinished());
+        }
+
+        public boolean isFailed() {
+            return error != null || (status != null && status.isFailed());
+        }
+
+        private Stream<CfdiMeta> streamResults() {
+            try {
+                return retriever.streamAllResults();
+            } catch (QueryNotReadyYet e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Shard{" + parametros.getFechaInicio() + " - " + parametros.getFechaFin() + ", status=" + status
+                    + "}";
+        }
+    }
+
+    public static final class Builder {
+
+        private final DescargaCiec descargaCiec;
+
+        private final Parametros parametros;
+
+        private Granularity granularity = Granularity.MONTH;
+
+        private int parallelism = 4;
+
+        private boolean resplit = true;
+
+        private Duration minWindow = Duration.ofHours(1);
+
+        private DensityHistory densityHistory;
+
+        /**
+         * @param descargaCiec con el que se envían los fragmentos.
+         * @param parametros   de la consulta a dividir.
+         */
+        public Builder(DescargaCiec descargaCiec, Parametros parametros) {
+            this.descargaCiec = descargaCiec;
+            this.parametros = parametros;
+        }
+
+        /**
+         * El tamaño de los fragmentos, por defecto un mes.
+         *
+         * @param granularity de los fragmentos.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder granularity(Granularity granularity) {
+            this.granularity = granularity;
+            return this;
+        }
+
+        /**
+         * Número máximo de fragmentos en curso al mismo tiempo, por defecto
+         * 4.
+         *
+         * @param parallelism fragmentos simultáneos.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Si los fragmentos que terminan con
+         * {@link QueryRetriever.Status#FALLO_500_MISMO_HORARIO} deben
+         * dividirse y consultarse de nuevo, por defecto true.
+         *
+         * @param resplit true para dividir los fragmentos.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder resplitDenseWindows(boolean resplit) {
+            this.resplit = resplit;
+            return this;
+        }
+
+        /**
+         * El rango mínimo al que puede dividirse un fragmento, por defecto una
+         * hora. Los fragmentos de este tamaño que fallan se consultan con
+         * {@link Parametros.ModoBusqueda#EXHAUSTIVA}.
+         *
+         * @param minWindow rango mínimo, al menos un segundo.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder minWindow(Duration minWindow) {
+            this.minWindow = minWindow;
+            return this;
+        }
+
+        /**
+         * El historial con el que se dividen de antemano los rangos con
+         * muchos CFDI, y en el que se registran los nuevos. Por defecto no se
+         * utiliza.
+         *
+         * @param densityHistory a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder densityHistory(DensityHistory densityHistory) {
+            this.densityHistory = densityHistory;
+            return this;
+        }
+
+        public ShardedQuery build() {
+            if (descargaCiec == null || parametros == null) {
+                throw new IllegalStateException("descargaCiec y parametros deben establecerse");
+            }
+
+            if (granularity == null) {
+                throw new IllegalStateException("La granularidad debe establecerse");
+            }
+
+            if (parallelism < 1) {
+                throw new IllegalStateException("parallelism debe ser > 0");
+            }
+
+            if (minWindow == null || minWindow.toSeconds() < 1) {
+                throw new IllegalStateException("minWindow debe ser de al menos un segundo");
+            }
+
+            return new ShardedQuery(this);
+        }
+    }
+}
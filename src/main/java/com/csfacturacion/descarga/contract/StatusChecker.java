@@ -0,0 +1,482 @@
+package com.csfacturacion.descarga.contract;
+
+import com.csfacturacion.descarga.error.CircuitBreakerOpenException;
+import com.csfacturacion.descarga.model.Progress;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Las instancias de esta clase se encargan de checar el status actual de
+ * una o varias consultas. Cada consulta tiene su propio momento de
+ * verificación, calculado con la {@link PollingPolicy} dada, y las
+ * verificaciones se realizan de forma asíncrona, con un límite de
+ * verificaciones simultáneas, por lo que una consulta lenta no retrasa a las
+ * demás.
+ */
+public class StatusChecker implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatusChecker.class);
+
+    private final ScheduledExecutorService scheduler;
+
+    private final PollingPolicy policy;
+
+    private final Semaphore permits;
+
+    private final Executor callbackExecutor;
+
+    private final ListenerDispatcher dispatcher;
+
+    private final Queue<WatchedQuery> waiting = new ConcurrentLinkedQueue<>();
+
+    private final Set<WatchedQuery> watched = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    /**
+     * @param scheduler utilizado para programar las verificaciones, no es
+     *                  cerrado por esta clase.
+     * @param policy    que determina la frecuencia de las verificaciones.
+     */
+    public StatusChecker(ScheduledExecutorService scheduler, PollingPolicy policy) {
+        this(scheduler, policy, null);
+    }
+
+    /**
+     * @param scheduler        utilizado para programar las verificaciones, no
+     *                         es cerrado por esta clase.
+     * @param policy           que determina la frecuencia de las
+     *                         verificaciones.
+     * @param callbackExecutor en el que se procesan las respuestas y se
+     *                         notifica a los listeners (e.g. un virtual thread
+     *                         por tarea), o null para hacerlo en el thread que
+     *                         recibe la respuesta.
+     */
+    public StatusChecker(ScheduledExecutorService scheduler, PollingPolicy policy, Executor callbackExecutor) {
+        this(scheduler, policy, callbackExecutor, null);
+    }
+
+    /**
+     * @param scheduler        utilizado para programar las verificaciones, no
+     *                         es cerrado por esta clase.
+     * @param policy           que determina la frecuencia de las
+     *                         verificaciones.
+     * @param callbackExecutor en el que se procesan las respuestas, o null
+     *                         para hacerlo en el thread que recibe la
+     *                         respuesta.
+     * @param dispatcher       que entrega los eventos a los listeners, no es
+     *                         cerrado por esta clase, o null para notificar a
+     *                         los listeners en el thread que procesa la
+     *                         respuesta.
+     */
+    public StatusChecker(
+            ScheduledExecutorService scheduler,
+            PollingPolicy policy,
+            Executor callbackExecutor,
+            ListenerDispatcher dispatcher) {
+        this.scheduler = scheduler;
+        this.policy = policy;
+        this.permits = new Semaphore(policy.getMaxConcurrentPolls());
+        this.callbackExecutor = callbackExecutor;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Agrega una consulta para ser verificada. El listener es notificado cada
+     * vez que cambia el status de la consulta, y una última vez cuando ésta
+     * termina, después de lo cual deja de verificarse.
+     *
+     * @param consulta a verificar.
+     * @param listener a notificar.
+     */
+    public void addConsulta(QueryRetriever consulta, QueryProgressListener listener) {
+        watch(consulta, new ListenerObserver(consulta, listener));
+    }
+
+    /**
+     * Agrega una consulta para ser verificada, entregando cada progreso al
+     * observador dado hasta que la consulta termine o se cancele la
+     * verificación.
+     *
+     * @param consulta a verificar.
+     * @param observer que recibe el progreso.
+     * @return la verificación, para pausarla o cancelarla.
+     */
+    Watch watch(QueryRetriever consulta, ProgressObserver observer) {
+        if (closed) {
+            throw new IllegalStateException("El StatusChecker ya ha sido cerrado.");
+        }
+
+        WatchedQuery query = new WatchedQuery(consulta, observer);
+        watched.add(query);
+
+        // la primera verificación establece el status inicial de la consulta
+        schedule(query, Duration.ZERO);
+
+        return query;
+    }
+
+    /**
+     * @return el número de consultas que siguen siendo verificadas.
+     */
+    public int size() {
+        return watched.size();
+    }
+
+    public PollingPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        for (WatchedQuery query : watched) {
+            ScheduledFuture<?> next = query.next;
+            if (next != null) {
+                next.cancel(false);
+            }
+
+            query.observer.onFailure(new CancellationException("El StatusChecker ha sido cerrado."));
+        }
+
+        watched.clear();
+        waiting.clear();
+    }
+
+    private void schedule(WatchedQuery query, Duration delay) {
+        if (closed || query.cancelled) {
+            return;
+        }
+
+        try {
+            query.next = scheduler.schedule(() -> submit(query), delay.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("No fue posible programar la verificación de la consulta {}", query.retriever.getFolio());
+
+            // quien espera el fin de la consulta (e.g. para liberar su lugar)
+            // debe saber que ya no se verifica; si se cerró este
+            // StatusChecker, close() ya lo notificó
+            if (watched.remove(query)) {
+                query.observer.onFailure(e);
+            }
+        }
+    }
+
+    private void submit(WatchedQuery query) {
+        waiting.add(query);
+        drain();
+    }
+
+    /**
+     * Inicia tantas verificaciones en espera como permisos haya disponibles.
+     * Las llamadas reentrantes (e.g. verificaciones que terminan de inmediato)
+     * sólo se registran y las atiende el hilo que ya está drenando la cola.
+     */
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            while (!waiting.isEmpty() && permits.tryAcquire()) {
+                WatchedQuery query = waiting.poll();
+                if (query == null) {
+                    permits.release();
+                    break;
+                }
+
+                poll(query);
+            }
+
+            missed = drainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void poll(WatchedQuery query) {
+        if (closed || query.cancelled) {
+            permits.release();
+            return;
+        }
+
+        try {
+            BiConsumer<Progress, Throwable> handler = (progress, e) -> {
+                try {
+                    onProgress(query, progress, e);
+                } finally {
+                    permits.release();
+                    drain();
+                }
+            };
+
+            CompletableFuture<Progress> progress = query.retriever.getProgressAsync();
+            if (callbackExecutor != null) {
+                progress.whenCompleteAsync(handler, callbackExecutor);
+            } else {
+                progress.whenComplete(handler);
+            }
+        } catch (RuntimeException e) {
+            try {
+                onProgress(query, null, e);
+            } finally {
+                permits.release();
+                drain();
+            }
+        }
+    }
+
+    private void onProgress(WatchedQuery query, Progress progress, Throwable error) {
+        if (error != null) {
+            onError(query, error);
+            return;
+        }
+
+        query.consecutiveErrors = 0;
+
+        QueryRetriever.Status status = progress.status();
+
+        if (query.previousStatus != null && status == query.previousStatus) {
+            query.unchangedPolls++;
+        } else {
+            query.previousStatus = status;
+            query.unchangedPolls = 0;
+        }
+
+        if (!query.cancelled) {
+            query.observer.onProgress(progress);
+        }
+
+        if (status.isFinished()) {
+            watched.remove(query);
+        } else if (query.observer.isActive() || !query.pause()) {
+            schedule(query, policy.nextDelay(status, query.unchangedPolls));
+        }
+    }
+
+    /**
+     * Reprograma la verificación de una consulta que falló. Si el circuit
+     * breaker del endpoint está abierto se espera a que permita una nueva
+     * solicitud, sin contarlo como error de la consulta; en otro caso se
+     * aplica el backoff de la política, hasta el máximo de errores
+     * consecutivos.
+     */
+    private void onError(WatchedQuery query, Throwable error) {
+        CircuitBreakerOpenException abierto = findCause(error, CircuitBreakerOpenException.class);
+        if (abierto != null) {
+            LOGGER.debug(
+                    "Verificación de la consulta {} pospuesta: {}", query.retriever.getFolio(), abierto.getMessage());
+            schedule(query, abierto.getRetryAfter().plus(policy.nextDelay(query.previousStatus, 0)));
+            return;
+        }
+
+        int errores = ++query.consecutiveErrors;
+        if (errores >= policy.getMaxConsecutiveErrors()) {
+            LOGGER.error(
+                    "Se deja de verificar la consulta " + query.retriever.getFolio() + " tras " + errores + " errores",
+                    error);
+            watched.remove(query);
+            query.observer.onFailure(error);
+            return;
+        }
+
+        LOGGER.warn(
+                "Hubo un problema al verificar la consulta {} ({} de {}): {}",
+                query.retriever.getFolio(),
+                errores,
+                policy.getMaxConsecutiveErrors(),
+                error.toString());
+        schedule(query, policy.nextDelay(query.previousStatus, errores));
+    }
+
+    private static <T extends Throwable> T findCause(Throwable error, Class<T> type) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (type.isInstance(t)) {
+                return type.cast(t);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Recibe el progreso de una consulta verificada con
+     * {@link #watch(QueryRetriever, ProgressObserver)}.
+     */
+    interface ProgressObserver {
+
+        /**
+         * Se llama con el resultado de cada verificación, una a la vez.
+         *
+         * @param progress actual de la consulta.
+         */
+        void onProgress(Progress progress);
+
+        /**
+         * Se llama si la consulta deja de verificarse antes de terminar, tras
+         * demasiados errores consecutivos, si el scheduler rechaza la
+         * siguiente verificación o al cerrar el StatusChecker.
+         *
+         * @param error que detuvo las verificaciones.
+         */
+        void onFailure(Throwable error);
+
+        /**
+         * @return false si no se necesitan más verificaciones por ahora, en
+         * cuyo caso la verificación se pausa hasta {@link Watch#resume()}.
+         */
+        default boolean isActive() {
+            return true;
+        }
+    }
+
+    /**
+     * La verificación en curso de una consulta.
+     */
+    interface Watch {
+
+        /**
+         * Reanuda la verificación si está pausada.
+         */
+        void resume();
+
+        /**
+         * Deja de verificar la consulta.
+         */
+        void cancel();
+    }
+
+    /**
+     * Notifica a un {@link QueryProgressListener} cada vez que cambia el
+     * status de la consulta.
+     */
+    private class ListenerObserver implements ProgressObserver {
+
+        private final QueryRetriever retriever;
+        private final QueryProgressListener listener;
+
+        // las verificaciones de una consulta no se traslapan
+        private volatile QueryRetriever.Status previousStatus;
+        private volatile boolean initialized;
+
+        ListenerObserver(QueryRetriever retriever, QueryProgressListener listener) {
+            this.retriever = retriever;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onProgress(Progress progress) {
+            QueryRetriever.Status status = progress.status();
+            if (initialized && status == previousStatus) {
+                return;
+            }
+
+            // en la primera verificación sólo se notifica si la consulta ya terminó
+            boolean notify = initialized || status.isFinished();
+
+            initialized = true;
+            previousStatus = status;
+
+            if (notify) {
+                notifyListener(status);
+            }
+        }
+
+        /**
+         * Se notifica directamente y no a través del dispatcher, ya que éste
+         * descarta los eventos pendientes al cerrarse y el listener podría
+         * estar esperando el fin de la consulta.
+         */
+        @Override
+        public void onFailure(Throwable error) {
+            try {
+                listener.onFailure(retriever, error);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error en el listener de la consulta " + retriever.getFolio(), e);
+            }
+        }
+
+        private void notifyListener(QueryRetriever.Status status) {
+            if (dispatcher != null) {
+                dispatcher.dispatch(listener, status, retriever);
+                return;
+            }
+
+            try {
+                listener.onStatusChanged(status, retriever);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error en el listener de la consulta " + retriever.getFolio(), e);
+            }
+        }
+    }
+
+    private class WatchedQuery implements Watch {
+
+        private final QueryRetriever retriever;
+        private final ProgressObserver observer;
+
+        private final AtomicBoolean paused = new AtomicBoolean();
+
+        // sólo se modifican desde la verificación en curso de esta consulta
+        private volatile QueryRetriever.Status previousStatus;
+        private volatile int unchangedPolls;
+        private volatile int consecutiveErrors;
+        private volatile ScheduledFuture<?> next;
+
+        private volatile boolean cancelled;
+
+        WatchedQuery(QueryRetriever retriever, ProgressObserver observer) {
+            this.retriever = retriever;
+            this.observer = observer;
+        }
+
+        /**
+         * Pausa la verificación.
+         *
+         * @return false si el observador volvió a activarse mientras se
+         * pausaba, en cuyo caso la verificación continúa.
+         */
+        boolean pause() {
+            paused.set(true);
+
+            // resume() pudo llamarse antes de marcar la pausa
+            return !observer.isActive() || !paused.compareAndSet(true, false);
+        }
+
+        @Override
+        public void resume() {
+            if (paused.compareAndSet(true, false)) {
+                schedule(this, policy.nextDelay(previousStatus, unchangedPolls));
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            watched.remove(this);
+
+            ScheduledFuture<?> siguiente = next;
+            if (siguiente != null) {
+                siguiente.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.csfacturacion.descarga.contract;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Destino de los XML descargados con
+ * {@link QueryRetriever#getXmls(java.util.Collection, XmlSink)}. Cada XML se
+ * entrega tan pronto como se recibe, posiblemente desde distintos hilos al
+ * mismo tiempo, por lo que las implementaciones deben ser thread-safe.
+ */
+@FunctionalInterface
+public interface XmlSink {
+
+    /**
+     * Recibe el XML del CFDI con el folio dado.
+     *
+     * @param folio del CFDI.
+     * @param xml   contenido del XML, codificado en UTF-8.
+     * @throws IOException si no es posible guardar el XML, el error se
+     *                     reporta como fallo de este folio.
+     */
+    void accept(UUID folio, byte[] xml) throws IOException;
+
+    /**
+     * Guarda cada XML en el directorio dado, con el nombre {@code <folio>.xml}.
+     *
+     * @param dir donde se guardarán los XML, se crea si no existe.
+     * @return el sink.
+     */
+    static XmlSink toDirectory(Path dir) {
+        return (folio, xml) -> {
+            Files.createDirectories(dir);
+            Files.write(dir.resolve(folio + ".xml"), xml);
+        };
+    }
+
+    /**
+     * Escribe cada XML en el {@link OutputStream} que devuelva la fábrica
+     * dada, el stream se cierra después de escribir el XML.
+     *
+     * @param factory que abre un stream por folio.
+     * @return el sink.
+     */
+    static XmlSink toOutputStreams(OutputStreamFactory factory) {
+        return (folio, xml) -> {
+            try (OutputStream out = factory.open(folio)) {
+                out.write(xml);
+            }
+        };
+    }
+
+    /**
+     * Entrega cada XML al callback dado.
+     *
+     * @param callback a ejecutar por cada XML.
+     * @return el sink.
+     */
+    static XmlSink of(BiConsumer<UUID, byte[]> callback) {
+        return callback::accept;
+    }
+
+    @FunctionalInterface
+    interface OutputStreamFactory {
+
+        OutputStream open(UUID folio) throws IOException;
+    }
+}
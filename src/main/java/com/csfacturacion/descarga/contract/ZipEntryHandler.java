@@ -0,0 +1,25 @@
+package com.csfacturacion.descarga.contract;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Recibe cada XML contenido en el ZIP de resultados de una consulta conforme
+ * se descarga, ver {@link QueryRetriever#asZipStream(ZipEntryHandler)}.
+ */
+@FunctionalInterface
+public interface ZipEntryHandler {
+
+    /**
+     * Este método es llamado por cada XML del ZIP, en el orden en que se
+     * encuentran dentro del archivo.
+     *
+     * @param folio del CFDI, obtenido del nombre de la entrada, o null si el
+     *              nombre no corresponde a un UUID.
+     * @param name  nombre de la entrada dentro del ZIP.
+     * @param xml   contenido de la entrada.
+     * @throws IOException si no es posible procesar la entrada, en cuyo caso
+     *                     se detiene la descarga.
+     */
+    void onEntry(UUID folio, String name, byte[] xml) throws IOException;
+}
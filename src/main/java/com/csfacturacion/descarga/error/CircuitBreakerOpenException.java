@@ -0,0 +1,27 @@
+package com.csfacturacion.descarga.error;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Indica que la solicitud no se envió porque el circuit breaker de su clase de
+ * endpoint está abierto, es decir, las solicitudes recientes a ese endpoint
+ * fallaron de forma consecutiva.
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+    private final Duration retryAfter;
+
+    public CircuitBreakerOpenException(String endpoint, Duration retryAfter) {
+        super("El endpoint " + endpoint + " no está disponible, reintentar en " + retryAfter.toMillis() + " ms");
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return el tiempo que falta para que el circuit breaker permita una
+     * nueva solicitud.
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
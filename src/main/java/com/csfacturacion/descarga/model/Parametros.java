@@ -118,6 +118,25 @@ public class Parametros {
         return credenciales;
     }
 
+    /**
+     * Crea un builder con los mismos valores que estos parámetros, útil para
+     * generar parámetros similares (e.g. con otro rango de fechas).
+     *
+     * @return un builder con los valores de estos parámetros.
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .rfcBusqueda(rfcBusqueda)
+                .fechaInicio(fechaInicio)
+                .fechaFin(fechaFin)
+                .status(status)
+                .tipo(tipo)
+                .modoBusqueda(modoBusqueda)
+                .servicio(servicio)
+                .tipoDoc(tipoDoc)
+                .credenciales(credenciales);
+    }
+
     public static final class Builder {
         private String rfcBusqueda;
 
@@ -0,0 +1,26 @@
+package com.csfacturacion.descarga.model;
+
+/**
+ * Progreso combinado de las consultas (fragmentos) de una
+ * {@link com.csfacturacion.descarga.contract.ShardedQuery}.
+ *
+ * @param shards    total de fragmentos.
+ * @param pending   fragmentos que aún no se envían al webservice.
+ * @param running   fragmentos enviados que no han terminado.
+ * @param completed fragmentos terminados correctamente.
+ * @param failed    fragmentos que terminaron con error o no pudieron
+ *                  enviarse.
+ * @param found     total de CFDI encontrados hasta el momento, según el
+ *                  último progreso conocido de cada fragmento (puede incluir
+ *                  duplicados entre fragmentos).
+ */
+public record ShardedProgress(int shards, int pending, int running, int completed, int failed, long found) {
+
+    public boolean isFinished() {
+        return pending == 0 && running == 0;
+    }
+
+    public boolean isFailed() {
+        return failed > 0;
+    }
+}
@@ -0,0 +1,16 @@
+package com.csfacturacion.descarga.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Hasta dónde se han sincronizado los CFDI de un {@link SyncKey}.
+ *
+ * @param syncedUntil            fecha de emisión hasta la cual se consultaron
+ *                               todos los CFDI.
+ * @param lastFechaEmision       fecha de emisión más reciente recibida, puede
+ *                               ser null.
+ * @param lastFechaCertificacion fecha de certificación más reciente recibida,
+ *                               puede ser null.
+ */
+public record SyncCheckpoint(
+        LocalDateTime syncedUntil, LocalDateTime lastFechaEmision, LocalDateTime lastFechaCertificacion) {}
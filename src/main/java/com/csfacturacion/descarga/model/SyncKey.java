@@ -0,0 +1,67 @@
+package com.csfacturacion.descarga.model;
+
+/**
+ * Identifica el conjunto de CFDI que se sincroniza de forma incremental: los
+ * de un RFC, de un tipo (emitidas/recibidas) y tipo de documento, y con los
+ * mismos filtros de contraparte y status. Una sincronización filtrada no
+ * avanza el checkpoint de la sincronización sin filtros.
+ *
+ * @param rfc         del contribuyente, con el que se autentica en el SAT.
+ * @param tipo        de los comprobantes, puede ser null.
+ * @param tipoDoc     de los comprobantes, puede ser null.
+ * @param rfcBusqueda RFC de la contraparte por el que se filtra, null si no se
+ *                    filtra.
+ * @param status      de los comprobantes, {@link Parametros.Status#TODOS} si
+ *                    no se filtra.
+ */
+public record SyncKey(
+        String rfc, Parametros.Tipo tipo, Parametros.TipoDoc tipoDoc, String rfcBusqueda, Parametros.Status status) {
+
+    public SyncKey {
+        if (rfcBusqueda != null && rfcBusqueda.isBlank()) {
+            rfcBusqueda = null;
+        }
+
+        if (status == null) {
+            status = Parametros.Status.TODOS;
+        }
+    }
+
+    /**
+     * La llave de una sincronización sin filtros.
+     *
+     * @param rfc     del contribuyente.
+     * @param tipo    de los comprobantes, puede ser null.
+     * @param tipoDoc de los comprobantes, puede ser null.
+     */
+    public SyncKey(String rfc, Parametros.Tipo tipo, Parametros.TipoDoc tipoDoc) {
+        this(rfc, tipo, tipoDoc, null, Parametros.Status.TODOS);
+    }
+
+    public static SyncKey of(Parametros parametros) {
+        return new SyncKey(
+                parametros.getCredenciales().user(),
+                parametros.getTipo(),
+                parametros.getTipoDoc(),
+                parametros.getRfcBusqueda(),
+                parametros.getStatus());
+    }
+
+    /**
+     * @return true si la sincronización filtra por contraparte o por status.
+     */
+    public boolean isFiltered() {
+        return rfcBusqueda != null || status != Parametros.Status.TODOS;
+    }
+
+    @Override
+    public String toString() {
+        String key = rfc + "|" + (tipo != null ? tipo : "-") + "|" + (tipoDoc != null ? tipoDoc : "-");
+        if (!isFiltered()) {
+            // conserva el formato de los checkpoints guardados sin filtros
+            return key;
+        }
+
+        return key + "|" + (rfcBusqueda != null ? rfcBusqueda : "-") + "|" + status;
+    }
+}
@@ -0,0 +1,22 @@
+package com.csfacturacion.descarga.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Resultado de una sincronización incremental.
+ *
+ * @param fechaInicio  inicio del rango consultado, incluye el traslape con
+ *                     la sincronización anterior.
+ * @param fechaFin     fin del rango consultado.
+ * @param cfdis        total de CFDI entregados.
+ * @param failedShards fragmentos del rango que no pudieron consultarse; si es
+ *                     mayor a 0 no se actualiza el checkpoint.
+ * @param checkpoint   el checkpoint después de la sincronización.
+ */
+public record SyncResult(
+        LocalDateTime fechaInicio, LocalDateTime fechaFin, long cfdis, int failedShards, SyncCheckpoint checkpoint) {
+
+    public boolean isComplete() {
+        return failedShards == 0;
+    }
+}
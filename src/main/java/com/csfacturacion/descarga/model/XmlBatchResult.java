@@ -0,0 +1,22 @@
+package com.csfacturacion.descarga.model;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Resultado de una descarga de XML en lote.
+ *
+ * @param downloaded total de XML entregados correctamente.
+ * @param failures   la excepción que ocasionó el fallo de cada folio que no
+ *                   pudo descargarse o guardarse.
+ */
+public record XmlBatchResult(int downloaded, Map<UUID, Exception> failures) {
+
+    public XmlBatchResult {
+        failures = Map.copyOf(failures);
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+}
@@ -0,0 +1,170 @@
+package com.csfacturacion.descarga.model;
+
+/**
+ * Opciones para descargar el ZIP de resultados de una consulta mediante
+ * solicitudes HTTP {@code Range}. Si el servidor ignora los rangos, la
+ * descarga se realiza completa en una sola solicitud.
+ */
+public final class ZipDownloadOptions {
+
+    /**
+     * Cuándo forzar la escritura en disco del archivo descargado.
+     */
+    public enum Fsync {
+        /**
+         * Se deja al sistema operativo decidir cuándo escribir en disco.
+         */
+        NONE,
+        /**
+         * Se fuerza la escritura una vez al terminar la descarga.
+         */
+        ON_COMPLETE,
+        /**
+         * Se fuerza la escritura después de cada bloque recibido, es la opción
+         * más segura pero también la más lenta.
+         */
+        EVERY_WRITE
+    }
+
+    private final boolean resume;
+
+    private final long chunkSize;
+
+    private final int parallelism;
+
+    private final boolean preallocate;
+
+    private final Fsync fsync;
+
+    private ZipDownloadOptions(Builder builder) {
+        resume = builder.resume;
+        chunkSize = builder.chunkSize;
+        parallelism = builder.parallelism;
+        preallocate = builder.preallocate;
+        fsync = builder.fsync;
+    }
+
+    /**
+     * @return las opciones por defecto: sin continuar descargas previas, sin
+     * fragmentar y sin forzar la escritura en disco.
+     */
+    public static ZipDownloadOptions defaults() {
+        return new Builder().build();
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isChunked() {
+        return chunkSize > 0;
+    }
+
+    public boolean isPreallocate() {
+        return preallocate;
+    }
+
+    public Fsync getFsync() {
+        return fsync;
+    }
+
+    public static final class Builder {
+
+        private boolean resume;
+
+        private long chunkSize;
+
+        private int parallelism = 4;
+
+        private boolean preallocate;
+
+        private Fsync fsync = Fsync.NONE;
+
+        public Builder() {}
+
+        /**
+         * Si el archivo destino ya existe, continúa la descarga a partir de
+         * su tamaño actual en lugar de comenzar desde el inicio. Sólo aplica
+         * a las descargas no fragmentadas.
+         *
+         * @param resume true para continuar descargas previas.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        /**
+         * Descarga el archivo en fragmentos del tamaño dado, solicitados de
+         * forma concurrente y escritos directamente en su posición dentro
+         * del archivo destino. Por defecto 0 (sin fragmentar).
+         *
+         * @param chunkSize tamaño de cada fragmento, en bytes.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder chunkSize(long chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Máximo de fragmentos descargándose al mismo tiempo, por defecto 4.
+         *
+         * @param parallelism fragmentos simultáneos.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Reserva en disco el tamaño total del archivo antes de escribirlo,
+         * cuando el servidor lo reporta. Las descargas fragmentadas siempre
+         * reservan el tamaño total.
+         *
+         * @param preallocate true para reservar el tamaño del archivo.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder preallocate(boolean preallocate) {
+            this.preallocate = preallocate;
+            return this;
+        }
+
+        /**
+         * Cuándo forzar la escritura en disco, por defecto {@link Fsync#NONE}.
+         *
+         * @param fsync política de escritura.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder fsync(Fsync fsync) {
+            this.fsync = fsync;
+            return this;
+        }
+
+        public ZipDownloadOptions build() {
+            if (chunkSize < 0) {
+                throw new IllegalStateException("chunkSize debe ser >= 0");
+            }
+
+            if (parallelism < 1) {
+                throw new IllegalStateException("parallelism debe ser > 0");
+            }
+
+            if (fsync == null) {
+                throw new IllegalStateException("fsync no puede ser null");
+            }
+
+            return new ZipDownloadOptions(this);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import com.google.gson.Gson;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpRequest;
+import java.time.Duration;
 import java.time.format.DateTimeFormatter;
 import java.util.UUID;
 
@@ -21,15 +22,39 @@ public class RequestFactory {
 
     private final Gson gson;
 
+    private final Duration requestTimeout;
+
     public RequestFactory() {
         this(BASE_URI);
     }
 
     public RequestFactory(String baseUri) {
+        this(baseUri, null);
+    }
+
+    /**
+     * @param baseUri        del webservice.
+     * @param requestTimeout tiempo máximo de espera de la respuesta de cada
+     *                       solicitud (hasta recibir los encabezados), o null
+     *                       para esperar indefinidamente.
+     */
+    public RequestFactory(String baseUri, Duration requestTimeout) {
         this.baseUri = baseUri;
+        this.requestTimeout = requestTimeout;
         gson = GsonFactory.getGsonInstance();
     }
 
+    /**
+     * @return una copia de esta fábrica con el tiempo máximo de espera dado.
+     */
+    public RequestFactory withRequestTimeout(Duration requestTimeout) {
+        return new RequestFactory(baseUri, requestTimeout);
+    }
+
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
     protected URI newBaseUri() throws URISyntaxException {
         return newBaseUri("");
     }
@@ -38,17 +63,48 @@ public class RequestFactory {
         return new URI(this.baseUri + path);
     }
 
+    /**
+     * Crea el builder de una solicitud al URI dado, con el tiempo máximo de
+     * espera configurado.
+     *
+     * @param uri de la solicitud.
+     * @return el builder.
+     */
+    protected HttpRequest.Builder newRequestBuilder(URI uri) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri);
+        if (requestTimeout != null) {
+            builder.timeout(requestTimeout);
+        }
+
+        return builder;
+    }
+
+    /**
+     * Solicitud ligera al webservice, utilizada para establecer conexiones
+     * (DNS, TCP y TLS) antes de las primeras consultas.
+     *
+     * @return la solicitud.
+     */
+    public HttpRequest newPingRequest() {
+        try {
+            return newRequestBuilder(newBaseUri())
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .build();
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public HttpRequest newConsultaRequest(Credenciales csCredenciales, Parametros params) {
 
         try {
             URI uri = newBaseUri("/consultar");
 
-            return HttpRequest.newBuilder()
+            return newRequestBuilder(uri)
                     .setHeader("rfc", csCredenciales.user())
                     .setHeader("password", csCredenciales.password())
                     .setHeader("Content-Type", "application/json")
                     .setHeader("Accept", "application/json")
-                    .uri(uri)
                     .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(params)))
                     .build();
 
@@ -61,8 +117,7 @@ public class RequestFactory {
         try {
             URI uri = newBaseUri("/repetir?uuid=" + folio);
 
-            return HttpRequest.newBuilder()
-                    .uri(uri)
+            return newRequestBuilder(uri)
                     .setHeader("rfc", credenciales.user())
                     .setHeader("password", credenciales.password())
                     .GET()
@@ -76,7 +131,7 @@ public class RequestFactory {
     public HttpRequest newStatusRequest(UUID folio) throws URISyntaxException {
         URI uri = newBaseUri("/consultas/" + folio.toString() + "/progreso");
 
-        return HttpRequest.newBuilder(uri)
+        return newRequestBuilder(uri)
                 .GET()
                 .header("Accept", Request.MediaType.JSON.value())
                 .build();
@@ -86,7 +141,7 @@ public class RequestFactory {
 
         URI uri = newBaseUri("/consultas/" + folio.toString() + "/resumen");
 
-        return HttpRequest.newBuilder(uri)
+        return newRequestBuilder(uri)
                 .GET()
                 .header("Accept", Request.MediaType.JSON.value())
                 .build();
@@ -96,7 +151,7 @@ public class RequestFactory {
 
         URI uri = newBaseUri("/consultas/" + folio.toString() + "/" + page);
 
-        return HttpRequest.newBuilder(uri)
+        return newRequestBuilder(uri)
                 .GET()
                 .header("Accept", Request.MediaType.JSON.value())
                 .build();
@@ -106,9 +161,29 @@ public class RequestFactory {
 
         URI uri = newBaseUri("/consultas/" + folio.toString());
 
-        return HttpRequest.newBuilder(uri)
+        return newRequestBuilder(uri)
+                .GET()
+                .header("Accept", Request.MediaType.ZIP.value())
+                .build();
+    }
+
+    /**
+     * Solicitud del ZIP de resultados limitada al rango de bytes dado.
+     *
+     * @param folio de la consulta.
+     * @param from  primer byte del rango.
+     * @param to    último byte del rango (inclusivo) o un valor negativo para
+     *              solicitar hasta el final del archivo.
+     * @return la solicitud.
+     */
+    public HttpRequest newDescargaZipRequest(UUID folio, long from, long to) throws URISyntaxException {
+
+        URI uri = newBaseUri("/consultas/" + folio.toString());
+
+        return newRequestBuilder(uri)
                 .GET()
                 .header("Accept", Request.MediaType.ZIP.value())
+                .header("Range", "bytes=" + from + "-" + (to < 0 ? "" : to))
                 .build();
     }
 
@@ -116,6 +191,6 @@ public class RequestFactory {
 
         URI uri = newBaseUri("/cfdi/" + folioCFDI);
 
-        return HttpRequest.newBuilder(uri).GET().header("Accept", as.value()).build();
+        return newRequestBuilder(uri).GET().header("Accept", as.value()).build();
     }
 }
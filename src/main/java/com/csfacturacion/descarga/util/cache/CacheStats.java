@@ -0,0 +1,21 @@
+package com.csfacturacion.descarga.util.cache;
+
+/**
+ * Estadísticas de uso de un caché, e.g. {@link XmlCache} o {@link ResultPageCache}.
+ *
+ * @param hits      búsquedas que encontraron el elemento.
+ * @param misses    búsquedas que no encontraron el elemento.
+ * @param evictions elementos eliminados para respetar el tamaño máximo del caché.
+ */
+public record CacheStats(long hits, long misses, long evictions) {
+
+    /**
+     * @return la proporción de búsquedas que encontraron el elemento, 1 si no ha
+     * habido búsquedas.
+     */
+    public double hitRate() {
+        long requests = hits + misses;
+
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+}
@@ -0,0 +1,228 @@
+package com.csfacturacion.descarga.util.cache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caché de XML persistente en disco, limitado por el total de bytes
+ * almacenados. Cada XML se guarda en {@code <dir>/<xx>/<folio>.xml}, donde
+ * {@code xx} son los dos primeros caracteres del folio, para no concentrar
+ * demasiados archivos en un solo directorio.
+ * <p>
+ * El índice (folio y tamaño de cada XML, en orden de uso) se mantiene en
+ * memoria y se reconstruye a partir del contenido del directorio al crear el
+ * caché, por lo que los XML guardados por otro proceso o en una ejecución
+ * previa se reutilizan. Los archivos temporales de escrituras interrumpidas
+ * se eliminan al crear el caché sólo si tienen más de una hora, para no
+ * eliminar las escrituras en curso de otro proceso que comparta el
+ * directorio.
+ */
+public class DiskXmlCache implements XmlCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskXmlCache.class);
+
+    private static final String EXTENSION = ".xml";
+
+    // un archivo temporal más antiguo es una escritura interrumpida; los más
+    // recientes pueden ser escrituras en curso de otro proceso
+    private static final Duration STALE_TMP = Duration.ofHours(1);
+
+    private final Path dir;
+
+    private final long maxBytes;
+
+    // folio -> tamaño en bytes, en orden de acceso (el primero es el menos usado)
+    private final LinkedHashMap<UUID, Integer> index = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long size;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * @param dir      donde se guardan los XML, se crea si no existe.
+     * @param maxBytes total de bytes de XML que puede almacenar el caché.
+     * @throws IOException si no es posible crear o leer el directorio.
+     */
+    public DiskXmlCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+
+        Files.createDirectories(dir);
+        load();
+    }
+
+    @Override
+    public byte[] get(UUID folio) {
+        synchronized (this) {
+            if (index.get(folio) == null) {
+                misses++;
+                return null;
+            }
+        }
+
+        try {
+            byte[] xml = Files.readAllBytes(pathOf(folio));
+
+            synchronized (this) {
+                hits++;
+            }
+
+            return xml;
+        } catch (NoSuchFileException e) {
+            // eliminado por otro proceso
+            synchronized (this) {
+                remove(folio);
+                misses++;
+            }
+
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void put(UUID folio, byte[] xml) {
+        if (xml.length > maxBytes) {
+            return;
+        }
+
+        Path dest = pathOf(folio);
+
+        try {
+            Files.createDirectories(dest.getParent());
+
+            // se escribe en un archivo temporal para no exponer XML incompletos
+            Path tmp = Files.createTempFile(dest.getParent(), folio.toString(), ".tmp");
+            try {
+                Files.write(tmp, xml);
+                Files.move(tmp, dest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<UUID> evicted = new ArrayList<>();
+
+        synchronized (this) {
+            Integer previous = index.put(folio, xml.length);
+            size += xml.length - (previous != null ? previous : 0);
+
+            Iterator<Map.Entry<UUID, Integer>> eldest = index.entrySet().iterator();
+            while (size > maxBytes && eldest.hasNext()) {
+                Map.Entry<UUID, Integer> entry = eldest.next();
+                if (entry.getKey().equals(folio)) {
+                    continue;
+                }
+
+                size -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+                evictions++;
+            }
+        }
+
+        for (UUID folioEliminado : evicted) {
+            try {
+                Files.deleteIfExists(pathOf(folioEliminado));
+            } catch (IOException e) {
+                LOGGER.warn("No fue posible eliminar el XML {} del caché", folioEliminado, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized CacheStats stats() {
+        return new CacheStats(hits, misses, evictions);
+    }
+
+    /**
+     * @return el total de bytes almacenados actualmente.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    private void remove(UUID folio) {
+        Integer length = index.remove(folio);
+        if (length != null) {
+            size -= length;
+        }
+    }
+
+    private Path pathOf(UUID folio) {
+        String name = folio.toString();
+
+        return dir.resolve(name.substring(0, 2)).resolve(name + EXTENSION);
+    }
+
+    /**
+     * Reconstruye el índice a partir de los XML del directorio, del más
+     * antiguo al más reciente.
+     */
+    private void load() throws IOException {
+        record Entry(UUID folio, long size, FileTime modified) {}
+
+        List<Entry> entries = new ArrayList<>();
+
+        try (Stream<Path> files = Files.walk(dir, 2)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+
+                if (name.endsWith(".tmp")) {
+                    deleteIfStale(file);
+                } else if (name.endsWith(EXTENSION) && Files.isRegularFile(file)) {
+                    try {
+                        UUID folio = UUID.fromString(name.substring(0, name.length() - EXTENSION.length()));
+                        entries.add(new Entry(folio, Files.size(file), Files.getLastModifiedTime(file)));
+                    } catch (IllegalArgumentException e) {
+                        // no es un XML del caché
+                    }
+                }
+            }
+        }
+
+        entries.sort(Comparator.comparing(Entry::modified));
+
+        synchronized (this) {
+            for (Entry entry : entries) {
+                index.put(entry.folio(), (int) entry.size());
+                size += entry.size();
+            }
+        }
+    }
+
+    private static void deleteIfStale(Path tmp) throws IOException {
+        try {
+            Instant modified = Files.getLastModifiedTime(tmp).toInstant();
+            if (modified.isBefore(Instant.now().minus(STALE_TMP))) {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (NoSuchFileException e) {
+            // el otro proceso terminó de escribirlo
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.csfacturacion.descarga.util.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.UUID;
+
+/**
+ * Caché de XML en memoria, limitado por el total de bytes almacenados. Cuando
+ * se excede el límite se eliminan los XML menos usados recientemente.
+ */
+public class MemoryXmlCache implements XmlCache {
+
+    private final Cache<UUID, byte[]> cache;
+
+    /**
+     * El caché usa un solo segmento interno para que el límite aplique
+     * completo a cada XML; con varios segmentos, un XML mayor que la parte de
+     * su segmento se desalojaría inmediatamente.
+     *
+     * @param maxBytes total de bytes de XML que puede almacenar el caché.
+     */
+    public MemoryXmlCache(long maxBytes) {
+        this.cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxBytes)
+                .weigher((UUID folio, byte[] xml) -> xml.length)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public byte[] get(UUID folio) {
+        return cache.getIfPresent(folio);
+    }
+
+    @Override
+    public void put(UUID folio, byte[] xml) {
+        cache.put(folio, xml);
+    }
+
+    @Override
+    public CacheStats stats() {
+        com.google.common.cache.CacheStats stats = cache.stats();
+
+        return new CacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+}
@@ -0,0 +1,65 @@
+package com.csfacturacion.descarga.util.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.UUID;
+
+/**
+ * Caché en memoria de páginas de resultados, identificadas por el folio de
+ * la consulta y el número de página. Los resultados de una consulta terminada
+ * no cambian, por lo que recorrerlos varias veces sólo requiere descargarlos
+ * una vez.
+ * <p>
+ * Cada página se guarda como el JSON recibido del webservice (UTF-8), que
+ * ocupa considerablemente menos memoria que los objetos ya deserializados, y
+ * el caché se limita por el total de bytes almacenados. Una misma instancia
+ * puede compartirse entre varias consultas.
+ */
+public class ResultPageCache {
+
+    private final Cache<PageKey, byte[]> cache;
+
+    /**
+     * El límite se reparte entre los segmentos internos del caché, por lo que
+     * debe ser bastante mayor que el tamaño de una página: una página que
+     * exceda la parte de su segmento se desaloja inmediatamente.
+     *
+     * @param maxBytes total de bytes de JSON que puede almacenar el caché.
+     */
+    public ResultPageCache(long maxBytes) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((PageKey key, byte[] json) -> json.length)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param folio de la consulta.
+     * @param page  número de página, comenzando en 1.
+     * @return el JSON de la página o null si no se encuentra en el caché.
+     */
+    public byte[] get(UUID folio, int page) {
+        return cache.getIfPresent(new PageKey(folio, page));
+    }
+
+    /**
+     * @param folio de la consulta.
+     * @param page  número de página, comenzando en 1.
+     * @param json  de la página, no debe modificarse después de guardarse.
+     */
+    public void put(UUID folio, int page, byte[] json) {
+        cache.put(new PageKey(folio, page), json);
+    }
+
+    /**
+     * @return las estadísticas de uso del caché desde su creación.
+     */
+    public CacheStats stats() {
+        com.google.common.cache.CacheStats stats = cache.stats();
+
+        return new CacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+    private record PageKey(UUID folio, int page) {}
+}
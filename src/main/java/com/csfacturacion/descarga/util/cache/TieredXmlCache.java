@@ -0,0 +1,64 @@
+package com.csfacturacion.descarga.util.cache;
+
+import java.util.UUID;
+
+/**
+ * Caché de XML de dos niveles: un caché rápido (generalmente en memoria) y
+ * uno persistente (generalmente en disco). Los XML encontrados en el segundo
+ * nivel se copian al primero.
+ */
+public class TieredXmlCache implements XmlCache {
+
+    private final XmlCache first;
+
+    private final XmlCache second;
+
+    public TieredXmlCache(XmlCache first, XmlCache second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public byte[] get(UUID folio) {
+        byte[] xml = first.get(folio);
+        if (xml != null) {
+            return xml;
+        }
+
+        xml = second.get(folio);
+        if (xml != null) {
+            first.put(folio, xml);
+        }
+
+        return xml;
+    }
+
+    @Override
+    public void put(UUID folio, byte[] xml) {
+        first.put(folio, xml);
+        second.put(folio, xml);
+    }
+
+    /**
+     * Los aciertos son los de ambos niveles, mientras que las búsquedas
+     * fallidas son sólo las que no encontraron el XML en ningún nivel.
+     */
+    @Override
+    public CacheStats stats() {
+        CacheStats firstStats = first.stats();
+        CacheStats secondStats = second.stats();
+
+        return new CacheStats(
+                firstStats.hits() + secondStats.hits(),
+                secondStats.misses(),
+                firstStats.evictions() + secondStats.evictions());
+    }
+
+    public XmlCache getFirst() {
+        return first;
+    }
+
+    public XmlCache getSecond() {
+        return second;
+    }
+}
@@ -0,0 +1,33 @@
+package com.csfacturacion.descarga.util.cache;
+
+import java.util.UUID;
+
+/**
+ * Caché de XML de CFDI por folio. Un CFDI no cambia una vez emitido, por lo
+ * que sus XML pueden reutilizarse entre consultas (e incluso entre procesos)
+ * sin volver a solicitarlos al webservice. Las implementaciones deben ser
+ * thread-safe.
+ */
+public interface XmlCache {
+
+    /**
+     * @param folio del CFDI.
+     * @return el XML (ya limpio, codificado en UTF-8) o null si no se
+     * encuentra en el caché.
+     */
+    byte[] get(UUID folio);
+
+    /**
+     * Guarda el XML del CFDI con el folio dado. El arreglo no debe
+     * modificarse después de guardarse.
+     *
+     * @param folio del CFDI.
+     * @param xml   limpio, codificado en UTF-8.
+     */
+    void put(UUID folio, byte[] xml);
+
+    /**
+     * @return las estadísticas de uso del caché desde su creación.
+     */
+    CacheStats stats();
+}
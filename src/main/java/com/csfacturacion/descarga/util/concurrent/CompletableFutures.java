@@ -0,0 +1,85 @@
+package com.csfacturacion.descarga.util.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Utilerías para esperar el resultado de un {@link CompletableFuture} desde
+ * los métodos bloqueantes del SDK, propagando las excepciones originales en
+ * lugar de las envolturas {@link ExecutionException} o
+ * {@link CompletionException}.
+ */
+public final class CompletableFutures {
+
+    private CompletableFutures() {}
+
+    /**
+     * Espera el resultado del future dado. Las excepciones no verificadas se
+     * propagan tal cual, el resto se envuelven en un {@link RuntimeException}.
+     *
+     * @param future a esperar.
+     * @return el resultado del future.
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw unchecked(e.getCause());
+        }
+    }
+
+    /**
+     * Espera el resultado del future dado. Si éste terminó con una excepción
+     * del tipo verificado indicado, se lanza directamente.
+     *
+     * @param future  a esperar.
+     * @param checked tipo de la excepción verificada que puede lanzarse.
+     * @return el resultado del future.
+     * @throws X si el future terminó con una excepción de este tipo.
+     */
+    public static <T, X extends Exception> T join(CompletableFuture<T> future, Class<X> checked) throws X {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (checked.isInstance(e.getCause())) {
+                throw checked.cast(e.getCause());
+            }
+
+            throw unchecked(e.getCause());
+        }
+    }
+
+    /**
+     * Devuelve la causa original de una excepción producida dentro de una
+     * etapa de un {@link CompletableFuture}.
+     *
+     * @param t excepción recibida en la etapa.
+     * @return la causa original.
+     */
+    public static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+
+        return t;
+    }
+
+    private static RuntimeException unchecked(Throwable cause) {
+        if (cause instanceof RuntimeException e) {
+            return e;
+        }
+
+        if (cause instanceof Error e) {
+            throw e;
+        }
+
+        return new RuntimeException(cause);
+    }
+}
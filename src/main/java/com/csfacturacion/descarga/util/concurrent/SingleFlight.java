@@ -0,0 +1,65 @@
+package com.csfacturacion.descarga.util.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Agrupa las llamadas asíncronas concurrentes con la misma llave: mientras
+ * una llamada está en curso, las siguientes con la misma llave reciben su
+ * resultado en lugar de realizar una nueva. Una vez que la llamada termina,
+ * la siguiente vuelve a ejecutarse.
+ *
+ * @param <K> tipo de las llaves.
+ * @param <V> tipo del resultado de las llamadas.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Ejecuta la llamada dada, a menos que ya exista una en curso con la misma
+     * llave, en cuyo caso se comparte su resultado. Cancelar el future
+     * devuelto no cancela la llamada compartida.
+     *
+     * @param key  de la llamada.
+     * @param call a ejecutar.
+     * @return un future que se completa con el resultado de la llamada.
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> promise = new CompletableFuture<>();
+        CompletableFuture<V> current = inFlight.putIfAbsent(key, promise);
+        if (current != null) {
+            return current.copy();
+        }
+
+        CompletableFuture<V> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+
+        result.whenComplete((value, e) -> {
+            // se elimina antes de completar para que las llamadas posteriores
+            // al resultado se ejecuten de nuevo
+            inFlight.remove(key, promise);
+
+            if (e != null) {
+                promise.completeExceptionally(CompletableFutures.unwrap(e));
+            } else {
+                promise.complete(value);
+            }
+        });
+
+        return promise.copy();
+    }
+
+    /**
+     * @return el número de llamadas en curso.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,140 @@
+package com.csfacturacion.descarga.util.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Ejecuta un grupo de tareas, cada una en su propio virtual thread, y espera a
+ * que terminen todas. Si alguna falla, las demás se cancelan (se interrumpen)
+ * y {@link #join()} lanza el error; al cerrar el scope también se cancelan las
+ * tareas en curso, por lo que ninguna sobrevive al bloque que las creó.
+ * <p>
+ * Es una versión reducida de {@code StructuredTaskScope.ShutdownOnFailure},
+ * que en Java 21 aún es una API preview. A diferencia de ésta, limita las
+ * tareas en curso: {@link #fork(Callable)} espera a que haya un lugar
+ * disponible, de modo que pueden procesarse colecciones muy grandes sin crear
+ * un thread por elemento de antemano.
+ *
+ * <pre>{@code
+ * try (TaskScope scope = new TaskScope(8)) {
+ *     for (Chunk chunk : chunks) {
+ *         scope.fork(() -> download(chunk));
+ *     }
+ *
+ *     scope.join();
+ * }
+ * }</pre>
+ */
+public final class TaskScope implements AutoCloseable {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Semaphore permits;
+
+    // registra las tareas en curso, join() espera a que lleguen a cero
+    private final Phaser pending = new Phaser(1);
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * @param maxConcurrency número máximo de tareas en curso.
+     */
+    public TaskScope(int maxConcurrency) {
+        // el Phaser admite a lo más 65535 participantes
+        if (maxConcurrency < 1 || maxConcurrency > 65_534) {
+            throw new IllegalArgumentException("maxConcurrency debe estar en el rango [1, 65534]");
+        }
+
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Inicia la tarea dada en un nuevo virtual thread, esperando a que haya un
+     * lugar disponible. Si alguna tarea ya falló, la tarea no se inicia.
+     *
+     * @param task a ejecutar.
+     * @throws InterruptedException si se interrumpe la espera.
+     */
+    public void fork(Callable<?> task) throws InterruptedException {
+        permits.acquire();
+
+        if (failure.get() != null) {
+            permits.release();
+            return;
+        }
+
+        pending.register();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.call();
+                } catch (Throwable t) {
+                    fail(t);
+                } finally {
+                    pending.arriveAndDeregister();
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            pending.arriveAndDeregister();
+
+            // el executor se detuvo porque otra tarea falló
+            if (failure.get() == null) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Espera a que terminen todas las tareas iniciadas.
+     *
+     * @throws InterruptedException si se interrumpe la espera, en cuyo caso
+     *                              se cancelan las tareas en curso.
+     * @throws ExecutionException   con el error de la primera tarea que
+     *                              falló.
+     */
+    public void join() throws InterruptedException, ExecutionException {
+        try {
+            pending.awaitAdvanceInterruptibly(pending.arrive());
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new ExecutionException(t);
+        }
+    }
+
+    /**
+     * @return true si alguna tarea falló.
+     */
+    public boolean isFailed() {
+        return failure.get() != null;
+    }
+
+    /**
+     * Cancela las tareas en curso y espera a que terminen.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        executor.close();
+    }
+
+    private void fail(Throwable t) {
+        // sólo se conserva el primer error, los demás suelen ser
+        // consecuencia de la cancelación
+        if (failure.compareAndSet(null, t)) {
+            executor.shutdownNow();
+        }
+    }
+}
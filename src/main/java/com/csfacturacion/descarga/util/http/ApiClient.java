@@ -1,28 +1,402 @@
 package com.csfacturacion.descarga.util.http;
 
+import com.csfacturacion.descarga.error.CircuitBreakerOpenException;
+import com.csfacturacion.descarga.util.concurrent.CompletableFutures;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Envía las solicitudes al webservice. Los métodos bloqueantes y los
+ * asíncronos comparten el mismo flujo:
+ * <ol>
+ *     <li>Si el {@link CircuitBreaker} de la clase de endpoint está abierto,
+ *     la solicitud falla de inmediato.</li>
+ *     <li>Se reserva un permiso del {@link RateLimiter} y se espera lo que
+ *     éste indique.</li>
+ *     <li>Si el servidor responde 429 o 503, se pausa y se reintenta la
+ *     solicitud.</li>
+ *     <li>Si una solicitud idempotente tarda en responder, puede enviarse
+ *     una copia, ver {@link HedgingPolicy}.</li>
+ *     <li>Si la solicitud falla por un error de red o una respuesta 502 o
+ *     504, se reintenta de acuerdo a la {@link RetryPolicy}.</li>
+ * </ol>
+ */
 public class ApiClient {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ApiClient.class);
+
     private final HttpClient httpClient;
 
+    private final RateLimiter rateLimiter;
+
+    private final RetryPolicy retryPolicy;
+
+    private final Map<Endpoint, CircuitBreaker> breakers = new EnumMap<>(Endpoint.class);
+
+    private final Hedger hedger;
+
     public ApiClient(HttpClient httpClient) {
-        this.httpClient = httpClient;
+        this(new Builder(httpClient));
+    }
+
+    /**
+     * @param httpClient       con el que se envían las solicitudes.
+     * @param rateLimitOptions límites de las solicitudes.
+     */
+    public ApiClient(HttpClient httpClient, RateLimitOptions rateLimitOptions) {
+        this(new Builder(httpClient).rateLimit(rateLimitOptions));
+    }
+
+    private ApiClient(Builder builder) {
+        this.httpClient = builder.httpClient;
+        this.rateLimiter = new RateLimiter(builder.rateLimitOptions);
+        this.retryPolicy = builder.retryPolicy;
+        this.hedger = new Hedger(builder.hedgingPolicy);
+
+        for (Endpoint endpoint : Endpoint.values()) {
+            breakers.put(endpoint, new CircuitBreaker(builder.failureThreshold, builder.openDuration));
+        }
     }
 
     public HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
-        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        return send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<T>> response = sendAsync(request, bodyHandler);
+
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = CompletableFutures.unwrap(e);
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+
+            if (cause instanceof Error err) {
+                throw err;
+            }
+
+            throw new IOException(cause);
+        }
     }
 
     public HttpResponse<InputStream> download(HttpRequest request) throws IOException, InterruptedException {
-        return httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        return send(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    /**
+     * Envía la solicitud sin bloquear el hilo actual.
+     *
+     * @param request a enviar.
+     * @return un future que se completa con la respuesta del servidor.
+     */
+    public CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request) {
+        return sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+            HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        return sendAsync(request, bodyHandler, Endpoint.of(request), Attempt.FIRST);
+    }
+
+    /**
+     * Versión asíncrona de {@link #download(HttpRequest)}. El future se
+     * completa al recibir los encabezados de la respuesta, el cuerpo debe
+     * leerse del {@link InputStream} devuelto.
+     *
+     * @param request a enviar.
+     * @return un future que se completa con la respuesta del servidor.
+     */
+    public CompletableFuture<HttpResponse<InputStream>> downloadAsync(HttpRequest request) {
+        return sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    /**
+     * @return el limitador de las solicitudes de este cliente.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param endpoint clase de endpoint.
+     * @return el circuit breaker de la clase de endpoint dada.
+     */
+    public CircuitBreaker getCircuitBreaker(Endpoint endpoint) {
+        return breakers.get(endpoint);
+    }
+
+    /**
+     * @return el responsable de las solicitudes duplicadas de este cliente.
+     */
+    public Hedger getHedger() {
+        return hedger;
     }
 
     public void close() {
         httpClient.close();
     }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(
+            HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, Endpoint endpoint, Attempt attempt) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if (!breaker.tryAcquire()) {
+            return CompletableFuture.failedFuture(
+                    new CircuitBreakerOpenException(endpoint.name(), breaker.getRemainingOpen()));
+        }
+
+        boolean retryThrottled = attempt.throttled() < rateLimiter.getOptions().getMaxRetries();
+        boolean retryStatus = retryPolicy.canRetry(request, attempt.failed());
+        HttpResponse.BodyHandler<T> handler = discarding(
+                bodyHandler,
+                code -> (retryThrottled && RateLimiter.isThrottled(code))
+                        || (retryStatus && RetryPolicy.isRetryableStatus(code)));
+
+        long delay = rateLimiter.reserve(endpoint);
+        CompletableFuture<HttpResponse<T>> response = delay > 0
+                ? delay(delay).thenCompose(ignored -> exchange(request, handler, endpoint))
+                : exchange(request, handler, endpoint);
+
+        return response.handle((r, e) -> {
+                    if (e != null) {
+                        return onError(request, bodyHandler, endpoint, attempt, CompletableFutures.unwrap(e));
+                    }
+
+                    int code = r.statusCode();
+                    if (RateLimiter.isThrottled(code)) {
+                        if (code == 503) {
+                            breaker.onFailure();
+                        } else {
+                            breaker.onIgnored();
+                        }
+
+                        Duration pausa = rateLimiter.onThrottled(endpoint, r);
+                        if (!retryThrottled) {
+                            return CompletableFuture.completedFuture(r);
+                        }
+
+                        LOGGER.debug("{} respondió {}, reintentando en {} ms", request.uri(), code, pausa.toMillis());
+                        return sendAsync(request, bodyHandler, endpoint, attempt.nextThrottled());
+                    }
+
+                    if (RetryPolicy.isRetryableStatus(code)) {
+                        breaker.onFailure();
+                        if (!retryStatus) {
+                            return CompletableFuture.completedFuture(r);
+                        }
+
+                        // el cuerpo de la respuesta ya se descartó, por lo que
+                        // si esta falla abrió el circuito no puede entregarse
+                        if (breaker.getState() == CircuitBreaker.State.OPEN) {
+                            return CompletableFuture.<HttpResponse<T>>failedFuture(
+                                    new CircuitBreakerOpenException(endpoint.name(), breaker.getRemainingOpen()));
+                        }
+
+                        return retry(request, bodyHandler, endpoint, attempt, "respondió " + code);
+                    }
+
+                    breaker.onSuccess();
+                    rateLimiter.onSuccess(endpoint);
+                    return CompletableFuture.completedFuture(r);
+                })
+                .thenCompose(r -> r);
+    }
+
+    /**
+     * Envía la solicitud al servidor. Las solicitudes idempotentes pueden
+     * duplicarse si tardan en responder, ver {@link HedgingPolicy}.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> exchange(
+            HttpRequest request, HttpResponse.BodyHandler<T> handler, Endpoint endpoint) {
+        if (!RetryPolicy.isIdempotent(request)) {
+            return httpClient.sendAsync(request, handler);
+        }
+
+        return hedger.execute(
+                endpoint,
+                () -> httpClient.sendAsync(request, handler),
+                () -> breakers.get(endpoint).getState() == CircuitBreaker.State.CLOSED);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> onError(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> bodyHandler,
+            Endpoint endpoint,
+            Attempt attempt,
+            Throwable error) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if (error instanceof CancellationException) {
+            breaker.onIgnored();
+            return CompletableFuture.failedFuture(error);
+        }
+
+        breaker.onFailure();
+        // si este fallo abrió el circuito se entrega el error original
+        if (!retryPolicy.canRetry(request, attempt.failed(), error)
+                || breaker.getState() == CircuitBreaker.State.OPEN) {
+            return CompletableFuture.failedFuture(error);
+        }
+
+        return retry(request, bodyHandler, endpoint, attempt, "falló: " + error);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> retry(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> bodyHandler,
+            Endpoint endpoint,
+            Attempt attempt,
+            String motivo) {
+        Duration espera = retryPolicy.nextDelay(attempt.lastDelay());
+        LOGGER.debug("{} {}, reintentando en {} ms", request.uri(), motivo, espera.toMillis());
+
+        return delay(espera.toNanos())
+                .thenCompose(ignored -> sendAsync(request, bodyHandler, endpoint, attempt.nextFailed(espera)));
+    }
+
+    private static CompletableFuture<Void> delay(long nanos) {
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Descarta el cuerpo de las respuestas que se van a reintentar, para no
+     * procesarlo con el handler original (e.g. escribirlo a un archivo).
+     */
+    private static <T> HttpResponse.BodyHandler<T> discarding(
+            HttpResponse.BodyHandler<T> bodyHandler, IntPredicate discard) {
+        return info -> discard.test(info.statusCode())
+                ? HttpResponse.BodySubscribers.replacing(null)
+                : bodyHandler.apply(info);
+    }
+
+    /**
+     * Reintentos realizados de una solicitud.
+     *
+     * @param throttled reintentos por respuestas 429 o 503.
+     * @param failed    reintentos por errores.
+     * @param lastDelay espera antes del último reintento por error.
+     */
+    private record Attempt(int throttled, int failed, Duration lastDelay) {
+
+        static final Attempt FIRST = new Attempt(0, 0, null);
+
+        Attempt nextThrottled() {
+            return new Attempt(throttled + 1, failed, lastDelay);
+        }
+
+        Attempt nextFailed(Duration delay) {
+            return new Attempt(throttled, failed + 1, delay);
+        }
+    }
+
+    public static final class Builder {
+
+        private final HttpClient httpClient;
+
+        private RateLimitOptions rateLimitOptions = RateLimitOptions.defaults();
+
+        private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+        private int failureThreshold = 5;
+
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        private HedgingPolicy hedgingPolicy = HedgingPolicy.disabled();
+
+        /**
+         * @param httpClient con el que se envían las solicitudes.
+         */
+        public Builder(HttpClient httpClient) {
+            this.httpClient = httpClient;
+        }
+
+        /**
+         * Los límites de solicitudes, ver {@link RateLimiter}.
+         *
+         * @param rateLimitOptions a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder rateLimit(RateLimitOptions rateLimitOptions) {
+            this.rateLimitOptions = rateLimitOptions;
+            return this;
+        }
+
+        /**
+         * La política de reintentos, por defecto {@link RetryPolicy#defaults()}.
+         *
+         * @param retryPolicy a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Configura los circuit breakers de cada clase de endpoint, por
+         * defecto se abren tras 5 fallos consecutivos durante 30 s.
+         *
+         * @param failureThreshold fallos consecutivos que abren el circuito, 0
+         *                         para nunca abrirlo.
+         * @param openDuration     tiempo que permanece abierto.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder circuitBreaker(int failureThreshold, Duration openDuration) {
+            this.failureThreshold = failureThreshold;
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        /**
+         * El envío de solicitudes duplicadas, por defecto desactivado.
+         *
+         * @param hedgingPolicy a utilizar.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder hedging(HedgingPolicy hedgingPolicy) {
+            this.hedgingPolicy = hedgingPolicy;
+            return this;
+        }
+
+        public ApiClient build() {
+            if (httpClient == null) {
+                throw new IllegalStateException("httpClient debe establecerse");
+            }
+
+            if (rateLimitOptions == null || retryPolicy == null || hedgingPolicy == null) {
+                throw new IllegalStateException("rateLimit, retryPolicy y hedging deben establecerse");
+            }
+
+            if (failureThreshold < 0 || openDuration == null || openDuration.isNegative()) {
+                throw new IllegalStateException("failureThreshold y openDuration deben ser >= 0");
+            }
+
+            return new ApiClient(this);
+        }
+    }
 }
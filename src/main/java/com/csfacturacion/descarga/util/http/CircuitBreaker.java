@@ -0,0 +1,110 @@
+package com.csfacturacion.descarga.util.http;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker de una clase de endpoint. Tras varios fallos consecutivos
+ * (errores de red o respuestas 502, 503 o 504) se abre y las solicitudes
+ * fallan de inmediato con
+ * {@link com.csfacturacion.descarga.error.CircuitBreakerOpenException}, sin
+ * ocupar conexiones ni hilos, hasta que transcurre el tiempo de apertura.
+ * Entonces se permite una solicitud de prueba: si tiene éxito el circuito se
+ * cierra, de lo contrario vuelve a abrirse.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+
+    private final long openNanos;
+
+    // guardados por this
+    private State state = State.CLOSED;
+    private int failures;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    /**
+     * @param failureThreshold fallos consecutivos que abren el circuito, 0
+     *                         para nunca abrirlo.
+     * @param openDuration     tiempo que el circuito permanece abierto.
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Determina si puede enviarse una solicitud. Si devuelve true, el
+     * resultado de la solicitud debe registrarse con {@link #onSuccess()},
+     * {@link #onFailure()} o {@link #onIgnored()}.
+     *
+     * @return true si la solicitud puede enviarse.
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openUntil < 0) {
+                    return false;
+                }
+
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            default:
+                if (trialInFlight) {
+                    return false;
+                }
+
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        trialInFlight = false;
+        failures++;
+
+        if (state == State.HALF_OPEN || (failureThreshold > 0 && failures >= failureThreshold)) {
+            state = State.OPEN;
+            openUntil = System.nanoTime() + openNanos;
+        }
+    }
+
+    /**
+     * Registra una solicitud cuyo resultado no indica si el endpoint está
+     * disponible, e.g. una respuesta 429 o una solicitud cancelada.
+     */
+    public synchronized void onIgnored() {
+        trialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return el tiempo que falta para permitir una solicitud de prueba, cero
+     * si el circuito no está abierto.
+     */
+    public synchronized Duration getRemainingOpen() {
+        if (state != State.OPEN) {
+            return Duration.ZERO;
+        }
+
+        return Duration.ofNanos(Math.max(0, openUntil - System.nanoTime()));
+    }
+}
@@ -0,0 +1,82 @@
+package com.csfacturacion.descarga.util.http;
+
+import java.net.http.HttpRequest;
+
+/**
+ * Clase de endpoint del webservice a la que pertenece una solicitud. Cada
+ * clase tiene su propio límite de solicitudes y su propio backoff, de modo que
+ * p.ej. la descarga de muchos CFDI no frena la verificación del progreso.
+ */
+public enum Endpoint {
+    /**
+     * Creación o repetición de consultas.
+     */
+    CONSULTAR,
+    /**
+     * Progreso y resumen de una consulta.
+     */
+    PROGRESO,
+    /**
+     * Páginas de resultados.
+     */
+    RESULTADOS,
+    /**
+     * XML (o PDF) de un CFDI.
+     */
+    CFDI,
+    /**
+     * ZIP de resultados.
+     */
+    ZIP,
+    /**
+     * Cualquier otra solicitud.
+     */
+    OTRO;
+
+    /**
+     * Determina la clase de endpoint de la solicitud dada a partir de su ruta,
+     * ver {@link com.csfacturacion.descarga.util.RequestFactory}.
+     *
+     * @param request a clasificar.
+     * @return la clase de endpoint.
+     */
+    public static Endpoint of(HttpRequest request) {
+        return of(request.uri().getPath());
+    }
+
+    /**
+     * Determina la clase de endpoint de la ruta dada.
+     *
+     * @param path de la solicitud, e.g. {@code /v3/consultas/{folio}/progreso}.
+     * @return la clase de endpoint.
+     */
+    public static Endpoint of(String path) {
+        if (path == null) {
+            return OTRO;
+        }
+
+        if (path.endsWith("/consultar") || path.endsWith("/repetir")) {
+            return CONSULTAR;
+        }
+
+        if (path.contains("/cfdi/")) {
+            return CFDI;
+        }
+
+        int consultas = path.indexOf("/consultas/");
+        if (consultas < 0) {
+            return OTRO;
+        }
+
+        // /consultas/{folio}[/{progreso|resumen|pagina}]
+        String[] partes = path.substring(consultas + "/consultas/".length()).split("/");
+        if (partes.length == 1) {
+            return ZIP;
+        }
+
+        return switch (partes[1]) {
+            case "progreso", "resumen" -> PROGRESO;
+            default -> RESULTADOS;
+        };
+    }
+}
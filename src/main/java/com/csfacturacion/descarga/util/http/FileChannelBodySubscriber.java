@@ -0,0 +1,174 @@
+package com.csfacturacion.descarga.util.http;
+
+import com.csfacturacion.descarga.model.ZipDownloadOptions;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Escribe el cuerpo de una respuesta directamente en un {@link FileChannel},
+ * a partir de una posición dada, conforme se reciben los {@link ByteBuffer}
+ * del cliente HTTP, sin copiarlos a un buffer intermedio. El canal no se
+ * cierra al terminar; el valor del cuerpo es el total de bytes escritos.
+ */
+public class FileChannelBodySubscriber implements HttpResponse.BodySubscriber<Long> {
+
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+    private final FileChannel channel;
+
+    private final long position;
+
+    private final long expectedLength;
+
+    private final boolean ownsTail;
+
+    private final boolean preallocate;
+
+    private final ZipDownloadOptions.Fsync fsync;
+
+    private Flow.Subscription subscription;
+
+    private long written;
+
+    private FileChannelBodySubscriber(
+            FileChannel channel,
+            long position,
+            long expectedLength,
+            boolean ownsTail,
+            boolean preallocate,
+            ZipDownloadOptions.Fsync fsync) {
+        this.channel = channel;
+        this.position = position;
+        this.expectedLength = expectedLength;
+        this.ownsTail = ownsTail;
+        this.preallocate = preallocate;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Escribe el cuerpo a partir de la posición dada sin modificar el resto
+     * del archivo, útil para escribir fragmentos en paralelo sobre el mismo
+     * canal.
+     *
+     * @param channel  destino.
+     * @param position a partir de la cual se escribe el cuerpo.
+     * @param fsync    política de sincronización con el disco.
+     * @return el subscriber.
+     */
+    public static FileChannelBodySubscriber atPosition(
+            FileChannel channel, long position, ZipDownloadOptions.Fsync fsync) {
+        return new FileChannelBodySubscriber(channel, position, -1, false, false, fsync);
+    }
+
+    /**
+     * Reemplaza el contenido del archivo a partir de la posición dada: lo
+     * trunca en esa posición antes de escribir, opcionalmente reserva
+     * {@code expectedLength} bytes y, al terminar (incluso con error), lo
+     * trunca en el último byte escrito, para que su tamaño siempre refleje
+     * lo que realmente se recibió.
+     *
+     * @param channel        destino.
+     * @param position       a partir de la cual se escribe el cuerpo.
+     * @param expectedLength tamaño esperado del cuerpo o -1 si no se conoce.
+     * @param preallocate    true para reservar el tamaño esperado.
+     * @param fsync          política de sincronización con el disco.
+     * @return el subscriber.
+     */
+    public static FileChannelBodySubscriber replacingFrom(
+            FileChannel channel,
+            long position,
+            long expectedLength,
+            boolean preallocate,
+            ZipDownloadOptions.Fsync fsync) {
+        return new FileChannelBodySubscriber(channel, position, expectedLength, true, preallocate, fsync);
+    }
+
+    @Override
+    public CompletionStage<Long> getBody() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+
+        try {
+            if (ownsTail) {
+                channel.truncate(position);
+
+                if (preallocate && expectedLength > 0) {
+                    channel.write(ByteBuffer.wrap(new byte[1]), position + expectedLength - 1);
+                }
+            }
+        } catch (IOException e) {
+            subscription.cancel();
+            result.completeExceptionally(e);
+            return;
+        }
+
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        try {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer, position + written);
+                }
+            }
+
+            if (fsync == ZipDownloadOptions.Fsync.EVERY_WRITE) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            subscription.cancel();
+            fail(e);
+            return;
+        }
+
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            trimTail();
+
+            if (fsync != ZipDownloadOptions.Fsync.NONE) {
+                channel.force(true);
+            }
+
+            result.complete(written);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void fail(Throwable throwable) {
+        try {
+            trimTail();
+        } catch (IOException e) {
+            throwable.addSuppressed(e);
+        }
+
+        result.completeExceptionally(throwable);
+    }
+
+    private void trimTail() throws IOException {
+        if (ownsTail && channel.isOpen()) {
+            channel.truncate(position + written);
+        }
+    }
+}
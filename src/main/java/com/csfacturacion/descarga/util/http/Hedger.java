@@ -0,0 +1,232 @@
+package com.csfacturacion.descarga.util.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Envía las solicitudes duplicadas de acuerdo a una {@link HedgingPolicy}.
+ * Registra la latencia de las respuestas por clase de endpoint para calcular
+ * la espera antes de duplicar una solicitud.
+ */
+public class Hedger {
+
+    // latencias recientes por clase de endpoint
+    private static final int WINDOW = 256;
+
+    // cada cuántas latencias se recalcula el percentil
+    private static final int REFRESH = 16;
+
+    // solicitudes duplicadas que pueden acumularse en el presupuesto
+    private static final double MAX_TOKENS = 10;
+
+    private final HedgingPolicy policy;
+
+    private final Map<Endpoint, LatencyTracker> trackers = new EnumMap<>(Endpoint.class);
+
+    private final LongAdder hedged = new LongAdder();
+
+    private final LongAdder wins = new LongAdder();
+
+    // guardado por this
+    private double tokens;
+
+    public Hedger(HedgingPolicy policy) {
+        this.policy = policy;
+
+        if (policy.isEnabled()) {
+            for (Endpoint endpoint : policy.getEndpoints()) {
+                trackers.put(endpoint, new LatencyTracker());
+            }
+        }
+    }
+
+    /**
+     * Envía la solicitud y, si no responde a tiempo, una copia.
+     *
+     * @param endpoint clase de endpoint de la solicitud.
+     * @param send     envía la solicitud, debe devolver el future del
+     *                 {@link java.net.http.HttpClient} para que cancelarlo
+     *                 cancele la solicitud.
+     * @param allowed  determina, al momento de duplicar, si aún puede
+     *                 enviarse una copia (e.g. el circuit breaker está
+     *                 cerrado).
+     * @return la primera respuesta recibida.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> execute(
+            Endpoint endpoint, Supplier<CompletableFuture<HttpResponse<T>>> send, BooleanSupplier allowed) {
+        LatencyTracker tracker = trackers.get(endpoint);
+        if (tracker == null) {
+            return send.get();
+        }
+
+        deposit();
+
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<HttpResponse<T>>> copia = new AtomicReference<>();
+        AtomicInteger pendientes = new AtomicInteger(1);
+
+        CompletableFuture<HttpResponse<T>> primary = timed(tracker, send.get());
+        primary.whenComplete((r, e) -> onComplete(result, r, e, copia.get(), pendientes, false));
+
+        CompletableFuture.delayedExecutor(tracker.delay(), TimeUnit.NANOSECONDS).execute(() -> {
+            if (result.isDone() || !allowed.getAsBoolean() || !withdraw()) {
+                return;
+            }
+
+            hedged.increment();
+            pendientes.incrementAndGet();
+
+            CompletableFuture<HttpResponse<T>> hedge = timed(tracker, send.get());
+            copia.set(hedge);
+            hedge.whenComplete((r, e) -> onComplete(result, r, e, primary, pendientes, true));
+
+            if (result.isDone()) {
+                hedge.cancel(true);
+            }
+        });
+
+        // si quien llama cancela, se cancelan ambas solicitudes
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                primary.cancel(true);
+                CompletableFuture<HttpResponse<T>> hedge = copia.get();
+                if (hedge != null) {
+                    hedge.cancel(true);
+                }
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * @return el número de solicitudes duplicadas enviadas.
+     */
+    public long getHedged() {
+        return hedged.sum();
+    }
+
+    /**
+     * @return el número de solicitudes duplicadas que respondieron antes que
+     * la original.
+     */
+    public long getWins() {
+        return wins.sum();
+    }
+
+    /**
+     * @param endpoint clase de endpoint.
+     * @return la espera actual, en milisegundos, antes de duplicar una
+     * solicitud a la clase de endpoint dada, o -1 si no se duplican.
+     */
+    public long getDelayMillis(Endpoint endpoint) {
+        LatencyTracker tracker = trackers.get(endpoint);
+
+        return tracker != null ? TimeUnit.NANOSECONDS.toMillis(tracker.delay()) : -1;
+    }
+
+    public HedgingPolicy getPolicy() {
+        return policy;
+    }
+
+    private <T> void onComplete(
+            CompletableFuture<HttpResponse<T>> result,
+            HttpResponse<T> response,
+            Throwable error,
+            CompletableFuture<HttpResponse<T>> other,
+            AtomicInteger pendientes,
+            boolean hedge) {
+        if (error == null) {
+            if (result.complete(response)) {
+                if (hedge) {
+                    wins.increment();
+                }
+
+                if (other != null) {
+                    other.cancel(true);
+                }
+            } else {
+                discard(response);
+            }
+        } else if (pendientes.decrementAndGet() == 0) {
+            result.completeExceptionally(error);
+        }
+    }
+
+    private static <T> CompletableFuture<HttpResponse<T>> timed(
+            LatencyTracker tracker, CompletableFuture<HttpResponse<T>> response) {
+        long inicio = System.nanoTime();
+        response.thenRun(() -> tracker.record(System.nanoTime() - inicio));
+
+        return response;
+    }
+
+    /**
+     * Cierra el cuerpo de una respuesta que ya no se utilizará, e.g. el
+     * {@link java.io.InputStream} de una descarga.
+     */
+    private static void discard(HttpResponse<?> response) {
+        if (response.body() instanceof Closeable body) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                // la respuesta se descarta de cualquier forma
+            }
+        }
+    }
+
+    private synchronized void deposit() {
+        tokens = Math.min(MAX_TOKENS, tokens + policy.getBudget());
+    }
+
+    private synchronized boolean withdraw() {
+        if (tokens < 1) {
+            return false;
+        }
+
+        tokens -= 1;
+        return true;
+    }
+
+    private class LatencyTracker {
+
+        // guardados por this
+        private final long[] samples = new long[WINDOW];
+        private int count;
+        private int next;
+
+        private volatile long delay = policy.getMaxDelay().toNanos();
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % WINDOW;
+            count++;
+
+            if (count >= policy.getMinSamples() && (count == policy.getMinSamples() || count % REFRESH == 0)) {
+                long[] ordenadas = Arrays.copyOf(samples, Math.min(count, WINDOW));
+                Arrays.sort(ordenadas);
+
+                int i = (int) Math.ceil(policy.getPercentile() * ordenadas.length) - 1;
+                long p = ordenadas[Math.max(0, i)];
+                delay = Math.max(
+                        policy.getMinDelay().toNanos(),
+                        Math.min(policy.getMaxDelay().toNanos(), p));
+            }
+        }
+
+        long delay() {
+            return delay;
+        }
+    }
+}
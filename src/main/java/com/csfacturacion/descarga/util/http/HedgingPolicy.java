@@ -0,0 +1,201 @@
+package com.csfacturacion.descarga.util.http;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Configura el envío de solicitudes duplicadas (hedging) del
+ * {@link ApiClient}: si una solicitud GET a una de las clases de endpoint
+ * dadas no ha respondido después del percentil indicado de las latencias
+ * recientes, se envía una copia, se usa la primera respuesta y se cancela la
+ * otra. Reduce la latencia de las respuestas más lentas a costa de algunas
+ * solicitudes adicionales, limitadas por el presupuesto.
+ * <p>
+ * Por defecto está desactivado, ver {@link #disabled()}.
+ */
+public final class HedgingPolicy {
+
+    // sus respuestas se escriben en un archivo (ZIP) o la solicitud modifica
+    // el estado del servidor (repetir una consulta), no pueden duplicarse
+    private static final Set<Endpoint> UNSUPPORTED = EnumSet.of(Endpoint.CONSULTAR, Endpoint.ZIP);
+
+    private final Set<Endpoint> endpoints;
+
+    private final double percentile;
+
+    private final Duration minDelay;
+
+    private final Duration maxDelay;
+
+    private final double budget;
+
+    private final int minSamples;
+
+    private HedgingPolicy(Builder builder) {
+        this.endpoints = Set.copyOf(builder.endpoints);
+        this.percentile = builder.percentile;
+        this.minDelay = builder.minDelay;
+        this.maxDelay = builder.maxDelay;
+        this.budget = builder.budget;
+        this.minSamples = builder.minSamples;
+    }
+
+    /**
+     * @return una política que nunca envía solicitudes duplicadas.
+     */
+    public static HedgingPolicy disabled() {
+        return new Builder().endpoints().build();
+    }
+
+    /**
+     * @return true si se envían solicitudes duplicadas a alguna clase de
+     * endpoint.
+     */
+    public boolean isEnabled() {
+        return !endpoints.isEmpty() && budget > 0;
+    }
+
+    public Set<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public Duration getMinDelay() {
+        return minDelay;
+    }
+
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    public double getBudget() {
+        return budget;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    public static final class Builder {
+
+        private Set<Endpoint> endpoints = EnumSet.of(Endpoint.CFDI, Endpoint.RESULTADOS);
+
+        private double percentile = 0.95;
+
+        private Duration minDelay = Duration.ofMillis(50);
+
+        private Duration maxDelay = Duration.ofSeconds(5);
+
+        private double budget = 0.05;
+
+        private int minSamples = 20;
+
+        public Builder() {}
+
+        /**
+         * Las clases de endpoint a las que se envían solicitudes duplicadas,
+         * por defecto CFDI y RESULTADOS. No se admiten ZIP, cuyas respuestas
+         * se escriben directamente en el archivo destino, ni CONSULTAR.
+         *
+         * @param endpoints clases de endpoint.
+         * @return este builder, para encadenamiento.
+         * @throws IllegalArgumentException si alguna clase de endpoint no
+         *                                  admite solicitudes duplicadas.
+         */
+        public Builder endpoints(Endpoint... endpoints) {
+            for (Endpoint endpoint : endpoints) {
+                if (UNSUPPORTED.contains(endpoint)) {
+                    throw new IllegalArgumentException("Las solicitudes a " + endpoint + " no pueden duplicarse");
+                }
+            }
+
+            this.endpoints =
+                    endpoints.length == 0 ? EnumSet.noneOf(Endpoint.class) : EnumSet.of(endpoints[0], endpoints);
+            return this;
+        }
+
+        /**
+         * El percentil (0 a 1) de las latencias recientes tras el cual se
+         * envía la solicitud duplicada, por defecto 0.95.
+         *
+         * @param percentile de las latencias.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder percentile(double percentile) {
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * La espera mínima antes de enviar la solicitud duplicada, por defecto
+         * 50 ms.
+         *
+         * @param minDelay espera mínima.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder minDelay(Duration minDelay) {
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        /**
+         * La espera máxima antes de enviar la solicitud duplicada, por defecto
+         * 5 s. Se utiliza mientras no hay suficientes latencias registradas.
+         *
+         * @param maxDelay espera máxima.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder maxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * Las solicitudes duplicadas permitidas por cada solicitud, por
+         * defecto 0.05 (a lo más 5% de solicitudes adicionales).
+         *
+         * @param budget fracción de solicitudes adicionales.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder budget(double budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        /**
+         * Las latencias que deben registrarse antes de usar el percentil, por
+         * defecto 20.
+         *
+         * @param minSamples latencias mínimas.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder minSamples(int minSamples) {
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        public HedgingPolicy build() {
+            if (percentile <= 0 || percentile > 1) {
+                throw new IllegalStateException("El percentil debe estar en el rango (0, 1]");
+            }
+
+            if (minDelay == null || maxDelay == null || minDelay.isNegative() || maxDelay.compareTo(minDelay) < 0) {
+                throw new IllegalStateException("Se requiere 0 <= minDelay <= maxDelay");
+            }
+
+            if (budget < 0 || budget > 1) {
+                throw new IllegalStateException("El presupuesto debe estar en el rango [0, 1]");
+            }
+
+            if (minSamples < 1) {
+                throw new IllegalStateException("minSamples debe ser > 0");
+            }
+
+            return new HedgingPolicy(this);
+        }
+    }
+}
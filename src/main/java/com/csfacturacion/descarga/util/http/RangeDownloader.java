@@ -0,0 +1,300 @@
+package com.csfacturacion.descarga.util.http;
+
+import com.csfacturacion.descarga.model.ZipDownloadOptions;
+import com.csfacturacion.descarga.util.concurrent.TaskScope;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Descarga un archivo mediante solicitudes HTTP {@code Range}, ya sea para
+ * continuar una descarga previa a partir del tamaño del archivo destino, o
+ * para descargar fragmentos de forma concurrente. Si el servidor ignora los
+ * rangos (responde 200 en lugar de 206), el archivo se descarga completo.
+ * El cuerpo de cada respuesta se escribe directamente en el archivo con un
+ * {@link FileChannelBodySubscriber}.
+ */
+public class RangeDownloader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RangeDownloader.class);
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+|\\*)-?(\\d*)/(\\d+|\\*)");
+
+    private final ApiClient apiClient;
+
+    public RangeDownloader(ApiClient apiClient) {
+        this.apiClient = apiClient;
+    }
+
+    /**
+     * Crea la solicitud para el rango de bytes dado.
+     */
+    @FunctionalInterface
+    public interface RangeRequestFactory {
+
+        /**
+         * @param from primer byte del rango, 0 y {@code to < 0} equivale al
+         *             archivo completo.
+         * @param to   último byte del rango (inclusivo) o un valor negativo
+         *             para solicitar hasta el final.
+         * @return la solicitud.
+         */
+        HttpRequest create(long from, long to) throws URISyntaxException;
+    }
+
+    /**
+     * Descarga el archivo en el destino dado de acuerdo a las opciones dadas.
+     *
+     * @param requests fábrica de solicitudes por rango.
+     * @param dest     archivo destino.
+     * @param options  de la descarga.
+     * @return el total de bytes del archivo descargado.
+     */
+    public long download(RangeRequestFactory requests, Path dest, ZipDownloadOptions options)
+            throws IOException, InterruptedException, URISyntaxException {
+
+        if (options.isChunked()) {
+            return downloadChunked(requests, dest, options);
+        }
+
+        return download(requests, dest, options, options.isResume());
+    }
+
+    /**
+     * Descarga el archivo en una sola solicitud. Si {@code resume} es true y
+     * el destino ya existe, la descarga continúa a partir de su tamaño actual.
+     */
+    private long download(RangeRequestFactory requests, Path dest, ZipDownloadOptions options, boolean resume)
+            throws IOException, InterruptedException, URISyntaxException {
+
+        long offset = resume && Files.exists(dest) ? Files.size(dest) : 0;
+
+        try (FileChannel channel = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            HttpResponse<Long> response =
+                    apiClient.send(requests.create(offset, -1), info -> switch (info.statusCode()) {
+                        case 200 -> FileChannelBodySubscriber.replacingFrom(
+                                channel, 0, contentLength(info.headers()), options.isPreallocate(), options.getFsync());
+                        case 206 -> ContentRange.of(info.headers()).start() == offset
+                                ? FileChannelBodySubscriber.replacingFrom(
+                                        channel,
+                                        offset,
+                                        contentLength(info.headers()),
+                                        options.isPreallocate(),
+                                        options.getFsync())
+                                : HttpResponse.BodySubscribers.replacing(-1L);
+                        default -> HttpResponse.BodySubscribers.replacing(-1L);
+                    });
+
+            switch (response.statusCode()) {
+                case 200 -> {
+                    if (offset > 0) {
+                        LOGGER.debug("El servidor ignoró el rango solicitado, se descargó {} completo", dest);
+                    }
+
+                    return response.body();
+                }
+                case 206 -> {
+                    if (response.body() < 0) {
+                        throw new IOException(
+                                "El servidor devolvió un rango inesperado: " + ContentRange.of(response.headers()));
+                    }
+
+                    return offset + response.body();
+                }
+                case 416 -> {
+                    if (offset == 0) {
+                        throw new IOException("Respuesta inesperada del servidor: " + response.statusCode());
+                    }
+
+                    // el archivo ya se había descargado por completo
+                    OptionalLong total = ContentRange.of(response.headers()).total();
+                    if (total.isPresent() && total.getAsLong() == offset) {
+                        return offset;
+                    }
+                }
+                default -> throw new IOException("Respuesta inesperada del servidor: " + response.statusCode());
+            }
+        }
+
+        return download(requests, dest, options, false);
+    }
+
+    /**
+     * Descarga el archivo en fragmentos de {@code chunkSize} bytes, hasta
+     * {@code parallelism} a la vez, cada uno escrito en su posición dentro del
+     * archivo destino, el cual se crea con el tamaño total del archivo.
+     */
+    private long downloadChunked(RangeRequestFactory requests, Path dest, ZipDownloadOptions options)
+            throws IOException, InterruptedException, URISyntaxException {
+
+        // la sincronización con el disco se realiza una sola vez al final
+        ZipDownloadOptions.Fsync chunkFsync = options.getFsync() == ZipDownloadOptions.Fsync.EVERY_WRITE
+                ? ZipDownloadOptions.Fsync.EVERY_WRITE
+                : ZipDownloadOptions.Fsync.NONE;
+
+        long size;
+
+        try (FileChannel channel = FileChannel.open(
+                dest, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            // el primer fragmento permite conocer el tamaño total del archivo
+            HttpResponse<Long> first =
+                    apiClient.send(requests.create(0, options.getChunkSize() - 1), info -> switch (info.statusCode()) {
+                        case 200 -> FileChannelBodySubscriber.replacingFrom(
+                                channel, 0, contentLength(info.headers()), options.isPreallocate(), chunkFsync);
+                        case 206 -> ContentRange.of(info.headers()).start() == 0
+                                ? FileChannelBodySubscriber.atPosition(channel, 0, chunkFsync)
+                                : HttpResponse.BodySubscribers.replacing(-1L);
+                        default -> HttpResponse.BodySubscribers.replacing(-1L);
+                    });
+
+            if (first.statusCode() == 200) {
+                LOGGER.debug("El servidor ignoró el rango solicitado, se descargó {} completo", dest);
+                size = first.body();
+            } else if (first.statusCode() != 206) {
+                throw new IOException("Respuesta inesperada del servidor: " + first.statusCode());
+            } else if (first.body() < 0) {
+                throw new IOException("El servidor devolvió un rango inesperado: " + ContentRange.of(first.headers()));
+            } else if (ContentRange.of(first.headers()).total().isEmpty()) {
+                size = -1;
+            } else {
+                size = ContentRange.of(first.headers()).total().getAsLong();
+
+                // el servidor pudo devolver menos bytes de los solicitados; el
+                // resto se descarga a partir del último byte recibido
+                long received = first.body();
+                if (received == 0 || received > size) {
+                    throw new IOException("El primer fragmento está incompleto, bytes recibidos: " + received + " de "
+                            + Math.min(options.getChunkSize(), size));
+                }
+
+                // reserva el tamaño total para escribir cada fragmento en su posición
+                if (size > received) {
+                    channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+                }
+
+                downloadChunks(
+                        requests,
+                        channel,
+                        received,
+                        options.getChunkSize(),
+                        size,
+                        options.getParallelism(),
+                        chunkFsync);
+            }
+
+            if (size >= 0 && options.getFsync() == ZipDownloadOptions.Fsync.ON_COMPLETE) {
+                channel.force(true);
+            }
+        }
+
+        if (size < 0) {
+            // sin el tamaño total no es posible fragmentar, se continúa secuencialmente
+            return download(requests, dest, options, true);
+        }
+
+        return size;
+    }
+
+    /**
+     * Descarga los fragmentos a partir del byte {@code offset}; los bytes
+     * anteriores son los del primer fragmento, ya descargado.
+     */
+    private void downloadChunks(
+            RangeRequestFactory requests,
+            FileChannel channel,
+            long offset,
+            long chunkSize,
+            long size,
+            int parallelism,
+            ZipDownloadOptions.Fsync fsync)
+            throws IOException, InterruptedException {
+
+        // cada fragmento se descarga en su propio virtual thread; si uno falla
+        // se cancelan los demás
+        try (TaskScope scope = new TaskScope(parallelism)) {
+            for (long from = offset; from < size; from += chunkSize) {
+                long start = from;
+                long end = Math.min(from + chunkSize, size) - 1;
+
+                scope.fork(() -> {
+                    downloadChunk(requests, channel, start, end, fsync);
+                    return null;
+                });
+            }
+
+            scope.join();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) {
+                throw ioe;
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void downloadChunk(
+            RangeRequestFactory requests, FileChannel channel, long start, long end, ZipDownloadOptions.Fsync fsync)
+            throws IOException, InterruptedException, URISyntaxException {
+
+        HttpResponse<Long> response = apiClient.send(
+                requests.create(start, end),
+                info -> info.statusCode() == 206
+                                && ContentRange.of(info.headers()).start() == start
+                        ? FileChannelBodySubscriber.atPosition(channel, start, fsync)
+                        : HttpResponse.BodySubscribers.replacing(-1L));
+
+        if (response.body() < 0) {
+            throw new IOException("No fue posible descargar el fragmento " + start + "-" + end + ", status: "
+                    + response.statusCode());
+        }
+
+        if (response.body() != end - start + 1) {
+            throw new IOException(
+                    "El fragmento " + start + "-" + end + " está incompleto, bytes recibidos: " + response.body());
+        }
+    }
+
+    private static long contentLength(HttpHeaders headers) {
+        return headers.firstValueAsLong("Content-Length").orElse(-1);
+    }
+
+    /**
+     * El valor del encabezado {@code Content-Range} de una respuesta.
+     *
+     * @param start          primer byte del rango, -1 si no se especifica.
+     * @param totalOrUnknown tamaño total del archivo, -1 si no se conoce.
+     */
+    record ContentRange(long start, long totalOrUnknown) {
+
+        static ContentRange of(HttpHeaders headers) {
+            String header = headers.firstValue("Content-Range").orElse("");
+            Matcher m = CONTENT_RANGE.matcher(header.trim());
+            if (!m.matches()) {
+                return new ContentRange(-1, -1);
+            }
+
+            long start = "*".equals(m.group(1)) ? -1 : Long.parseLong(m.group(1));
+            long total = "*".equals(m.group(3)) ? -1 : Long.parseLong(m.group(3));
+
+            return new ContentRange(start, total);
+        }
+
+        OptionalLong total() {
+            return totalOrUnknown < 0 ? OptionalLong.empty() : OptionalLong.of(totalOrUnknown);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.csfacturacion.descarga.util.http;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Límites de solicitudes del {@link ApiClient} y su comportamiento ante las
+ * respuestas 429 (Too Many Requests) y 503 (Service Unavailable).
+ * <p>
+ * Por defecto no se limita la tasa de solicitudes, pero las respuestas 429 y
+ * 503 sí pausan el envío (durante el tiempo indicado en {@code Retry-After}
+ * o con backoff exponencial) y la solicitud se reintenta hasta 3 veces.
+ */
+public final class RateLimitOptions {
+
+    private final Limit global;
+
+    private final Map<Endpoint, Limit> endpoints;
+
+    private final int maxRetries;
+
+    private final Duration initialBackoff;
+
+    private final Duration maxBackoff;
+
+    private final boolean adaptive;
+
+    private RateLimitOptions(Builder builder) {
+        this.global = builder.global;
+        this.endpoints = new EnumMap<>(builder.endpoints);
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.adaptive = builder.adaptive;
+    }
+
+    /**
+     * @return las opciones por defecto.
+     */
+    public static RateLimitOptions defaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * @return el límite de todas las solicitudes.
+     */
+    public Limit getGlobal() {
+        return global;
+    }
+
+    /**
+     * @param endpoint clase de endpoint.
+     * @return el límite de la clase de endpoint dada.
+     */
+    public Limit getLimit(Endpoint endpoint) {
+        return endpoints.getOrDefault(endpoint, Limit.UNLIMITED);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public Duration getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Tasa y ráfaga máxima de solicitudes.
+     *
+     * @param rate  solicitudes por segundo, 0 para no limitar.
+     * @param burst solicitudes que pueden enviarse de inmediato después de un
+     *              periodo de inactividad.
+     */
+    public record Limit(double rate, int burst) {
+
+        public static final Limit UNLIMITED = new Limit(0, 1);
+
+        public Limit {
+            if (rate < 0 || burst < 1) {
+                throw new IllegalArgumentException("rate debe ser >= 0 y burst > 0");
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private final Map<Endpoint, Limit> endpoints = new EnumMap<>(Endpoint.class);
+
+        private Limit global = Limit.UNLIMITED;
+
+        private int maxRetries = 3;
+
+        private Duration initialBackoff = Duration.ofSeconds(1);
+
+        private Duration maxBackoff = Duration.ofMinutes(1);
+
+        private boolean adaptive = true;
+
+        public Builder() {}
+
+        /**
+         * Límite de todas las solicitudes, por defecto sin límite.
+         *
+         * @param rate  solicitudes por segundo.
+         * @param burst ráfaga máxima.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder global(double rate, int burst) {
+            this.global = new Limit(rate, burst);
+            return this;
+        }
+
+        /**
+         * Límite de las solicitudes de una clase de endpoint, por defecto sin
+         * límite. Se aplica además del límite global.
+         *
+         * @param endpoint clase de endpoint.
+         * @param rate     solicitudes por segundo.
+         * @param burst    ráfaga máxima.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder endpoint(Endpoint endpoint, double rate, int burst) {
+            endpoints.put(endpoint, new Limit(rate, burst));
+            return this;
+        }
+
+        /**
+         * Veces que se reintenta una solicitud que recibió 429 o 503, por
+         * defecto 3. Con 0 la respuesta se entrega sin reintentar, pero se
+         * aplica la pausa a las siguientes solicitudes.
+         *
+         * @param maxRetries reintentos.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * La pausa tras el primer 429 o 503 sin {@code Retry-After}, por
+         * defecto 1 s. Se duplica con cada respuesta consecutiva.
+         *
+         * @param initialBackoff pausa inicial.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder initialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        /**
+         * La pausa máxima, aun si {@code Retry-After} indica más tiempo, por
+         * defecto 1 minuto.
+         *
+         * @param maxBackoff pausa máxima.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder maxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * Si la tasa configurada se reduce a la mitad con cada 429 o 503 y se
+         * recupera gradualmente con las respuestas exitosas, por defecto true.
+         *
+         * @param adaptive si la tasa se ajusta.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder adaptive(boolean adaptive) {
+            this.adaptive = adaptive;
+            return this;
+        }
+
+        public RateLimitOptions build() {
+            if (maxRetries < 0) {
+                throw new IllegalStateException("maxRetries debe ser >= 0");
+            }
+
+            if (initialBackoff == null
+                    || maxBackoff == null
+                    || initialBackoff.isNegative()
+                    || maxBackoff.compareTo(initialBackoff) < 0) {
+                throw new IllegalStateException("Se requiere 0 <= initialBackoff <= maxBackoff");
+            }
+
+            return new RateLimitOptions(this);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.csfacturacion.descarga.util.http;
+
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limita las solicitudes del {@link ApiClient} con un token bucket por clase
+ * de endpoint más uno global, y pausa el envío cuando el servidor responde 429
+ * o 503:
+ * <ul>
+ *     <li>429 (Too Many Requests) pausa sólo la clase de endpoint de la
+ *     solicitud.</li>
+ *     <li>503 (Service Unavailable) pausa todas las solicitudes.</li>
+ * </ul>
+ * La pausa es la indicada en {@code Retry-After} o, si no se indica, un
+ * backoff exponencial por clase de endpoint que se reinicia con la primera
+ * respuesta exitosa.
+ */
+public class RateLimiter {
+
+    private final RateLimitOptions options;
+
+    private final TokenBucket global;
+
+    private final Map<Endpoint, TokenBucket> buckets = new EnumMap<>(Endpoint.class);
+
+    private final Map<Endpoint, AtomicInteger> consecutive = new EnumMap<>(Endpoint.class);
+
+    private final LongAdder throttled = new LongAdder();
+
+    public RateLimiter(RateLimitOptions options) {
+        this.options = options;
+        this.global = newBucket(options.getGlobal());
+
+        for (Endpoint endpoint : Endpoint.values()) {
+            buckets.put(endpoint, newBucket(options.getLimit(endpoint)));
+            consecutive.put(endpoint, new AtomicInteger());
+        }
+    }
+
+    /**
+     * Reserva un permiso para enviar una solicitud a la clase de endpoint
+     * dada.
+     *
+     * @param endpoint de la solicitud.
+     * @return los nanosegundos que deben esperarse antes de enviarla.
+     */
+    public long reserve(Endpoint endpoint) {
+        long now = System.nanoTime();
+
+        return Math.max(buckets.get(endpoint).reserve(now), global.reserve(now));
+    }
+
+    /**
+     * @param statusCode de la respuesta recibida.
+     * @return true si la respuesta indica que se excedió el límite del
+     * servidor.
+     */
+    public static boolean isThrottled(int statusCode) {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * Registra una respuesta 429 o 503 y pausa las siguientes solicitudes.
+     *
+     * @param endpoint de la solicitud.
+     * @param response recibida.
+     * @return la pausa aplicada.
+     */
+    public Duration onThrottled(Endpoint endpoint, HttpResponse<?> response) {
+        throttled.increment();
+
+        int intentos = consecutive.get(endpoint).getAndIncrement();
+        Duration pausa = retryAfter(response).orElseGet(() -> backoff(intentos));
+        if (pausa.compareTo(options.getMaxBackoff()) > 0) {
+            pausa = options.getMaxBackoff();
+        }
+
+        long until = System.nanoTime() + pausa.toNanos();
+        buckets.get(endpoint).pause(until);
+        if (response.statusCode() == 503) {
+            global.pause(until);
+        }
+
+        return pausa;
+    }
+
+    /**
+     * Registra una respuesta que no indica que se excedió el límite.
+     *
+     * @param endpoint de la solicitud.
+     */
+    public void onSuccess(Endpoint endpoint) {
+        consecutive.get(endpoint).set(0);
+        buckets.get(endpoint).onSuccess();
+        global.onSuccess();
+    }
+
+    /**
+     * @param endpoint clase de endpoint.
+     * @return la tasa actual (solicitudes por segundo) de la clase de
+     * endpoint dada, 0 si no tiene límite.
+     */
+    public double getRate(Endpoint endpoint) {
+        return buckets.get(endpoint).getRate();
+    }
+
+    /**
+     * @return el número de respuestas 429 o 503 recibidas.
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    public RateLimitOptions getOptions() {
+        return options;
+    }
+
+    private Duration backoff(int intentos) {
+        long millis = options.getInitialBackoff().toMillis() << Math.min(intentos, 20);
+
+        return Duration.ofMillis(Math.min(millis, options.getMaxBackoff().toMillis()));
+    }
+
+    /**
+     * Interpreta el encabezado {@code Retry-After}, que puede indicar segundos
+     * o una fecha HTTP.
+     */
+    static Optional<Duration> retryAfter(HttpResponse<?> response) {
+        return response.headers().firstValue("Retry-After").map(String::trim).flatMap(valor -> {
+            try {
+                return Optional.of(Duration.ofSeconds(Math.max(0, Long.parseLong(valor))));
+            } catch (NumberFormatException e) {
+                // no son segundos, se intenta como fecha
+            }
+
+            try {
+                ZonedDateTime fecha = ZonedDateTime.parse(valor, DateTimeFormatter.RFC_1123_DATE_TIME);
+                Duration pausa = Duration.between(ZonedDateTime.now(fecha.getZone()), fecha);
+
+                return Optional.of(pausa.isNegative() ? Duration.ZERO : pausa);
+            } catch (DateTimeParseException e) {
+                return Optional.empty();
+            }
+        });
+    }
+
+    private TokenBucket newBucket(RateLimitOptions.Limit limit) {
+        return new TokenBucket(limit.rate(), limit.burst(), options.isAdaptive());
+    }
+}
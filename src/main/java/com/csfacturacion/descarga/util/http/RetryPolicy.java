@@ -0,0 +1,197 @@
+package com.csfacturacion.descarga.util.http;
+
+import com.csfacturacion.descarga.error.CircuitBreakerOpenException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Define cuándo y después de cuánto tiempo el {@link ApiClient} reintenta una
+ * solicitud que falló por un error de red o por una respuesta 502 o 504.
+ * <p>
+ * Sólo se reintentan las solicitudes idempotentes (GET, HEAD, etc.): volver a
+ * enviar un POST a {@code /consultar} podría crear una consulta duplicada. La
+ * excepción son los errores de conexión, ya que en ese caso la solicitud
+ * nunca llegó al servidor.
+ * <p>
+ * La espera entre reintentos usa decorrelated jitter: cada espera es un valor
+ * aleatorio entre la espera base y el triple de la anterior, lo que evita que
+ * muchos clientes reintenten al mismo tiempo.
+ */
+public final class RetryPolicy {
+
+    private static final Set<String> IDEMPOTENT = Set.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE");
+
+    private final int maxRetries;
+
+    private final Duration baseDelay;
+
+    private final Duration maxDelay;
+
+    private final boolean retryNonIdempotent;
+
+    private RetryPolicy(Builder builder) {
+        this.maxRetries = builder.maxRetries;
+        this.baseDelay = builder.baseDelay;
+        this.maxDelay = builder.maxDelay;
+        this.retryNonIdempotent = builder.retryNonIdempotent;
+    }
+
+    /**
+     * La política por defecto: hasta 3 reintentos, con esperas entre 200 ms y
+     * 10 s.
+     *
+     * @return la política por defecto.
+     */
+    public static RetryPolicy defaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * @return una política que nunca reintenta.
+     */
+    public static RetryPolicy none() {
+        return new Builder().maxRetries(0).build();
+    }
+
+    /**
+     * @param request a reintentar.
+     * @param retries reintentos realizados.
+     * @return true si la solicitud puede reintentarse tras una respuesta
+     * {@link #isRetryableStatus(int) reintentable}.
+     */
+    public boolean canRetry(HttpRequest request, int retries) {
+        return retries < maxRetries && (retryNonIdempotent || isIdempotent(request));
+    }
+
+    /**
+     * @param request a reintentar.
+     * @param retries reintentos realizados.
+     * @param error   con el que falló la solicitud.
+     * @return true si la solicitud puede reintentarse tras el error dado.
+     */
+    public boolean canRetry(HttpRequest request, int retries, Throwable error) {
+        if (retries >= maxRetries || !(error instanceof IOException) || error instanceof CircuitBreakerOpenException) {
+            return false;
+        }
+
+        return retryNonIdempotent || isIdempotent(request) || error instanceof ConnectException;
+    }
+
+    /**
+     * @param statusCode de la respuesta.
+     * @return true si la respuesta indica un error transitorio de la
+     * infraestructura (502 o 504). Las respuestas 429 y 503 las maneja el
+     * {@link RateLimiter}.
+     */
+    public static boolean isRetryableStatus(int statusCode) {
+        return statusCode == 502 || statusCode == 504;
+    }
+
+    /**
+     * @param request a verificar.
+     * @return true si el método de la solicitud es idempotente.
+     */
+    public static boolean isIdempotent(HttpRequest request) {
+        return IDEMPOTENT.contains(request.method());
+    }
+
+    /**
+     * Calcula la espera antes del siguiente reintento.
+     *
+     * @param previous espera anterior o null si es el primer reintento.
+     * @return la espera.
+     */
+    public Duration nextDelay(Duration previous) {
+        long base = baseDelay.toMillis();
+        long upper = previous == null ? base : Math.max(base, previous.toMillis() * 3);
+        long millis = upper > base ? ThreadLocalRandom.current().nextLong(base, upper + 1) : base;
+
+        return Duration.ofMillis(Math.min(millis, maxDelay.toMillis()));
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public Duration getBaseDelay() {
+        return baseDelay;
+    }
+
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    public static final class Builder {
+
+        private int maxRetries = 3;
+
+        private Duration baseDelay = Duration.ofMillis(200);
+
+        private Duration maxDelay = Duration.ofSeconds(10);
+
+        private boolean retryNonIdempotent;
+
+        public Builder() {}
+
+        /**
+         * Número máximo de reintentos de una solicitud, por defecto 3.
+         *
+         * @param maxRetries reintentos.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * La espera mínima entre reintentos, por defecto 200 ms.
+         *
+         * @param baseDelay espera mínima.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder baseDelay(Duration baseDelay) {
+            this.baseDelay = baseDelay;
+            return this;
+        }
+
+        /**
+         * La espera máxima entre reintentos, por defecto 10 s.
+         *
+         * @param maxDelay espera máxima.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder maxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * Si también se reintentan las solicitudes no idempotentes (e.g. la
+         * creación de consultas), por defecto false.
+         *
+         * @param retryNonIdempotent si se reintentan.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder retryNonIdempotent(boolean retryNonIdempotent) {
+            this.retryNonIdempotent = retryNonIdempotent;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            if (maxRetries < 0) {
+                throw new IllegalStateException("maxRetries debe ser >= 0");
+            }
+
+            if (baseDelay == null || maxDelay == null || baseDelay.isNegative() || maxDelay.compareTo(baseDelay) < 0) {
+                throw new IllegalStateException("Se requiere 0 <= baseDelay <= maxDelay");
+            }
+
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.csfacturacion.descarga.util.http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket con reservaciones: {@link #reserve(long)} no bloquea, devuelve
+ * cuánto tiempo debe esperar quien reserva antes de enviar su solicitud, lo
+ * que permite usarlo tanto desde los métodos bloqueantes como desde los
+ * asíncronos.
+ * <p>
+ * La tasa se ajusta con AIMD: se reduce a la mitad cada vez que el servidor
+ * indica que se excedió su límite y se recupera poco a poco con cada solicitud
+ * exitosa, de modo que se mantenga cerca del límite real del servidor.
+ */
+final class TokenBucket {
+
+    private static final long NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // la tasa no se reduce por debajo de esta fracción de la configurada
+    private static final double MIN_RATE_FACTOR = 1.0 / 16;
+
+    // fracción de la tasa configurada que se recupera con cada éxito
+    private static final double RECOVERY_FACTOR = 1.0 / 20;
+
+    private final double maxRate;
+
+    private final double burst;
+
+    private final boolean adaptive;
+
+    // guardados por this
+    private double rate;
+    private double stored;
+    private long nextFree;
+
+    /**
+     * @param rate     solicitudes por segundo, 0 para no limitar la tasa (sólo
+     *                 se aplican las pausas).
+     * @param burst    solicitudes que pueden enviarse de inmediato después de
+     *                 un periodo de inactividad.
+     * @param adaptive si la tasa se ajusta con las respuestas del servidor.
+     */
+    TokenBucket(double rate, int burst, boolean adaptive) {
+        this.maxRate = rate;
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.stored = this.burst;
+        this.adaptive = adaptive;
+        this.nextFree = System.nanoTime();
+    }
+
+    /**
+     * Reserva un permiso.
+     *
+     * @param now {@link System#nanoTime()} actual.
+     * @return los nanosegundos a esperar antes de usar el permiso.
+     */
+    synchronized long reserve(long now) {
+        if (rate <= 0) {
+            return Math.max(0, nextFree - now);
+        }
+
+        refill(now);
+
+        long inicio = nextFree;
+        double deStored = Math.min(1, stored);
+        stored -= deStored;
+        nextFree += (long) ((1 - deStored) * NANOS / rate);
+
+        return Math.max(0, inicio - now);
+    }
+
+    /**
+     * Impide que se envíen solicitudes antes del momento dado y, si es
+     * adaptivo, reduce la tasa a la mitad.
+     *
+     * @param until {@link System#nanoTime()} a partir del cual puede
+     *              continuarse.
+     */
+    synchronized void pause(long until) {
+        if (until - nextFree > 0) {
+            nextFree = until;
+            stored = 0;
+        }
+
+        if (adaptive && maxRate > 0) {
+            rate = Math.max(maxRate * MIN_RATE_FACTOR, rate / 2);
+        }
+    }
+
+    /**
+     * Registra una solicitud exitosa, recuperando parte de la tasa perdida.
+     */
+    synchronized void onSuccess() {
+        if (adaptive && rate < maxRate) {
+            rate = Math.min(maxRate, rate + maxRate * RECOVERY_FACTOR);
+        }
+    }
+
+    synchronized double getRate() {
+        return rate;
+    }
+
+    private void refill(long now) {
+        if (now - nextFree > 0) {
+            stored = Math.min(burst, stored + (now - nextFree) * rate / NANOS);
+            nextFree = now;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.csfacturacion.descarga.util.json;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lee un arreglo JSON elemento por elemento, sin cargar el contenido completo
+ * en memoria. Es útil para procesar páginas de resultados grandes conforme se
+ * reciben del webservice.
+ *
+ * @param <T> tipo de los elementos del arreglo.
+ */
+public class JsonArrayReader<T> implements Iterator<T>, Closeable {
+
+    private final JsonReader reader;
+
+    private final TypeAdapter<T> adapter;
+
+    private boolean started;
+
+    private boolean finished;
+
+    public JsonArrayReader(Reader in, Gson gson, Class<T> type) {
+        this.reader = new JsonReader(in);
+        this.adapter = gson.getAdapter(type);
+    }
+
+    public JsonArrayReader(InputStream in, Gson gson, Class<T> type) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8), gson, type);
+    }
+
+    /**
+     * Crea un {@link HttpResponse.BodyHandler} que entrega el cuerpo de la
+     * respuesta como un {@link JsonArrayReader}. El cuerpo se lee conforme se
+     * consumen los elementos, por lo que el reader devuelto debe cerrarse.
+     *
+     * @param gson a utilizar para deserializar los elementos.
+     * @param type de los elementos del arreglo.
+     * @return el body handler.
+     */
+    public static <T> HttpResponse.BodyHandler<JsonArrayReader<T>> bodyHandler(Gson gson, Class<T> type) {
+        return responseInfo -> HttpResponse.BodySubscribers.mapping(
+                HttpResponse.BodySubscribers.ofInputStream(), in -> new JsonArrayReader<>(in, gson, type));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (finished) {
+            return false;
+        }
+
+        try {
+            if (!started) {
+                started = true;
+
+                // una respuesta vacía o null equivale a un arreglo vacío
+                JsonToken token = reader.peek();
+                if (token == JsonToken.END_DOCUMENT) {
+                    finished = true;
+                    return false;
+                }
+
+                if (token == JsonToken.NULL) {
+                    reader.nextNull();
+                    finished = true;
+                    return false;
+                }
+
+                reader.beginArray();
+            }
+
+            if (!reader.hasNext()) {
+                reader.endArray();
+                finished = true;
+            }
+
+            return !finished;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            return adapter.read(reader);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Ejecuta la acción dada sobre cada elemento restante y cierra el reader.
+     *
+     * @param action a ejecutar.
+     */
+    public void forEach(Consumer<? super T> action) {
+        try (this) {
+            forEachRemaining(action);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Devuelve los elementos restantes como un {@link Stream} secuencial. Al
+     * cerrar el stream se cierra también este reader.
+     *
+     * @return los elementos restantes.
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        reader.close();
+    }
+}
@@ -0,0 +1,106 @@
+package com.csfacturacion.descarga.util.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Lee un XML codificado en UTF-8 aplicando la misma limpieza que
+ * {@link SanitizingOutputStream}, conforme se consume el stream original.
+ */
+public class SanitizingInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+
+    private final Buffer buffer = new Buffer();
+
+    private final SanitizingOutputStream sanitizer = new SanitizingOutputStream(buffer);
+
+    private final byte[] chunk = new byte[BUFFER_SIZE];
+
+    private int position;
+
+    private boolean eof;
+
+    public SanitizingInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+
+        return buffer.bytes()[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!fill()) {
+            return -1;
+        }
+
+        int n = Math.min(len, buffer.size() - position);
+        System.arraycopy(buffer.bytes(), position, b, off, n);
+        position += n;
+
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return buffer.size() - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Lee del stream original hasta tener bytes disponibles o llegar al fin.
+     *
+     * @return false si ya no hay más bytes.
+     */
+    private boolean fill() throws IOException {
+        while (position == buffer.size()) {
+            if (eof) {
+                return false;
+            }
+
+            buffer.reset();
+            position = 0;
+
+            int read = in.read(chunk);
+            if (read == -1) {
+                eof = true;
+                sanitizer.finish();
+            } else {
+                sanitizer.write(chunk, 0, read);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Expone el arreglo interno para evitar copiarlo en cada lectura.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(BUFFER_SIZE);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
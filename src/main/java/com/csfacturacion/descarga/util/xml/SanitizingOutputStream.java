@@ -0,0 +1,203 @@
+package com.csfacturacion.descarga.util.xml;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Escribe un XML codificado en UTF-8 eliminando, en una sola pasada y sin
+ * decodificarlo a texto, los caracteres de formato Unicode (categoría
+ * {@code Cf}, e.g. el BOM o los espacios de ancho cero) y los espacios en
+ * blanco al inicio y al final del documento. El resultado es equivalente a
+ * {@code xml.replaceAll("\\p{Cf}", "").trim()}.
+ * <p>
+ * Los espacios al final sólo pueden descartarse hasta conocer el fin del
+ * documento, por lo que deben llamarse {@link #finish()} o {@link #close()}
+ * al terminar de escribir.
+ */
+public class SanitizingOutputStream extends FilterOutputStream {
+
+    /**
+     * Secuencia UTF-8 en curso (máximo 4 bytes).
+     */
+    private final byte[] sequence = new byte[4];
+
+    private int sequenceLength;
+
+    private int sequenceRemaining;
+
+    /**
+     * Espacios en blanco que sólo se escriben si después aparece contenido.
+     */
+    private byte[] pending = new byte[64];
+
+    private int pendingLength;
+
+    private boolean started;
+
+    private boolean finished;
+
+    public SanitizingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureNotFinished();
+        process(b & 0xFF);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureNotFinished();
+
+        int end = off + len;
+        int i = off;
+        while (i < end) {
+            if (sequenceRemaining == 0) {
+                // escribe de una sola vez las secuencias de ASCII visible
+                int run = i;
+                while (run < end && b[run] > 0x20) {
+                    run++;
+                }
+
+                if (run > i) {
+                    flushPending();
+                    out.write(b, i, run - i);
+                    started = true;
+                    i = run;
+                    continue;
+                }
+            }
+
+            process(b[i++] & 0xFF);
+        }
+    }
+
+    /**
+     * Termina el documento: descarta los espacios pendientes del final y
+     * escribe tal cual cualquier secuencia UTF-8 incompleta, sin cerrar el
+     * stream subyacente.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+
+        if (sequenceLength > 0) {
+            writeSequenceAsIs();
+        }
+
+        pendingLength = 0;
+        finished = true;
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return true si ya se escribió algún byte que no es espacio en blanco.
+     */
+    public boolean hasContent() {
+        return started;
+    }
+
+    private void process(int b) throws IOException {
+        if (sequenceRemaining > 0) {
+            if ((b & 0xC0) == 0x80) {
+                sequence[sequenceLength++] = (byte) b;
+                if (--sequenceRemaining == 0) {
+                    writeSequence();
+                }
+
+                return;
+            }
+
+            // secuencia inválida, se escribe tal cual
+            writeSequenceAsIs();
+        }
+
+        if (b < 0x80) {
+            writeAscii(b);
+        } else if (b >= 0xC2 && b <= 0xF4) {
+            sequence[0] = (byte) b;
+            sequenceLength = 1;
+            sequenceRemaining = b < 0xE0 ? 1 : b < 0xF0 ? 2 : 3;
+        } else {
+            writeContent(b);
+        }
+    }
+
+    private void writeAscii(int b) throws IOException {
+        // mismos caracteres que descarta String.trim()
+        if (b <= 0x20) {
+            if (started) {
+                if (pendingLength == pending.length) {
+                    pending = Arrays.copyOf(pending, pending.length * 2);
+                }
+
+                pending[pendingLength++] = (byte) b;
+            }
+
+            return;
+        }
+
+        writeContent(b);
+    }
+
+    private void writeContent(int b) throws IOException {
+        flushPending();
+        out.write(b);
+        started = true;
+    }
+
+    private void writeSequence() throws IOException {
+        int codePoint;
+        if (sequenceLength == 2) {
+            codePoint = (sequence[0] & 0x1F) << 6 | (sequence[1] & 0x3F);
+        } else if (sequenceLength == 3) {
+            codePoint = (sequence[0] & 0x0F) << 12 | (sequence[1] & 0x3F) << 6 | (sequence[2] & 0x3F);
+        } else {
+            codePoint = (sequence[0] & 0x07) << 18
+                    | (sequence[1] & 0x3F) << 12
+                    | (sequence[2] & 0x3F) << 6
+                    | (sequence[3] & 0x3F);
+        }
+
+        if (Character.getType(codePoint) == Character.FORMAT) {
+            sequenceLength = 0;
+            return;
+        }
+
+        writeSequenceAsIs();
+    }
+
+    private void writeSequenceAsIs() throws IOException {
+        flushPending();
+        out.write(sequence, 0, sequenceLength);
+        started = true;
+        sequenceLength = 0;
+        sequenceRemaining = 0;
+    }
+
+    private void flushPending() throws IOException {
+        if (pendingLength > 0) {
+            out.write(pending, 0, pendingLength);
+            pendingLength = 0;
+        }
+    }
+
+    private void ensureNotFinished() throws IOException {
+        if (finished) {
+            throw new IOException("El documento ya fue terminado");
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.csfacturacion.descarga.util.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Limpia los XML descargados del webservice, eliminando los caracteres de
+ * formato Unicode y los espacios en blanco al inicio y al final, ver
+ * {@link SanitizingOutputStream}.
+ */
+public final class XmlSanitizer {
+
+    private XmlSanitizer() {}
+
+    /**
+     * @param xml codificado en UTF-8.
+     * @return el XML limpio, codificado en UTF-8.
+     */
+    public static byte[] sanitize(byte[] xml) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length);
+
+        try (SanitizingOutputStream sanitizer = new SanitizingOutputStream(out)) {
+            sanitizer.write(xml);
+        } catch (IOException e) {
+            // no ocurre al escribir en memoria
+            throw new UncheckedIOException(e);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @param xml a limpiar.
+     * @return el XML limpio.
+     */
+    public static String sanitize(String xml) {
+        return new String(sanitize(xml.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,176 @@
+package com.csfacturacion.descarga.contract;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.csfacturacion.descarga.model.CfdiMeta;
+import com.csfacturacion.descarga.model.Credenciales;
+import com.csfacturacion.descarga.model.Parametros;
+import com.csfacturacion.descarga.model.SyncCheckpoint;
+import com.csfacturacion.descarga.model.SyncKey;
+import com.csfacturacion.descarga.model.SyncResult;
+import com.csfacturacion.descarga.standin.StandInServer;
+import com.csfacturacion.descarga.util.http.Endpoint;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IncrementalSyncTest {
+
+    private static final LocalDateTime INICIO = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private static final LocalDateTime FIN = LocalDateTime.of(2024, 3, 31, 23, 59, 59);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void consultaSoloDesdeElCheckpoint() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().results(10).build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                IncrementalSync sync = newSync(descargaCiec, Duration.ofDays(3));
+                List<CfdiMeta> cfdis = new ArrayList<>();
+
+                // la primera vez se consulta todo el rango, un fragmento por mes
+                SyncResult primera = sync.sync(parametros(INICIO, FIN), cfdis::add);
+                assertTrue(primera.isComplete());
+                assertEquals(INICIO, primera.fechaInicio());
+                assertEquals(30, primera.cfdis());
+                assertEquals(30, cfdis.size());
+                assertEquals(FIN, primera.checkpoint().syncedUntil());
+                assertNotNull(primera.checkpoint().lastFechaEmision());
+                assertEquals(3, server.getConsultas());
+
+                // el checkpoint se guardó en el archivo
+                assertEquals(
+                        primera.checkpoint(),
+                        new FileCheckpointStore(dir.resolve("checkpoints.properties"))
+                                .get(SyncKey.of(parametros(INICIO, FIN))));
+
+                // la siguiente sólo consulta el traslape
+                SyncResult siguiente = sync.sync(parametros(INICIO, FIN), cfdi -> {});
+                assertEquals(FIN.minusDays(3), siguiente.fechaInicio());
+                assertEquals(10, siguiente.cfdis());
+                assertEquals(4, server.getConsultas());
+                assertEquals(FIN, siguiente.checkpoint().syncedUntil());
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    @Test
+    public void elTraslapeNoIniciaAntesDeFechaInicio() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().results(10).build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                IncrementalSync sync = newSync(descargaCiec, Duration.ofDays(7));
+
+                sync.sync(parametros(INICIO, INICIO.plusDays(2)), cfdi -> {});
+                SyncResult siguiente = sync.sync(parametros(INICIO, FIN), cfdi -> {});
+
+                assertEquals(INICIO, siguiente.fechaInicio());
+                assertEquals(FIN, siguiente.checkpoint().syncedUntil());
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    @Test
+    public void elCheckpointNoAvanzaSiFallanFragmentos() throws Exception {
+        SyncCheckpoint anterior;
+        try (StandInServer server = new StandInServer.Builder().results(10).build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                anterior = newSync(descargaCiec, Duration.ofDays(3))
+                        .sync(parametros(INICIO, INICIO.plusDays(10)), cfdi -> {})
+                        .checkpoint();
+            } finally {
+                descargaCiec.close();
+            }
+        }
+
+        try (StandInServer server =
+                new StandInServer.Builder().errors(Endpoint.PROGRESO, 1, 500).build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                IncrementalSync sync = newSync(descargaCiec, Duration.ofDays(3));
+                SyncResult result = sync.sync(parametros(INICIO, FIN), cfdi -> {});
+
+                assertFalse(result.isComplete());
+                assertEquals(3, result.failedShards());
+                assertEquals(anterior, result.checkpoint());
+                assertEquals(anterior, sync.getCheckpoint(parametros(INICIO, FIN)));
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    @Test
+    public void elCheckpointNoAvanzaMasAllaDelInicioDeLaConsulta() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().results(10).build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                IncrementalSync sync = newSync(descargaCiec, Duration.ofDays(3));
+                LocalDateTime antes = LocalDateTime.now();
+
+                SyncResult result = sync.sync(parametros(antes.minusDays(1), antes.plusDays(30)), cfdi -> {});
+                LocalDateTime despues = LocalDateTime.now();
+
+                LocalDateTime syncedUntil = result.checkpoint().syncedUntil();
+                assertFalse(syncedUntil.isBefore(antes), syncedUntil.toString());
+                assertFalse(syncedUntil.isAfter(despues), syncedUntil.toString());
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    @Test
+    public void lasSincronizacionesFiltradasTienenSuPropioCheckpoint() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().results(10).build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                IncrementalSync sync = newSync(descargaCiec, Duration.ofDays(3));
+                Parametros filtrados = parametros(INICIO, FIN).toBuilder()
+                        .rfcBusqueda("BBB010101BBB")
+                        .status(Parametros.Status.VIGENTE)
+                        .build();
+
+                sync.sync(filtrados, cfdi -> {});
+
+                assertEquals(FIN, sync.getCheckpoint(filtrados).syncedUntil());
+                assertNull(sync.getCheckpoint(parametros(INICIO, FIN)));
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    private IncrementalSync newSync(DescargaCiec descargaCiec, Duration overlap) throws Exception {
+        return new IncrementalSync.Builder(descargaCiec, new FileCheckpointStore(dir.resolve("checkpoints.properties")))
+                .overlap(overlap)
+                .build();
+    }
+
+    private static Parametros parametros(LocalDateTime inicio, LocalDateTime fin) {
+        return new Parametros.Builder()
+                .credenciales(new Credenciales("XAXX010101000", "ciec"))
+                .fechaInicio(inicio)
+                .fechaFin(fin)
+                .tipo(Parametros.Tipo.EMITIDAS)
+                .build();
+    }
+}
@@ -0,0 +1,222 @@
+package com.csfacturacion.descarga.contract;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.csfacturacion.descarga.contract.ListenerDispatchOptions.OverflowPolicy;
+import com.csfacturacion.descarga.contract.QueryRetriever.Status;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class ListenerDispatcherTest {
+
+    @Test
+    public void entregaLosEventosDeCadaListenerEnOrden() {
+        Compuerta compuerta = new Compuerta();
+        Registro a = new Registro();
+        Registro b = new Registro();
+
+        try (ListenerDispatcher dispatcher = newDispatcher(compuerta, 64, OverflowPolicy.DROP_OLDEST)) {
+            for (Status status : List.of(Status.EN_ESPERA, Status.EN_PROCESO, Status.DESCARGANDO, Status.COMPLETADO)) {
+                dispatcher.dispatch(a, status, null);
+                dispatcher.dispatch(b, status, null);
+            }
+
+            // una sola tarea por listener con eventos pendientes
+            assertEquals(2, compuerta.size());
+            compuerta.abrir();
+
+            List<Status> esperados =
+                    List.of(Status.EN_ESPERA, Status.EN_PROCESO, Status.DESCARGANDO, Status.COMPLETADO);
+            assertEquals(esperados, a.statuses);
+            assertEquals(esperados, b.statuses);
+            assertEquals(8, dispatcher.getDelivered());
+            assertEquals(0, dispatcher.getDropped());
+        }
+    }
+
+    @Test
+    public void dropOldestConservaLosEventosDeTermino() {
+        Compuerta compuerta = new Compuerta();
+        Registro listener = new Registro();
+
+        try (ListenerDispatcher dispatcher = newDispatcher(compuerta, 2, OverflowPolicy.DROP_OLDEST)) {
+            dispatcher.dispatch(listener, Status.EN_ESPERA, null);
+            dispatcher.dispatch(listener, Status.EN_PROCESO, null);
+            dispatcher.dispatch(listener, Status.DESCARGANDO, null);
+            dispatcher.dispatch(listener, Status.COMPLETADO, null);
+            dispatcher.dispatch(listener, Status.FALLO, null);
+            // la cola sólo tiene eventos de término, se excede su capacidad
+            dispatcher.dispatch(listener, Status.COMPLETADO_CON_FALTANTES, null);
+            assertEquals(3, dispatcher.getQueueDepth());
+
+            compuerta.abrir();
+
+            assertEquals(List.of(Status.COMPLETADO, Status.FALLO, Status.COMPLETADO_CON_FALTANTES), listener.statuses);
+            assertEquals(3, dispatcher.getDropped());
+        }
+    }
+
+    @Test
+    public void dropNewestNuncaDescartaLosEventosDeTermino() {
+        Compuerta compuerta = new Compuerta();
+        Registro listener = new Registro();
+
+        try (ListenerDispatcher dispatcher = newDispatcher(compuerta, 2, OverflowPolicy.DROP_NEWEST)) {
+            dispatcher.dispatch(listener, Status.EN_ESPERA, null);
+            dispatcher.dispatch(listener, Status.EN_PROCESO, null);
+            dispatcher.dispatch(listener, Status.DESCARGANDO, null);
+            // hace lugar descartando el evento más antiguo
+            dispatcher.dispatch(listener, Status.COMPLETADO, null);
+
+            compuerta.abrir();
+
+            assertEquals(List.of(Status.EN_PROCESO, Status.COMPLETADO), listener.statuses);
+            assertEquals(2, dispatcher.getDropped());
+        }
+    }
+
+    @Test
+    public void blockEsperaAQueHayaLugar() throws Exception {
+        Compuerta compuerta = new Compuerta();
+        Registro listener = new Registro();
+
+        try (ListenerDispatcher dispatcher = newDispatcher(compuerta, 1, OverflowPolicy.BLOCK)) {
+            dispatcher.dispatch(listener, Status.EN_ESPERA, null);
+
+            Thread verificacion =
+                    Thread.ofVirtual().start(() -> dispatcher.dispatch(listener, Status.COMPLETADO, null));
+            verificacion.join(100);
+            assertTrue(verificacion.isAlive(), "no esperó a que hubiera lugar en la cola");
+
+            // al entregarse el primer evento se libera el lugar
+            while (verificacion.isAlive() || compuerta.size() > 0) {
+                compuerta.abrir();
+                verificacion.join(10);
+            }
+
+            assertEquals(List.of(Status.EN_ESPERA, Status.COMPLETADO), listener.statuses);
+            assertEquals(0, dispatcher.getDropped());
+        }
+    }
+
+    @Test
+    public void blockDejaDeEsperarAlCerrarse() throws Exception {
+        Compuerta compuerta = new Compuerta();
+        Registro listener = new Registro();
+        ListenerDispatcher dispatcher = newDispatcher(compuerta, 1, OverflowPolicy.BLOCK);
+
+        dispatcher.dispatch(listener, Status.EN_ESPERA, null);
+        Thread verificacion = Thread.ofVirtual().start(() -> dispatcher.dispatch(listener, Status.COMPLETADO, null));
+        verificacion.join(100);
+        assertTrue(verificacion.isAlive());
+
+        dispatcher.close();
+        assertTrue(verificacion.join(Duration.ofSeconds(30)));
+    }
+
+    @Test
+    public void cerrarDescartaLosEventosPendientes() {
+        Compuerta compuerta = new Compuerta();
+        Registro listener = new Registro();
+        ListenerDispatcher dispatcher = newDispatcher(compuerta, 64, OverflowPolicy.DROP_OLDEST);
+
+        dispatcher.dispatch(listener, Status.EN_ESPERA, null);
+        dispatcher.dispatch(listener, Status.EN_PROCESO, null);
+        dispatcher.dispatch(listener, Status.COMPLETADO, null);
+
+        dispatcher.close();
+        dispatcher.dispatch(listener, Status.COMPLETADO, null);
+        compuerta.abrir();
+
+        assertTrue(listener.statuses.isEmpty());
+        assertEquals(0, dispatcher.getQueueDepth());
+        assertEquals(3, dispatcher.getDropped());
+        assertEquals(0, dispatcher.getDelivered());
+    }
+
+    @Test
+    public void registraLaProfundidadYLaLatencia() throws Exception {
+        Compuerta compuerta = new Compuerta();
+        QueryProgressListener lento = (status, retriever) -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        try (ListenerDispatcher dispatcher = newDispatcher(compuerta, 64, OverflowPolicy.DROP_OLDEST)) {
+            dispatcher.dispatch(lento, Status.EN_ESPERA, null);
+            dispatcher.dispatch(lento, Status.EN_PROCESO, null);
+            dispatcher.dispatch(new Registro(), Status.EN_ESPERA, null);
+            assertEquals(3, dispatcher.getQueueDepth());
+
+            TimeUnit.MILLISECONDS.sleep(50);
+            compuerta.abrir();
+
+            assertEquals(0, dispatcher.getQueueDepth());
+            assertEquals(3, dispatcher.getMaxQueueDepth());
+            assertEquals(3, dispatcher.getDelivered());
+            assertTrue(
+                    dispatcher.getMaxCallbackLatency().toMillis() >= 20, dispatcher.getMaxCallbackLatency()::toString);
+            assertTrue(
+                    dispatcher.getAverageCallbackLatency().toMillis() >= 13,
+                    dispatcher.getAverageCallbackLatency()::toString);
+            assertTrue(dispatcher.getAverageQueueWait().toMillis() >= 50, dispatcher.getAverageQueueWait()::toString);
+        }
+    }
+
+    private static ListenerDispatcher newDispatcher(Executor executor, int capacity, OverflowPolicy policy) {
+        return new ListenerDispatcher(new ListenerDispatchOptions.Builder()
+                .executor(executor)
+                .queueCapacity(capacity)
+                .overflowPolicy(policy)
+                .build());
+    }
+
+    /**
+     * Executor que retiene las tareas hasta que se abre, para que los eventos
+     * se acumulen en las colas.
+     */
+    private static class Compuerta implements Executor {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        synchronized int size() {
+            return tasks.size();
+        }
+
+        /**
+         * Ejecuta en este thread las tareas retenidas.
+         */
+        void abrir() {
+            List<Runnable> pendientes;
+            synchronized (this) {
+                pendientes = new ArrayList<>(tasks);
+                tasks.clear();
+            }
+
+            pendientes.forEach(Runnable::run);
+        }
+    }
+
+    private static class Registro implements QueryProgressListener {
+
+        private final List<Status> statuses = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onStatusChanged(Status status, QueryRetriever retriever) {
+            statuses.add(status);
+        }
+    }
+}
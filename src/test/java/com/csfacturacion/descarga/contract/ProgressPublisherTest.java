@@ -0,0 +1,216 @@
+package com.csfacturacion.descarga.contract;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.csfacturacion.descarga.model.Credenciales;
+import com.csfacturacion.descarga.model.Parametros;
+import com.csfacturacion.descarga.model.Progress;
+import com.csfacturacion.descarga.standin.StandInServer;
+import com.csfacturacion.descarga.util.http.Endpoint;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class ProgressPublisherTest {
+
+    private static final Parametros PARAMETROS = new Parametros.Builder()
+            .credenciales(new Credenciales("XAXX010101000", "ciec"))
+            .fechaInicio(LocalDateTime.of(2024, 1, 1, 0, 0))
+            .fechaFin(LocalDateTime.of(2024, 1, 31, 23, 59, 59))
+            .tipo(Parametros.Tipo.EMITIDAS)
+            .build();
+
+    private static final String COMPLETE = "onComplete";
+
+    @Test
+    public void noEmiteNiVerificaSinDemanda() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                QueryRetriever retriever = descargaCiec.queryAsync(PARAMETROS).get(30, TimeUnit.SECONDS);
+                Suscriptor suscriptor = new Suscriptor();
+                retriever.progressPublisher().subscribe(suscriptor);
+
+                Thread.sleep(100);
+                assertTrue(suscriptor.events.isEmpty());
+                assertEquals(0, server.getRequests(Endpoint.PROGRESO));
+
+                suscriptor.subscription.request(1);
+                assertEquals(new Progress(QueryRetriever.Status.EN_ESPERA, 0), suscriptor.next());
+
+                // sin demanda la verificación se pausa
+                Thread.sleep(100);
+                assertTrue(suscriptor.events.isEmpty());
+                assertEquals(1, server.getRequests(Endpoint.PROGRESO));
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    @Test
+    public void entregaSoloElProgresoMasReciente() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                QueryRetriever retriever = descargaCiec.queryAsync(PARAMETROS).get(30, TimeUnit.SECONDS);
+                Suscriptor suscriptor = new Suscriptor();
+                retriever.progressPublisher().subscribe(suscriptor);
+
+                suscriptor.subscription.request(1);
+                assertEquals(new Progress(QueryRetriever.Status.EN_ESPERA, 0), suscriptor.next());
+
+                // la consulta avanza mientras el suscriptor no tiene demanda
+                assertEquals(
+                        QueryRetriever.Status.EN_PROCESO,
+                        retriever.getProgress().status());
+
+                suscriptor.subscription.request(1);
+                assertEquals(new Progress(QueryRetriever.Status.DESCARGANDO, 66), suscriptor.next());
+
+                suscriptor.subscription.request(1);
+                assertEquals(new Progress(QueryRetriever.Status.COMPLETADO, 100), suscriptor.next());
+                assertEquals(COMPLETE, suscriptor.next());
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    @Test
+    public void soloEmiteCuandoCambiaElProgreso() throws Exception {
+        try (StandInServer server =
+                new StandInServer.Builder().pollsPerStatus(3).build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                QueryRetriever retriever = descargaCiec.queryAsync(PARAMETROS).get(30, TimeUnit.SECONDS);
+                Suscriptor suscriptor = new Suscriptor();
+                retriever.progressPublisher().subscribe(suscriptor);
+                suscriptor.subscription.request(Long.MAX_VALUE);
+
+                List<Object> eventos = new ArrayList<>();
+                Object evento;
+                do {
+                    evento = suscriptor.next();
+                    eventos.add(evento);
+                } while (evento instanceof Progress);
+
+                // cada status se verifica tres veces pero se emite una sola
+                assertEquals(
+                        List.of(
+                                new Progress(QueryRetriever.Status.EN_ESPERA, 0),
+                                new Progress(QueryRetriever.Status.EN_PROCESO, 33),
+                                new Progress(QueryRetriever.Status.DESCARGANDO, 66),
+                                new Progress(QueryRetriever.Status.COMPLETADO, 100),
+                                COMPLETE),
+                        eventos);
+                assertTrue(server.getRequests(Endpoint.PROGRESO) >= 10);
+
+                // después del status final no se verifica de nuevo
+                long solicitudes = server.getRequests(Endpoint.PROGRESO);
+                Thread.sleep(100);
+                assertEquals(solicitudes, server.getRequests(Endpoint.PROGRESO));
+                assertNull(suscriptor.events.poll());
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    @Test
+    public void cancelarDetieneLaVerificacion() throws Exception {
+        try (StandInServer server =
+                new StandInServer.Builder().pollsPerStatus(1_000).build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                QueryRetriever retriever = descargaCiec.queryAsync(PARAMETROS).get(30, TimeUnit.SECONDS);
+                Suscriptor suscriptor = new Suscriptor();
+                retriever.progressPublisher().subscribe(suscriptor);
+
+                suscriptor.subscription.request(Long.MAX_VALUE);
+                assertEquals(new Progress(QueryRetriever.Status.EN_ESPERA, 0), suscriptor.next());
+
+                suscriptor.subscription.cancel();
+                // una verificación pudo estar en curso al cancelar
+                Thread.sleep(50);
+                long solicitudes = server.getRequests(Endpoint.PROGRESO);
+
+                Thread.sleep(100);
+                assertEquals(solicitudes, server.getRequests(Endpoint.PROGRESO));
+                assertNull(suscriptor.events.poll());
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    @Test
+    public void fallaSiLaDemandaNoEsPositiva() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                QueryRetriever retriever = descargaCiec.queryAsync(PARAMETROS).get(30, TimeUnit.SECONDS);
+                Suscriptor suscriptor = new Suscriptor();
+                retriever.progressPublisher().subscribe(suscriptor);
+
+                suscriptor.subscription.request(0);
+                assertInstanceOf(IllegalArgumentException.class, suscriptor.next());
+
+                // la suscripción terminó, no se verifica la consulta
+                suscriptor.subscription.request(1);
+                Thread.sleep(100);
+                assertNull(suscriptor.events.poll());
+                assertEquals(0, server.getRequests(Endpoint.PROGRESO));
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    /**
+     * Registra los eventos recibidos; la demanda la solicita cada prueba.
+     */
+    private static class Suscriptor implements Flow.Subscriber<Progress> {
+
+        private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+
+        private volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Progress item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            events.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            events.add(COMPLETE);
+        }
+
+        Object next() throws InterruptedException {
+            Object evento = events.poll(30, TimeUnit.SECONDS);
+            assertNotNull(evento, "no se recibió ningún evento");
+
+            return evento;
+        }
+    }
+}
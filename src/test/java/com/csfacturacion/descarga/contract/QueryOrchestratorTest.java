@@ -0,0 +1,169 @@
+package com.csfacturacion.descarga.contract;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.csfacturacion.descarga.model.Credenciales;
+import com.csfacturacion.descarga.model.Parametros;
+import com.csfacturacion.descarga.standin.StandInServer;
+import com.csfacturacion.descarga.util.http.Endpoint;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class QueryOrchestratorTest {
+
+    private static final Parametros PARAMETROS = new Parametros.Builder()
+            .credenciales(new Credenciales("XAXX010101000", "ciec"))
+            .fechaInicio(LocalDateTime.of(2024, 1, 1, 0, 0))
+            .fechaFin(LocalDateTime.of(2024, 1, 31, 23, 59, 59))
+            .tipo(Parametros.Tipo.EMITIDAS)
+            .build();
+
+    @Test
+    public void liberaLosLugaresDeLasConsultasQueDejanDeVerificarse() throws Exception {
+        try (StandInServer server =
+                new StandInServer.Builder().errors(Endpoint.PROGRESO, 1, 500).build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try (QueryOrchestrator orchestrator = new QueryOrchestrator.Builder(descargaCiec)
+                    .defaultTenantConcurrency(2)
+                    .build()) {
+
+                // más trabajos que lugares: los últimos sólo inician si los
+                // primeros liberan su lugar al fallar
+                List<CompletableFuture<QueryRetriever>> trabajos = new ArrayList<>();
+                for (int i = 0; i < 6; i++) {
+                    trabajos.add(orchestrator.submit("AAA010101AAA", QueryOrchestrator.Priority.BATCH, PARAMETROS));
+                }
+
+                for (CompletableFuture<QueryRetriever> trabajo : trabajos) {
+                    ExecutionException e =
+                            assertThrows(ExecutionException.class, () -> trabajo.get(30, TimeUnit.SECONDS));
+                    assertNotNull(e.getCause());
+                }
+
+                assertEquals(0, orchestrator.getRunning("AAA010101AAA"));
+                assertEquals(0, orchestrator.getRunning());
+                assertEquals(0, orchestrator.getQueued());
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    @Test
+    public void reparteLosTurnosDeAcuerdoAlPeso() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().results(1).build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try (QueryOrchestrator orchestrator = new QueryOrchestrator.Builder(descargaCiec)
+                    .globalConcurrency(1)
+                    .tenant("AAA010101AAA", 2, 4)
+                    .build()) {
+
+                // ocupa el único lugar mientras se forman los demás trabajos
+                CountDownLatch liberar = new CountDownLatch(1);
+                CompletableFuture<String> bloqueo =
+                        orchestrator.submit("XXX010101XXX", QueryOrchestrator.Priority.BATCH, PARAMETROS, r -> {
+                            liberar.await();
+                            return "XXX010101XXX";
+                        });
+
+                List<String> orden = Collections.synchronizedList(new ArrayList<>());
+                List<CompletableFuture<String>> trabajos = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    for (String tenant : List.of("AAA010101AAA", "BBB010101BBB")) {
+                        trabajos.add(orchestrator.submit(tenant, QueryOrchestrator.Priority.BATCH, PARAMETROS, r -> {
+                            orden.add(tenant);
+                            return tenant;
+                        }));
+                    }
+                }
+
+                trabajos.add(
+                        orchestrator.submit("CCC010101CCC", QueryOrchestrator.Priority.INTERACTIVE, PARAMETROS, r -> {
+                            orden.add("CCC010101CCC");
+                            return "CCC010101CCC";
+                        }));
+
+                assertEquals(4, orchestrator.getTenants());
+                liberar.countDown();
+                bloqueo.get(30, TimeUnit.SECONDS);
+                for (CompletableFuture<String> trabajo : trabajos) {
+                    trabajo.get(30, TimeUnit.SECONDS);
+                }
+
+                // el trabajo interactivo primero; después A, con el doble de
+                // peso, recibe dos turnos por cada uno de B
+                assertEquals(
+                        List.of(
+                                "CCC010101CCC",
+                                "AAA010101AAA",
+                                "BBB010101BBB",
+                                "AAA010101AAA",
+                                "AAA010101AAA",
+                                "BBB010101BBB",
+                                "AAA010101AAA",
+                                "BBB010101BBB",
+                                "BBB010101BBB"),
+                        orden);
+
+                // los tenants inactivos no se conservan
+                assertEquals(0, orchestrator.getTenants());
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    @Test
+    public void cerrarNoInterrumpeLosTrabajosEnCurso() throws Exception {
+        try (StandInServer server =
+                new StandInServer.Builder().pollsPerStatus(20).build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+
+            try {
+                QueryOrchestrator orchestrator = new QueryOrchestrator.Builder(descargaCiec)
+                        .defaultTenantConcurrency(1)
+                        .build();
+
+                CountDownLatch iniciado = new CountDownLatch(1);
+                CountDownLatch liberar = new CountDownLatch(1);
+                CompletableFuture<Boolean> enCurso =
+                        orchestrator.submit("AAA010101AAA", QueryOrchestrator.Priority.BATCH, PARAMETROS, r -> {
+                            iniciado.countDown();
+                            liberar.await();
+                            return Thread.currentThread().isInterrupted();
+                        });
+                assertTrue(iniciado.await(30, TimeUnit.SECONDS));
+
+                // uno en espera del mismo tenant y uno cuya consulta no ha terminado
+                CompletableFuture<QueryRetriever> enEspera =
+                        orchestrator.submit("AAA010101AAA", QueryOrchestrator.Priority.BATCH, PARAMETROS);
+                CompletableFuture<QueryRetriever> verificandose =
+                        orchestrator.submit("BBB010101BBB", QueryOrchestrator.Priority.BATCH, PARAMETROS);
+
+                orchestrator.close();
+
+                assertThrows(CancellationException.class, enEspera::join);
+                assertThrows(CancellationException.class, () -> verificandose.get(30, TimeUnit.SECONDS));
+                assertFalse(enCurso.isDone());
+
+                liberar.countDown();
+                assertFalse(enCurso.get(30, TimeUnit.SECONDS));
+                assertEquals(0, orchestrator.getRunning());
+                assertEquals(0, orchestrator.getQueued());
+                assertEquals(0, orchestrator.getTenants());
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.csfacturacion.descarga.contract;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.csfacturacion.descarga.model.Credenciales;
+import com.csfacturacion.descarga.model.Parametros;
+import com.csfacturacion.descarga.standin.StandInServer;
+import com.csfacturacion.descarga.util.RequestFactory;
+import com.csfacturacion.descarga.util.http.Endpoint;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class ShardedQueryTest {
+
+    private static final Parametros PARAMETROS = new Parametros.Builder()
+            .credenciales(new Credenciales("XAXX010101000", "ciec"))
+            .fechaInicio(LocalDateTime.of(2024, 1, 1, 0, 0))
+            .fechaFin(LocalDateTime.of(2024, 3, 31, 23, 59, 59))
+            .tipo(Parametros.Tipo.EMITIDAS)
+            .build();
+
+    @Test
+    public void terminaCuandoSeDejaDeVerificarUnFragmento() throws Exception {
+        try (StandInServer server =
+                new StandInServer.Builder().errors(Endpoint.PROGRESO, 1, 500).build()) {
+            DescargaCiecImpl descargaCiec = newDescargaCiec(server);
+
+            try {
+                ShardedQuery consulta = new ShardedQuery.Builder(descargaCiec, PARAMETROS)
+                        .parallelism(2)
+                        .build()
+                        .start();
+
+                // los tres fragmentos deben terminar, aunque sólo dos se envían a la vez
+                consulta.completion().get(30, TimeUnit.SECONDS);
+
+                assertTrue(consulta.isFinished());
+                assertEquals(3, consulta.getFailedShards().size());
+                for (ShardedQuery.Shard shard : consulta.getFailedShards()) {
+                    assertNotNull(shard.getError());
+                    assertNotNull(shard.getRetriever());
+                }
+
+                assertEquals(3, consulta.getProgress().failed());
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    @Test
+    public void terminaConErroresOcasionales() throws Exception {
+        try (StandInServer server =
+                new StandInServer.Builder().errors(Endpoint.PROGRESO, 0.3, 500).build()) {
+            DescargaCiecImpl descargaCiec = newDescargaCiec(server);
+
+            try {
+                ShardedQuery consulta = new ShardedQuery.Builder(descargaCiec, PARAMETROS)
+                        .granularity(ShardedQuery.Granularity.DAY)
+                        .parallelism(8)
+                        .build()
+                        .start();
+
+                consulta.completion().get(60, TimeUnit.SECONDS);
+
+                // cada fragmento termina correctamente o aparece como fallido
+                for (ShardedQuery.Shard shard : consulta.getShards()) {
+                    assertTrue(shard.isFinished());
+                    assertEquals(
+                            shard.getError() != null, consulta.getFailedShards().contains(shard));
+                }
+            } finally {
+                descargaCiec.close();
+            }
+        }
+    }
+
+    static DescargaCiecImpl newDescargaCiec(StandInServer server) {
+        PollingPolicy.Builder polling = new PollingPolicy.Builder()
+                .defaultInterval(Duration.ofMillis(5))
+                .maxInterval(Duration.ofMillis(20))
+                .maxConsecutiveErrors(2);
+        for (QueryRetriever.Status status : QueryRetriever.Status.values()) {
+            polling.interval(status, Duration.ofMillis(5));
+        }
+
+        return new DescargaCiecImpl.Builder()
+                .csCredenciales(new Credenciales("AAA010101AAA", "password"))
+                .requestFactory(new RequestFactory(server.getBaseUri()))
+                .httpVersion(HttpClient.Version.HTTP_1_1)
+                .pollingPolicy(polling.build())
+                .retrieverOptions(new QueryRetrieverOptions.Builder()
+                        .progressTtl(Duration.ZERO)
+                        .build())
+                .build();
+    }
+}
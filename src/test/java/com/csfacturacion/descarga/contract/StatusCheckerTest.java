@@ -0,0 +1,56 @@
+package com.csfacturacion.descarga.contract;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.csfacturacion.descarga.model.Credenciales;
+import com.csfacturacion.descarga.model.Parametros;
+import com.csfacturacion.descarga.standin.StandInServer;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class StatusCheckerTest {
+
+    @Test
+    public void notificaSiNoPuedeProgramarLaVerificacion() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().build()) {
+            DescargaCiecImpl descargaCiec = ShardedQueryTest.newDescargaCiec(server);
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+            try {
+                QueryRetriever retriever = descargaCiec
+                        .queryAsync(new Parametros.Builder()
+                                .credenciales(new Credenciales("XAXX010101000", "ciec"))
+                                .fechaInicio(LocalDateTime.of(2024, 1, 1, 0, 0))
+                                .fechaFin(LocalDateTime.of(2024, 1, 31, 23, 59, 59))
+                                .build())
+                        .get(30, TimeUnit.SECONDS);
+
+                // el scheduler se cerró sin cerrar el StatusChecker
+                scheduler.shutdown();
+                StatusChecker statusChecker = new StatusChecker(scheduler, PollingPolicy.defaults());
+
+                CompletableFuture<Throwable> falla = new CompletableFuture<>();
+                statusChecker.addConsulta(retriever, new QueryProgressListener() {
+                    @Override
+                    public void onStatusChanged(QueryRetriever.Status status, QueryRetriever retriever) {}
+
+                    @Override
+                    public void onFailure(QueryRetriever retriever, Throwable error) {
+                        falla.complete(error);
+                    }
+                });
+
+                assertInstanceOf(RejectedExecutionException.class, falla.get(30, TimeUnit.SECONDS));
+                assertEquals(0, statusChecker.size());
+            } finally {
+                scheduler.shutdownNow();
+                descargaCiec.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,805 @@
+package com.csfacturacion.descarga.standin;
+
+import com.csfacturacion.descarga.contract.QueryRetriever;
+import com.csfacturacion.descarga.util.http.Endpoint;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Servidor local que implementa los endpoints de la v3 del webservice de
+ * descarga que utiliza {@link com.csfacturacion.descarga.util.RequestFactory},
+ * para probar el cliente completo sin credenciales de CS ni del SAT:
+ * <ul>
+ *     <li>{@code POST /consultar} y {@code GET /repetir?uuid=}</li>
+ *     <li>{@code GET /consultas/{folio}/progreso}: cada verificación avanza
+ *     la consulta por la progresión de status configurada.</li>
+ *     <li>{@code GET /consultas/{folio}/resumen} y
+ *     {@code /consultas/{folio}/{página}}, una vez terminada la consulta.</li>
+ *     <li>{@code GET /consultas/{folio}}: el ZIP con el XML de cada resultado,
+ *     con soporte de {@code Range}.</li>
+ *     <li>{@code GET /cfdi/{folio}}: el XML de cualquier CFDI.</li>
+ * </ul>
+ * Los resultados y XML se generan a partir de los folios, de modo que las
+ * respuestas son las mismas en cada solicitud. La latencia y los errores se
+ * configuran por {@link Endpoint}; cada solicitud se atiende en su propio
+ * virtual thread, de modo que la latencia no limita la concurrencia.
+ */
+public final class StandInServer implements AutoCloseable {
+
+    static {
+        // sin TCP_NODELAY, el servidor escribe los headers y el cuerpo por
+        // separado y cada respuesta espera el ACK retrasado del cliente (~40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private static final OffsetDateTime FECHA = OffsetDateTime.of(2024, 1, 1, 12, 0, 0, 0, ZoneOffset.ofHours(-6));
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final List<QueryRetriever.Status> progression;
+
+    private final int pollsPerStatus;
+
+    private final int results;
+
+    private final int pageSize;
+
+    private final byte[] xmlPrefix;
+
+    private final boolean ranges;
+
+    private final int firstRangeLength;
+
+    private final Map<Endpoint, Duration[]> latencies;
+
+    private final Map<Endpoint, Falla> errors;
+
+    private final Map<UUID, Consulta> consultas = new ConcurrentHashMap<>();
+
+    private final Map<Endpoint, LongAdder> requests = new EnumMap<>(Endpoint.class);
+
+    private final Map<Endpoint, LongAdder> injectedErrors = new EnumMap<>(Endpoint.class);
+
+    private StandInServer(Builder builder) {
+        this.progression = List.copyOf(builder.progression);
+        this.pollsPerStatus = builder.pollsPerStatus;
+        this.results = builder.results;
+        this.pageSize = builder.pageSize;
+        this.xmlPrefix = xmlPrefix(builder.xmlSize);
+        this.ranges = builder.ranges;
+        this.firstRangeLength = builder.firstRangeLength;
+        this.latencies = new EnumMap<>(builder.latencies);
+        this.errors = new EnumMap<>(builder.errors);
+
+        for (Endpoint endpoint : Endpoint.values()) {
+            requests.put(endpoint, new LongAdder());
+            injectedErrors.put(endpoint, new LongAdder());
+        }
+
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", builder.port), builder.backlog);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.createContext("/v3", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return la URI base a utilizar en el
+     * {@link com.csfacturacion.descarga.util.RequestFactory}.
+     */
+    public String getBaseUri() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v3";
+    }
+
+    /**
+     * @param endpoint clase de endpoint.
+     * @return solicitudes recibidas, incluidas las que respondieron con un
+     * error simulado.
+     */
+    public long getRequests(Endpoint endpoint) {
+        return requests.get(endpoint).sum();
+    }
+
+    /**
+     * @return solicitudes recibidas en todos los endpoints.
+     */
+    public long getRequests() {
+        return requests.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * @param endpoint clase de endpoint.
+     * @return solicitudes que respondieron con un error simulado.
+     */
+    public long getInjectedErrors(Endpoint endpoint) {
+        return injectedErrors.get(endpoint).sum();
+    }
+
+    /**
+     * @return consultas creadas.
+     */
+    public int getConsultas() {
+        return consultas.size();
+    }
+
+    /**
+     * Crea una consulta ya terminada, e.g. para descargar su ZIP sin
+     * verificar antes su progreso.
+     *
+     * @return el folio de la consulta.
+     */
+    public UUID newConsulta() {
+        UUID folio = UUID.randomUUID();
+        Consulta consulta = new Consulta();
+        consulta.polls.set(pollsPerStatus * progression.size());
+        consultas.put(folio, consulta);
+
+        return folio;
+    }
+
+    /**
+     * @param folio de una consulta existente.
+     * @return el ZIP que se entrega para la consulta dada.
+     */
+    public byte[] getZip(UUID folio) {
+        Consulta consulta = consultas.get(folio);
+        if (consulta == null) {
+            throw new IllegalArgumentException("No existe la consulta " + folio);
+        }
+
+        return consulta.zip(folio).clone();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            URI uri = exchange.getRequestURI();
+            Endpoint endpoint = Endpoint.of(uri.getPath());
+            requests.get(endpoint).increment();
+
+            simularLatencia(endpoint);
+
+            Falla falla = errors.get(endpoint);
+            if (falla != null && ThreadLocalRandom.current().nextDouble() < falla.rate()) {
+                injectedErrors.get(endpoint).increment();
+                if (falla.retryAfter() != null) {
+                    exchange.getResponseHeaders()
+                            .set(
+                                    "Retry-After",
+                                    String.valueOf(falla.retryAfter().toSeconds()));
+                }
+
+                sendJson(exchange, falla.status(), error("Error simulado"));
+                return;
+            }
+
+            switch (endpoint) {
+                case CONSULTAR -> consultar(exchange);
+                case PROGRESO -> progreso(exchange);
+                case RESULTADOS -> resultados(exchange);
+                case ZIP -> zip(exchange);
+                case CFDI -> cfdi(exchange);
+                default -> {
+                    // ping (HEAD a la URI base) o cualquier otra ruta
+                    boolean ping = uri.getPath().equals("/v3") || uri.getPath().equals("/v3/");
+                    exchange.sendResponseHeaders(ping ? 200 : 404, -1);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void simularLatencia(Endpoint endpoint) throws InterruptedException {
+        Duration[] latency = latencies.get(endpoint);
+        if (latency == null) {
+            return;
+        }
+
+        long min = latency[0].toNanos();
+        long max = latency[1].toNanos();
+        long nanos = max > min ? ThreadLocalRandom.current().nextLong(min, max + 1) : min;
+        if (nanos > 0) {
+            Thread.sleep(Duration.ofNanos(nanos));
+        }
+    }
+
+    private void consultar(HttpExchange exchange) throws IOException {
+        String rfc = exchange.getRequestHeaders().getFirst("rfc");
+        String password = exchange.getRequestHeaders().getFirst("password");
+        if (rfc == null || password == null) {
+            sendJson(exchange, 200, error("Credenciales inválidas"));
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith("/consultar")) {
+            // el cuerpo son los parámetros, que no afectan los resultados
+            exchange.getRequestBody().readAllBytes();
+
+            UUID folio = UUID.randomUUID();
+            consultas.put(folio, new Consulta());
+            sendJson(exchange, 200, folio(folio));
+            return;
+        }
+
+        // /repetir?uuid={folio}
+        String query = exchange.getRequestURI().getQuery();
+        UUID folio = query != null && query.startsWith("uuid=") ? parseFolio(query.substring(5)) : null;
+        Consulta consulta = folio != null ? consultas.get(folio) : null;
+        if (consulta == null) {
+            sendJson(exchange, 200, error("No existe la consulta"));
+            return;
+        }
+
+        consulta.polls.set(0);
+        sendJson(exchange, 200, folio(folio));
+    }
+
+    private void progreso(HttpExchange exchange) throws IOException {
+        String[] partes = partes(exchange);
+        Consulta consulta = consulta(partes[0]);
+        if (consulta == null) {
+            sendJson(exchange, 404, error("No existe la consulta"));
+            return;
+        }
+
+        if (partes[1].equals("progreso")) {
+            int index = Math.min(consulta.polls.getAndIncrement() / pollsPerStatus, progression.size() - 1);
+
+            JsonObject progress = new JsonObject();
+            progress.addProperty("estado", progression.get(index).name());
+            progress.addProperty("encontrados", (long) results * index / Math.max(1, progression.size() - 1));
+            sendJson(exchange, 200, progress.toString());
+            return;
+        }
+
+        // resumen
+        if (!consulta.isFinished()) {
+            sendJson(exchange, 409, error("La consulta no ha terminado"));
+            return;
+        }
+
+        JsonObject summary = new JsonObject();
+        summary.addProperty("total", results);
+        summary.addProperty("paginas", pages());
+        summary.addProperty("xmlFaltantes", false);
+        summary.addProperty("cancelados", results / 10);
+        sendJson(exchange, 200, summary.toString());
+    }
+
+    private void resultados(HttpExchange exchange) throws IOException {
+        String[] partes = partes(exchange);
+        UUID folio = parseFolio(partes[0]);
+        Consulta consulta = folio != null ? consultas.get(folio) : null;
+        if (consulta == null || !consulta.isFinished()) {
+            sendJson(exchange, 404, error("No existe la consulta o no ha terminado"));
+            return;
+        }
+
+        int page;
+        try {
+            page = Integer.parseInt(partes[1]);
+        } catch (NumberFormatException e) {
+            page = 0;
+        }
+
+        if (page < 1 || page > pages()) {
+            sendJson(exchange, 404, error("No existe la página " + partes[1]));
+            return;
+        }
+
+        JsonArray array = new JsonArray();
+        for (int i = (page - 1) * pageSize; i < Math.min(results, page * pageSize); i++) {
+            array.add(cfdiMeta(folio, i));
+        }
+
+        sendJson(exchange, 200, array.toString());
+    }
+
+    private void zip(HttpExchange exchange) throws IOException {
+        UUID folio = parseFolio(partes(exchange)[0]);
+        Consulta consulta = folio != null ? consultas.get(folio) : null;
+        if (consulta == null || !consulta.isFinished()) {
+            sendJson(exchange, 404, error("No existe la consulta o no ha terminado"));
+            return;
+        }
+
+        byte[] zip = consulta.zip(folio);
+        int from = 0;
+        int to = zip.length - 1;
+
+        String range = ranges ? exchange.getRequestHeaders().getFirst("Range") : null;
+        if (range != null && range.startsWith("bytes=")) {
+            String[] limites = range.substring(6).split("-", -1);
+            from = Integer.parseInt(limites[0]);
+            if (!limites[1].isEmpty()) {
+                to = Math.min(to, Integer.parseInt(limites[1]));
+            }
+
+            if (from > to) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes */" + zip.length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+
+            if (from == 0 && firstRangeLength > 0) {
+                to = Math.min(to, firstRangeLength - 1);
+            }
+
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + zip.length);
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", "application/zip");
+        exchange.sendResponseHeaders(range != null ? 206 : 200, to - from + 1);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(zip, from, to - from + 1);
+        }
+    }
+
+    private void cfdi(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        UUID folio = parseFolio(path.substring(path.lastIndexOf('/') + 1));
+        if (folio == null) {
+            sendJson(exchange, 404, error("No existe el CFDI"));
+            return;
+        }
+
+        byte[] xml = xml(folio);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, xml.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(xml);
+        }
+    }
+
+    private int pages() {
+        return (results + pageSize - 1) / pageSize;
+    }
+
+    private JsonObject cfdiMeta(UUID consulta, int index) {
+        JsonObject emisor = new JsonObject();
+        emisor.addProperty("rfc", "AAA010101AAA");
+        emisor.addProperty("razonSocial", "Emisor de prueba");
+
+        JsonObject receptor = new JsonObject();
+        receptor.addProperty("rfc", "XAXX010101000");
+        receptor.addProperty("razonSocial", "Receptor " + index);
+
+        JsonObject pac = new JsonObject();
+        pac.addProperty("rfc", "SAT970701NN3");
+        pac.addProperty("razonSocial", "Servicio de Administración Tributaria");
+
+        JsonObject meta = new JsonObject();
+        meta.addProperty("folio", cfdiFolio(consulta, index).toString());
+        meta.add("emisor", emisor);
+        meta.add("receptor", receptor);
+        meta.addProperty("fechaEmision", FECHA.plusMinutes(index).toString());
+        meta.addProperty("fechaCertificacion", FECHA.plusMinutes(index + 1).toString());
+        meta.add("PACCertificador", pac);
+        meta.addProperty("total", (index + 1) * 116 + ".00");
+        meta.addProperty("tipo", "INGRESO");
+        meta.addProperty("status", index % 10 == 0 ? "CANCELADO" : "VIGENTE");
+
+        return meta;
+    }
+
+    /**
+     * El inicio de cada CFDI: BOM y conceptos hasta alcanzar aproximadamente
+     * {@code xmlSize} bytes. Se genera una sola vez, para que el costo de las
+     * respuestas no se confunda con el del cliente.
+     */
+    private static byte[] xmlPrefix(int xmlSize) {
+        StringBuilder xml = new StringBuilder(xmlSize + 256)
+                .append('\uFEFF')
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<cfdi:Comprobante xmlns:cfdi=\"http://www.sat.gob.mx/cfd/4\" Version=\"4.0\">\n")
+                .append("  <cfdi:Conceptos>\n");
+
+        for (int i = 0; xml.length() < xmlSize; i++) {
+            xml.append("    <cfdi:Concepto ClaveProdServ=\"01010101\" Cantidad=\"1\" Descripcion=\"Concepto ")
+                    .append(i)
+                    .append("\" ValorUnitario=\"100.00\" Importe=\"100.00\"/>\n");
+        }
+
+        return xml.append("  </cfdi:Conceptos>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] xml(UUID folio) {
+        byte[] timbre = ("  <cfdi:Complemento>\n"
+                        + "    <tfd:TimbreFiscalDigital xmlns:tfd=\"http://www.sat.gob.mx/TimbreFiscalDigital\" UUID=\""
+                        + folio
+                        + "\"/>\n"
+                        + "  </cfdi:Complemento>\n"
+                        + "</cfdi:Comprobante>\n")
+                .getBytes(StandardCharsets.US_ASCII);
+
+        byte[] xml = Arrays.copyOf(xmlPrefix, xmlPrefix.length + timbre.length);
+        System.arraycopy(timbre, 0, xml, xmlPrefix.length, timbre.length);
+
+        return xml;
+    }
+
+    private static UUID cfdiFolio(UUID consulta, int index) {
+        return UUID.nameUUIDFromBytes((consulta + "/" + index).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return las partes de la ruta después de /consultas/, completadas con
+     * cadenas vacías hasta tener al menos dos.
+     */
+    private static String[] partes(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        String[] partes = path.substring(path.indexOf("/consultas/") + "/consultas/".length())
+                .split("/");
+
+        return partes.length >= 2 ? partes : new String[] {partes[0], ""};
+    }
+
+    private Consulta consulta(String folio) {
+        UUID uuid = parseFolio(folio);
+
+        return uuid != null ? consultas.get(uuid) : null;
+    }
+
+    private static UUID parseFolio(String folio) {
+        try {
+            return UUID.fromString(folio);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String folio(UUID folio) {
+        JsonObject data = new JsonObject();
+        data.addProperty("uuid", folio.toString());
+
+        JsonObject payload = new JsonObject();
+        payload.add("data", data);
+
+        return payload.toString();
+    }
+
+    private static String error(String mensaje) {
+        JsonObject payload = new JsonObject();
+        payload.addProperty("error", mensaje);
+
+        return payload.toString();
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Error simulado de un endpoint: la fracción de solicitudes que lo
+     * reciben, el código de la respuesta y su {@code Retry-After}, si lo hay.
+     */
+    private record Falla(double rate, int status, Duration retryAfter) {}
+
+    /**
+     * Estado de una consulta creada en el servidor.
+     */
+    private final class Consulta {
+
+        private final AtomicInteger polls = new AtomicInteger();
+
+        /**
+         * El ZIP se genera al primer uso y se conserva mientras haya memoria,
+         * para que las solicitudes por rangos lean el mismo contenido.
+         */
+        private volatile SoftReference<byte[]> zip = new SoftReference<>(null);
+
+        boolean isFinished() {
+            return polls.get() / pollsPerStatus >= progression.size() - 1;
+        }
+
+        byte[] zip(UUID folio) {
+            byte[] actual = zip.get();
+            if (actual != null) {
+                return actual;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ZipOutputStream zos = new ZipOutputStream(out)) {
+                for (int i = 0; i < results; i++) {
+                    UUID cfdi = cfdiFolio(folio, i);
+                    ZipEntry entry = new ZipEntry(cfdi + ".xml");
+                    // fecha fija, para que el contenido sea el mismo si se regenera
+                    entry.setTime(FECHA.toInstant().toEpochMilli());
+                    zos.putNextEntry(entry);
+                    zos.write(xml(cfdi));
+                    zos.closeEntry();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            actual = out.toByteArray();
+            zip = new SoftReference<>(actual);
+
+            return actual;
+        }
+    }
+
+    public static final class Builder {
+
+        private int port;
+
+        private int backlog = 1024;
+
+        private List<QueryRetriever.Status> progression = List.of(
+                QueryRetriever.Status.EN_ESPERA,
+                QueryRetriever.Status.EN_PROCESO,
+                QueryRetriever.Status.DESCARGANDO,
+                QueryRetriever.Status.COMPLETADO);
+
+        private int pollsPerStatus = 1;
+
+        private int results = 100;
+
+        private int pageSize = 20;
+
+        private int xmlSize = 4096;
+
+        private boolean ranges = true;
+
+        private int firstRangeLength;
+
+        private final Map<Endpoint, Duration[]> latencies = new EnumMap<>(Endpoint.class);
+
+        private final Map<Endpoint, Falla> errors = new EnumMap<>(Endpoint.class);
+
+        public Builder() {}
+
+        /**
+         * Puerto en el que escucha el servidor, por defecto uno libre.
+         *
+         * @param port puerto local.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Conexiones pendientes de aceptar, por defecto 1024.
+         *
+         * @param backlog de conexiones.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * Status por los que pasa cada consulta, uno o más por verificación
+         * ({@link #pollsPerStatus(int)}). El último debe ser un status
+         * terminal; por defecto EN_ESPERA, EN_PROCESO, DESCARGANDO y
+         * COMPLETADO.
+         *
+         * @param progression status en orden.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder progression(QueryRetriever.Status... progression) {
+            this.progression = Arrays.asList(progression);
+            return this;
+        }
+
+        /**
+         * Verificaciones del progreso que devuelven cada status, por
+         * defecto 1.
+         *
+         * @param pollsPerStatus verificaciones por status.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder pollsPerStatus(int pollsPerStatus) {
+            this.pollsPerStatus = pollsPerStatus;
+            return this;
+        }
+
+        /**
+         * Resultados de cada consulta, por defecto 100.
+         *
+         * @param results total de CFDI encontrados.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder results(int results) {
+            this.results = results;
+            return this;
+        }
+
+        /**
+         * Resultados por página, por defecto 20.
+         *
+         * @param pageSize resultados por página.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder pageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * Tamaño aproximado de cada XML, por defecto 4 KB. El ZIP de una
+         * consulta contiene un XML por resultado.
+         *
+         * @param xmlSize en bytes.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder xmlSize(int xmlSize) {
+            this.xmlSize = xmlSize;
+            return this;
+        }
+
+        /**
+         * Si el ZIP se entrega por rangos, por defecto true. Si es false se
+         * ignora el encabezado {@code Range} y se responde 200 con el ZIP
+         * completo, como algunos proxies.
+         *
+         * @param ranges si se atienden los rangos.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder ranges(boolean ranges) {
+            this.ranges = ranges;
+            return this;
+        }
+
+        /**
+         * Bytes máximos de la respuesta al rango que inicia en el byte 0, para
+         * simular un servidor que devuelve menos bytes de los solicitados; por
+         * defecto 0, sin límite.
+         *
+         * @param firstRangeLength bytes del primer rango.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder firstRangeLength(int firstRangeLength) {
+            this.firstRangeLength = firstRangeLength;
+            return this;
+        }
+
+        /**
+         * Latencia de las respuestas de la clase de endpoint dada: un valor
+         * aleatorio entre {@code min} y {@code max}. Por defecto no se agrega
+         * latencia.
+         *
+         * @param endpoint clase de endpoint.
+         * @param min      latencia mínima.
+         * @param max      latencia máxima.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder latency(Endpoint endpoint, Duration min, Duration max) {
+            this.latencies.put(endpoint, new Duration[] {min, max});
+            return this;
+        }
+
+        /**
+         * Latencia de las respuestas de todos los endpoints.
+         *
+         * @param min latencia mínima.
+         * @param max latencia máxima.
+         * @return este builder, para encadenamiento.
+         * @see #latency(Endpoint, Duration, Duration)
+         */
+        public Builder latency(Duration min, Duration max) {
+            for (Endpoint endpoint : Endpoint.values()) {
+                latency(endpoint, min, max);
+            }
+
+            return this;
+        }
+
+        /**
+         * Responde a la fracción {@code rate} de las solicitudes de la clase
+         * de endpoint dada con el código {@code status} (e.g. 502, 503 o
+         * 429). Por defecto no se simulan errores.
+         *
+         * @param endpoint clase de endpoint.
+         * @param rate     entre 0 y 1.
+         * @param status   código de la respuesta.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder errors(Endpoint endpoint, double rate, int status) {
+            return errors(endpoint, rate, status, null);
+        }
+
+        /**
+         * Igual que {@link #errors(Endpoint, double, int)}, pero las respuestas
+         * incluyen el encabezado {@code Retry-After}.
+         *
+         * @param endpoint   clase de endpoint.
+         * @param rate       entre 0 y 1.
+         * @param status     código de la respuesta.
+         * @param retryAfter pausa indicada, en segundos completos, o null para
+         *                   no enviar el encabezado.
+         * @return este builder, para encadenamiento.
+         */
+        public Builder errors(Endpoint endpoint, double rate, int status, Duration retryAfter) {
+            this.errors.put(endpoint, new Falla(rate, status, retryAfter));
+            return this;
+        }
+
+        /**
+         * Crea el servidor y comienza a atender solicitudes.
+         *
+         * @return el servidor, que debe cerrarse al terminar.
+         */
+        public StandInServer build() {
+            if (progression == null
+                    || progression.isEmpty()
+                    || !progression.get(progression.size() - 1).isFinished()) {
+                throw new IllegalStateException("La progresión debe terminar en un status terminal");
+            }
+
+            if (pollsPerStatus < 1 || results < 0 || pageSize < 1 || xmlSize < 0 || firstRangeLength < 0) {
+                throw new IllegalStateException(
+                        "pollsPerStatus y pageSize deben ser >= 1, results, xmlSize y firstRangeLength >= 0");
+            }
+
+            for (Duration[] latency : latencies.values()) {
+                if (latency[0] == null
+                        || latency[1] == null
+                        || latency[0].isNegative()
+                        || latency[1].compareTo(latency[0]) < 0) {
+                    throw new IllegalStateException("La latencia debe cumplir 0 <= min <= max");
+                }
+            }
+
+            for (Falla falla : errors.values()) {
+                if (falla.rate() < 0 || falla.rate() > 1 || falla.status() < 400) {
+                    throw new IllegalStateException("La tasa de errores debe estar entre 0 y 1 y el status ser >= 400");
+                }
+            }
+
+            return new StandInServer(this);
+        }
+    }
+}
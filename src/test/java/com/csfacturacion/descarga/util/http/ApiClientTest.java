@@ -0,0 +1,215 @@
+package com.csfacturacion.descarga.util.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.csfacturacion.descarga.error.CircuitBreakerOpenException;
+import com.csfacturacion.descarga.model.Credenciales;
+import com.csfacturacion.descarga.model.Parametros;
+import com.csfacturacion.descarga.model.Request;
+import com.csfacturacion.descarga.standin.StandInServer;
+import com.csfacturacion.descarga.util.RequestFactory;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class ApiClientTest {
+
+    @Test
+    public void reintentaLasRespuestas502y504() throws Exception {
+        try (StandInServer server = new StandInServer.Builder()
+                .errors(Endpoint.CFDI, 1, 502)
+                .errors(Endpoint.PROGRESO, 1, 504)
+                .build()) {
+            RequestFactory requests = new RequestFactory(server.getBaseUri());
+            ApiClient client = newApiClient()
+                    .retryPolicy(new RetryPolicy.Builder()
+                            .maxRetries(3)
+                            .baseDelay(Duration.ofMillis(20))
+                            .maxDelay(Duration.ofMillis(40))
+                            .build())
+                    .circuitBreaker(0, Duration.ofSeconds(30))
+                    .build();
+
+            try {
+                long inicio = System.nanoTime();
+                HttpResponse<String> response = client.send(xmlRequest(requests));
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+
+                // el último intento se entrega con su cuerpo
+                assertEquals(502, response.statusCode());
+                assertNotNull(response.body());
+                assertEquals(4, server.getRequests(Endpoint.CFDI));
+                assertTrue(millis >= 60, "esperó " + millis + " ms");
+
+                response = client.send(requests.newStatusRequest(UUID.randomUUID()));
+                assertEquals(504, response.statusCode());
+                assertEquals(4, server.getRequests(Endpoint.PROGRESO));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void esperaEntreReintentosConJitter() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .baseDelay(Duration.ofMillis(100))
+                .maxDelay(Duration.ofSeconds(2))
+                .build();
+
+        for (int i = 0; i < 1000; i++) {
+            Duration anterior = policy.nextDelay(null);
+            assertEquals(Duration.ofMillis(100), anterior);
+
+            for (int intento = 0; intento < 5; intento++) {
+                Duration espera = policy.nextDelay(anterior);
+                assertTrue(espera.toMillis() >= 100, "espera " + espera);
+                assertTrue(espera.toMillis() <= Math.min(anterior.toMillis() * 3, 2000), "espera " + espera);
+                anterior = espera;
+            }
+        }
+    }
+
+    @Test
+    public void noReintentaLosPostNoIdempotentes() throws Exception {
+        try (StandInServer server =
+                new StandInServer.Builder().errors(Endpoint.CONSULTAR, 1, 502).build()) {
+            RequestFactory requests = new RequestFactory(server.getBaseUri());
+            ApiClient client = newApiClient()
+                    .retryPolicy(new RetryPolicy.Builder()
+                            .baseDelay(Duration.ofMillis(10))
+                            .build())
+                    .build();
+
+            try {
+                Parametros parametros = new Parametros.Builder()
+                        .credenciales(new Credenciales("XAXX010101000", "ciec"))
+                        .fechaInicio(LocalDateTime.of(2024, 1, 1, 0, 0))
+                        .fechaFin(LocalDateTime.of(2024, 1, 31, 23, 59))
+                        .build();
+                HttpRequest request =
+                        requests.newConsultaRequest(new Credenciales("AAA010101AAA", "password"), parametros);
+
+                assertEquals(502, client.send(request).statusCode());
+                assertEquals(1, server.getRequests(Endpoint.CONSULTAR));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void respetaElRetryAfterDe429() throws Exception {
+        try (StandInServer server = new StandInServer.Builder()
+                .errors(Endpoint.CFDI, 1, 429, Duration.ofSeconds(1))
+                .build()) {
+            RequestFactory requests = new RequestFactory(server.getBaseUri());
+            ApiClient client = newApiClient()
+                    .rateLimit(new RateLimitOptions.Builder()
+                            .maxRetries(1)
+                            .initialBackoff(Duration.ZERO)
+                            .build())
+                    .build();
+
+            try {
+                long inicio = System.nanoTime();
+                HttpResponse<String> response = client.send(xmlRequest(requests));
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+
+                assertEquals(429, response.statusCode());
+                assertNotNull(response.body());
+                assertEquals(2, server.getRequests(Endpoint.CFDI));
+                // sin Retry-After el backoff sería cero
+                assertTrue(millis >= 900, "esperó " + millis + " ms");
+                assertEquals(2, client.getRateLimiter().getThrottled());
+                assertEquals(
+                        CircuitBreaker.State.CLOSED,
+                        client.getCircuitBreaker(Endpoint.CFDI).getState());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void abreYCierraElCircuito() throws Exception {
+        try (StandInServer caido = new StandInServer.Builder()
+                        .errors(Endpoint.CFDI, 1, 502)
+                        .build();
+                StandInServer disponible = new StandInServer.Builder()
+                        .latency(Endpoint.CFDI, Duration.ofMillis(300), Duration.ofMillis(300))
+                        .build()) {
+            ApiClient client = newApiClient()
+                    .retryPolicy(RetryPolicy.none())
+                    .circuitBreaker(2, Duration.ofMillis(300))
+                    .build();
+            CircuitBreaker breaker = client.getCircuitBreaker(Endpoint.CFDI);
+
+            try {
+                RequestFactory requests = new RequestFactory(caido.getBaseUri());
+                assertEquals(502, client.send(xmlRequest(requests)).statusCode());
+                assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+                assertEquals(502, client.send(xmlRequest(requests)).statusCode());
+                assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+                // mientras está abierto falla sin enviar la solicitud
+                CircuitBreakerOpenException e =
+                        assertThrows(CircuitBreakerOpenException.class, () -> client.send(xmlRequest(requests)));
+                assertTrue(e.getRetryAfter().compareTo(Duration.ofMillis(300)) <= 0);
+                assertEquals(2, caido.getRequests(Endpoint.CFDI));
+
+                Thread.sleep(e.getRetryAfter().plusMillis(50));
+
+                // se permite una sola solicitud de prueba
+                RequestFactory disponibles = new RequestFactory(disponible.getBaseUri());
+                CompletableFuture<HttpResponse<String>> prueba = client.sendAsync(xmlRequest(disponibles));
+                assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+                assertThrows(CircuitBreakerOpenException.class, () -> client.send(xmlRequest(disponibles)));
+
+                assertEquals(200, prueba.get(30, TimeUnit.SECONDS).statusCode());
+                assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+                assertEquals(200, client.send(xmlRequest(disponibles)).statusCode());
+                assertEquals(2, disponible.getRequests(Endpoint.CFDI));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void fallaSiUnReintentoAbreElCircuito() throws Exception {
+        try (StandInServer server =
+                new StandInServer.Builder().errors(Endpoint.CFDI, 1, 502).build()) {
+            RequestFactory requests = new RequestFactory(server.getBaseUri());
+            ApiClient client = newApiClient()
+                    .retryPolicy(new RetryPolicy.Builder()
+                            .baseDelay(Duration.ofMillis(10))
+                            .build())
+                    .circuitBreaker(2, Duration.ofMinutes(1))
+                    .build();
+
+            try {
+                // el cuerpo de la respuesta ya se descartó, no debe entregarse
+                assertThrows(CircuitBreakerOpenException.class, () -> client.send(xmlRequest(requests)));
+                assertEquals(2, server.getRequests(Endpoint.CFDI));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    private static ApiClient.Builder newApiClient() {
+        return new ApiClient.Builder(
+                HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build());
+    }
+
+    private static HttpRequest xmlRequest(RequestFactory requests) throws Exception {
+        return requests.newDescargaCfdiRequest(UUID.randomUUID(), Request.MediaType.XML);
+    }
+}
@@ -0,0 +1,189 @@
+package com.csfacturacion.descarga.util.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.csfacturacion.descarga.model.Request;
+import com.csfacturacion.descarga.model.ZipDownloadOptions;
+import com.csfacturacion.descarga.standin.StandInServer;
+import com.csfacturacion.descarga.util.RequestFactory;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RangeDownloaderTest {
+
+    private static final long CHUNK_SIZE = 8 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private ApiClient apiClient;
+
+    private RangeDownloader downloader;
+
+    @BeforeEach
+    public void setUp() {
+        apiClient = new ApiClient(
+                HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build());
+        downloader = new RangeDownloader(apiClient);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        apiClient.close();
+    }
+
+    @Test
+    public void descargaPorFragmentos() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().build()) {
+            UUID folio = server.newConsulta();
+            byte[] zip = server.getZip(folio);
+            Path dest = dir.resolve("resultados.zip");
+
+            long size =
+                    downloader.download(requests(server, folio), dest, chunked().build());
+
+            assertTrue(zip.length > 4 * CHUNK_SIZE, "ZIP de " + zip.length + " bytes");
+            assertEquals(zip.length, size);
+            assertArrayEquals(zip, Files.readAllBytes(dest));
+            assertEquals((zip.length + CHUNK_SIZE - 1) / CHUNK_SIZE, server.getRequests(Endpoint.ZIP));
+        }
+    }
+
+    @Test
+    public void continuaAPartirDelTamanoDelArchivo() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().build()) {
+            UUID folio = server.newConsulta();
+            byte[] zip = server.getZip(folio);
+            Path dest = Files.write(dir.resolve("resultados.zip"), Arrays.copyOf(zip, 10_000));
+
+            long size = downloader.download(requests(server, folio), dest, resume());
+
+            assertEquals(zip.length, size);
+            assertArrayEquals(zip, Files.readAllBytes(dest));
+            assertEquals(1, server.getRequests(Endpoint.ZIP));
+        }
+    }
+
+    @Test
+    public void noDescargaDeNuevoUnArchivoCompleto() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().build()) {
+            UUID folio = server.newConsulta();
+            byte[] zip = server.getZip(folio);
+            Path dest = Files.write(dir.resolve("resultados.zip"), zip);
+
+            // el servidor responde 416 al rango que inicia al final del archivo
+            long size = downloader.download(requests(server, folio), dest, resume());
+
+            assertEquals(zip.length, size);
+            assertArrayEquals(zip, Files.readAllBytes(dest));
+            assertEquals(1, server.getRequests(Endpoint.ZIP));
+        }
+    }
+
+    @Test
+    public void descargaCompletoSiElServidorIgnoraLosRangos() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().ranges(false).build()) {
+            UUID folio = server.newConsulta();
+            byte[] zip = server.getZip(folio);
+            Path dest = Files.write(dir.resolve("resultados.zip"), Arrays.copyOf(zip, 10_000));
+
+            assertEquals(zip.length, downloader.download(requests(server, folio), dest, resume()));
+            assertArrayEquals(zip, Files.readAllBytes(dest));
+
+            Path fragmentado = dir.resolve("fragmentado.zip");
+            assertEquals(
+                    zip.length,
+                    downloader.download(
+                            requests(server, folio), fragmentado, chunked().build()));
+            assertArrayEquals(zip, Files.readAllBytes(fragmentado));
+            assertEquals(2, server.getRequests(Endpoint.ZIP));
+        }
+    }
+
+    @Test
+    public void continuaDespuesDeUnPrimerFragmentoIncompleto() throws Exception {
+        try (StandInServer server =
+                new StandInServer.Builder().firstRangeLength(3_000).build()) {
+            UUID folio = server.newConsulta();
+            byte[] zip = server.getZip(folio);
+            Path dest = dir.resolve("resultados.zip");
+
+            long size =
+                    downloader.download(requests(server, folio), dest, chunked().build());
+
+            assertEquals(zip.length, size);
+            assertArrayEquals(zip, Files.readAllBytes(dest));
+        }
+    }
+
+    @Test
+    public void fallaSiElPrimerRangoNoIniciaEnCero() throws Exception {
+        try (StandInServer server = new StandInServer.Builder().build()) {
+            UUID folio = server.newConsulta();
+            RequestFactory requestFactory = new RequestFactory(server.getBaseUri());
+            RangeDownloader.RangeRequestFactory requests =
+                    (from, to) -> requestFactory.newDescargaZipRequest(folio, from + 100, to);
+
+            IOException e = assertThrows(
+                    IOException.class,
+                    () -> downloader.download(
+                            requests, dir.resolve("resultados.zip"), chunked().build()));
+            assertTrue(e.getMessage().contains("rango inesperado"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void cancelaLosDemasFragmentosSiUnoFalla() throws Exception {
+        try (StandInServer server = new StandInServer.Builder()
+                .latency(Endpoint.ZIP, Duration.ofMillis(500), Duration.ofMillis(500))
+                .build()) {
+            UUID folio = server.newConsulta();
+            RequestFactory requestFactory = new RequestFactory(server.getBaseUri());
+            RangeDownloader.RangeRequestFactory zip = requests(server, folio);
+            // el tercer fragmento recibe un XML en lugar de un rango del ZIP
+            RangeDownloader.RangeRequestFactory requests = (from, to) -> from == 2 * CHUNK_SIZE
+                    ? requestFactory.newDescargaCfdiRequest(UUID.randomUUID(), Request.MediaType.XML)
+                    : zip.create(from, to);
+
+            long inicio = System.nanoTime();
+            IOException e = assertThrows(
+                    IOException.class,
+                    () -> downloader.download(
+                            requests,
+                            dir.resolve("resultados.zip"),
+                            chunked().parallelism(2).build()));
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+
+            assertTrue(e.getMessage().contains("fragmento"), e.getMessage());
+            // el fragmento en curso se interrumpe y los siguientes no se solicitan
+            assertEquals(2, server.getRequests(Endpoint.ZIP));
+            assertTrue(millis < 900, "tardó " + millis + " ms");
+        }
+    }
+
+    private static RangeDownloader.RangeRequestFactory requests(StandInServer server, UUID folio) {
+        RequestFactory requestFactory = new RequestFactory(server.getBaseUri());
+
+        return (from, to) -> from == 0 && to < 0
+                ? requestFactory.newDescargaZipRequest(folio)
+                : requestFactory.newDescargaZipRequest(folio, from, to);
+    }
+
+    private static ZipDownloadOptions.Builder chunked() {
+        return new ZipDownloadOptions.Builder().chunkSize(CHUNK_SIZE).parallelism(4);
+    }
+
+    private static ZipDownloadOptions resume() {
+        return new ZipDownloadOptions.Builder().resume(true).build();
+    }
+}
@@ -0,0 +1,76 @@
+package com.csfacturacion.descarga.util.xml;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class XmlSanitizerTest {
+
+    private static final String[] SAMPLES = {
+        "",
+        "   ",
+        "\uFEFF<?xml version=\"1.0\"?><cfdi/>\r\n",
+        " \t\n<a>\u200Bhola\u00ADmundo</a>\n\n ",
+        "<a> \u200B </a>",
+        "\uFEFF \uFEFF <a/> \u200E ",
+        "<a>ñandú 𝄞 \u00A0</a>\u00A0",
+        "<a>\uDB40\uDC01etiqueta</a>",
+        "\u0000<a/>\u001F"
+    };
+
+    @Test
+    public void sanitizeEquivalenteARegex() {
+        for (String sample : SAMPLES) {
+            assertEquals(reference(sample), XmlSanitizer.sanitize(sample));
+        }
+    }
+
+    @Test
+    public void streamsEquivalentesARegex() throws IOException {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 500; i++) {
+            String sample = randomXml(random);
+            byte[] bytes = sample.getBytes(StandardCharsets.UTF_8);
+            String expected = reference(sample);
+
+            // escribe en bloques de tamaño aleatorio para partir las secuencias UTF-8
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (SanitizingOutputStream sanitizer = new SanitizingOutputStream(out)) {
+                int offset = 0;
+                while (offset < bytes.length) {
+                    int len = Math.min(bytes.length - offset, 1 + random.nextInt(5));
+                    sanitizer.write(bytes, offset, len);
+                    offset += len;
+                }
+            }
+
+            assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+
+            try (InputStream in = new SanitizingInputStream(new ByteArrayInputStream(bytes))) {
+                assertEquals(expected, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static String reference(String xml) {
+        return xml.replaceAll("\\p{Cf}", "").trim();
+    }
+
+    private static String randomXml(Random random) {
+        int[] alphabet = {' ', '\n', '\t', 'a', '<', '>', 0xFEFF, 0x200B, 0x00AD, 0x00F1, 0x00A0, 0x1D11E, 0xE0001};
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(30);
+        for (int i = 0; i < length; i++) {
+            sb.appendCodePoint(alphabet[random.nextInt(alphabet.length)]);
+        }
+
+        return sb.toString();
+    }
+}